@@ -0,0 +1,190 @@
+package car.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal benchmark harness. Each benchmark is run for a number of warm-up
+ * iterations, whose results are thrown away, and then for a number of
+ * measured iterations. Each iteration calls the benchmark repeatedly for a
+ * fixed amount of time, and records the average time per call.
+ *
+ * Results are collected and can be written out as a JSON array, one object
+ * per benchmark, in a layout similar to JMH's JSON output.
+ *
+ * @author Joshua Little
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * A single benchmarked operation.
+	 */
+	public interface Task {
+		/**
+		 * Performs the operation once. The returned value is consumed by the
+		 * runner so that the JIT can't eliminate the work as dead code.
+		 *
+		 * @return any value derived from the work done.
+		 */
+		double run();
+	}
+
+	private int warmups; // Number of warm-up iterations.
+	private int iterations; // Number of measured iterations.
+	private long iterationNanos; // Length of each iteration.
+
+	private String filter; // Only run benchmarks whose names contain this.
+
+	private List<String> results = new ArrayList<String>(); // JSON objects.
+
+	private volatile double sink; // Where Task results end up.
+
+	/**
+	 * Creates a new instance of <code>BenchmarkRunner</code>.
+	 *
+	 * @param warmups the number of warm-up iterations per benchmark.
+	 * @param iterations the number of measured iterations per benchmark.
+	 * @param iterationMillis the length of each iteration, in milliseconds.
+	 * @param filter only benchmarks whose names contain this are run. May be <code>null</code>.
+	 */
+	public BenchmarkRunner(int warmups, int iterations, long iterationMillis,
+						   String filter) {
+		this.warmups = warmups;
+		this.iterations = iterations;
+		this.iterationNanos = iterationMillis * 1000000L;
+		this.filter = filter;
+	}
+
+	/**
+	 * Returns a new, empty parameter map, for use with
+	 * {@link #run(String, Map, Task)}.
+	 *
+	 * @return a new parameter map.
+	 */
+	public static Map<String, String> params() {
+		return new LinkedHashMap<String, String>();
+	}
+
+	/**
+	 * Runs the supplied benchmark and records its results. Progress is
+	 * reported on <code>System.err</code>, so it doesn't mix with the JSON.
+	 *
+	 * @param name the benchmark's name.
+	 * @param params the parameters the benchmark was run with.
+	 * @param task the operation to benchmark.
+	 */
+	public void run(String name, Map<String, String> params, Task task) {
+		if ( filter != null && !name.contains(filter) ) {
+			return;
+		}
+
+		System.err.print(name + " " + params + " ...");
+
+		for ( int i = 0; i < warmups; i++ ) {
+			iterate(task);
+		}
+
+		double[] scores = new double[iterations];
+		for ( int i = 0; i < iterations; i++ ) {
+			scores[i] = iterate(task);
+		}
+
+		double mean = 0;
+		for ( double score : scores ) {
+			mean += score;
+		}
+		mean /= scores.length;
+
+		double variance = 0;
+		for ( double score : scores ) {
+			variance += (score - mean) * (score - mean);
+		}
+		double stdDev = (scores.length > 1)
+							? Math.sqrt(variance / (scores.length - 1)) : 0;
+
+		System.err.println(" " + mean + " us/op");
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\"benchmark\": ").append(quote(name));
+		json.append(", \"mode\": \"avgt\"");
+		json.append(", \"params\": {");
+
+		boolean first = true;
+		for ( Map.Entry<String, String> param : params.entrySet() ) {
+			if ( !first ) {
+				json.append(", ");
+			}
+			json.append(quote(param.getKey())).append(": ")
+				.append(quote(param.getValue()));
+			first = false;
+		}
+
+		json.append("}, \"primaryMetric\": {");
+		json.append("\"score\": ").append(mean);
+		json.append(", \"scoreError\": ").append(stdDev);
+		json.append(", \"scoreUnit\": \"us/op\"");
+		json.append(", \"rawData\": [");
+		for ( int i = 0; i < scores.length; i++ ) {
+			if ( i > 0 ) {
+				json.append(", ");
+			}
+			json.append(scores[i]);
+		}
+		json.append("]}}");
+
+		results.add(json.toString());
+	}
+
+	/**
+	 * Returns all of the recorded results as a JSON array.
+	 *
+	 * @return the results, as JSON.
+	 */
+	public String toJSON() {
+		StringBuilder json = new StringBuilder("[\n");
+
+		for ( int i = 0; i < results.size(); i++ ) {
+			json.append("  ").append(results.get(i));
+			json.append( (i < results.size() - 1) ? ",\n" : "\n" );
+		}
+
+		return json.append("]\n").toString();
+	}
+
+	/**
+	 * Runs a single iteration of the supplied task.
+	 *
+	 * @param task the task to run.
+	 * @return the average time per call, in microseconds.
+	 */
+	private double iterate(Task task) {
+		double acc = 0;
+		long ops = 0;
+
+		long start = System.nanoTime();
+		long elapsed;
+		do {
+			acc += task.run();
+			ops++;
+
+			elapsed = System.nanoTime() - start;
+		} while ( elapsed < iterationNanos );
+
+		sink = acc; // Consume the results.
+
+		return elapsed / 1000.0 / ops;
+	}
+
+	/**
+	 * Quotes and escapes the supplied <code>String</code> for JSON.
+	 *
+	 * @param str the <code>String</code> to quote.
+	 * @return the JSON string literal.
+	 */
+	private static String quote(String str) {
+		return "\"" + str.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+}
@@ -0,0 +1,520 @@
+package car.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import car.bench.BenchmarkRunner.Task;
+import car.shared.math.Matrix3D;
+import car.shared.math.Point3D;
+import car.shared.math.Quaternion;
+import car.shared.views3d.WireFrameGeometry;
+import car.shared.views3d.obj.Face;
+import car.shared.views3d.obj.ObjIO;
+import car.shared.views3d.obj.ObjWireFrame;
+
+/**
+ * Benchmarks the hot paths of the geometry code on a regular JVM: .obj
+ * parsing, rotation-matrix generation, vertex transformation, and face
+ * ordering with back-face culling.
+ *
+ * Usage: [-o out_file] [-f filter] [-wi warm-ups] [-i iterations] [-t millis]
+ *
+ * Must be run from the project directory, so the models in war/models and
+ * war/rawModels can be found. Results are written as JSON to the output file,
+ * or standard output if none is given. For example:
+ *
+ * <code>java -cp war/WEB-INF/classes:bench-classes:war/WEB-INF/lib/*
+ * car.bench.Benchmarks -o bench_output.txt</code>
+ *
+ * @author Joshua Little
+ */
+public class Benchmarks {
+	private static final String[] MODEL_DIRS = { "war/models", "war/rawModels" };
+
+	private static final int ROTATIONS = 1024; // Length of rotation sequences.
+	private static final double SMALL_DELTA = 0.01; // One dragged pixel.
+
+	/**
+	 * A way of putting a wire-frame's faces in drawing order.
+	 */
+	private interface FaceOrder {
+		/**
+		 * Orders the faces of the supplied, already transformed, geometry.
+		 *
+		 * @param geometry the geometry to order.
+		 * @return the faces in drawing order.
+		 */
+		Face[] order(WireFrameGeometry geometry);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String outFile = null;
+		String filter = null;
+		int warmups = 3;
+		int iterations = 5;
+		long millis = 200;
+
+		for ( int i = 0; i < args.length - 1; i += 2 ) {
+			if ( args[i].equals("-o") ) {
+				outFile = args[i + 1];
+			} else if ( args[i].equals("-f") ) {
+				filter = args[i + 1];
+			} else if ( args[i].equals("-wi") ) {
+				warmups = Integer.parseInt(args[i + 1]);
+			} else if ( args[i].equals("-i") ) {
+				iterations = Integer.parseInt(args[i + 1]);
+			} else if ( args[i].equals("-t") ) {
+				millis = Long.parseLong(args[i + 1]);
+			} else {
+				System.out.println("Usage: [-o out_file] [-f filter] "
+								 + "[-wi warm-ups] [-i iterations] [-t millis]");
+				return;
+			}
+		}
+
+		BenchmarkRunner runner =
+						new BenchmarkRunner(warmups, iterations, millis, filter);
+
+		// Every model file, plus two large synthetic meshes.
+		List<String> names = new ArrayList<String>();
+		List<String> contents = new ArrayList<String>();
+
+		for ( String dir : MODEL_DIRS ) {
+			File[] files = new File(dir).listFiles();
+			if ( files == null ) {
+				throw new IOException("Could not find \"" + dir + "\". "
+									+ "Run from the project directory.");
+			}
+
+			Arrays.sort(files);
+			for ( File file : files ) {
+				if ( file.getName().endsWith(".objm") ) {
+					names.add(dir.substring(4) + "/" + file.getName());
+					contents.add(readFile(file));
+				}
+			}
+		}
+
+		names.add("synthetic-10k");
+		contents.add(createSphere(100, 100));
+		names.add("synthetic-100k");
+		contents.add(createSphere(316, 316));
+
+		benchmarkParsing(runner, names, contents);
+		benchmarkRotation(runner);
+
+		// Geometry benchmarks use one real model and the synthetic meshes.
+		String[] meshNames = { "models/sedan.objm", "synthetic-10k",
+							   "synthetic-100k" };
+		for ( String meshName : meshNames ) {
+			ObjWireFrame wireFrame =
+				ObjIO.parseObjFile(contents.get(names.indexOf(meshName)));
+
+			benchmarkTransform(runner, meshName, wireFrame);
+
+			// Ordering is quadratic for random jumps; skip the largest mesh.
+			if ( wireFrame.faces.length <= 10000 ) {
+				benchmarkOrdering(runner, meshName, wireFrame);
+			}
+		}
+
+		String json = runner.toJSON();
+
+		if ( outFile == null ) {
+			System.out.print(json);
+		} else {
+			OutputStream fout = new FileOutputStream(outFile);
+			try {
+				fout.write(json.getBytes("UTF-8"));
+			} finally {
+				fout.close();
+			}
+		}
+	}
+
+	/**
+	 * Benchmarks {@link ObjIO#parseObjFile(String)} on each of the supplied
+	 * files.
+	 *
+	 * @param runner the runner to run the benchmarks with.
+	 * @param names the names of the files.
+	 * @param contents the contents of the files.
+	 */
+	private static void benchmarkParsing(BenchmarkRunner runner,
+							List<String> names, List<String> contents) {
+		for ( int i = 0; i < names.size(); i++ ) {
+			final String content = contents.get(i);
+
+			Map<String, String> params = BenchmarkRunner.params();
+			params.put("model", names.get(i));
+			params.put("bytes", String.valueOf(content.length()));
+			params.put("faces", String.valueOf(
+							ObjIO.parseObjFile(content).faces.length));
+
+			runner.run("parse", params, new Task() {
+				@Override
+				public double run() {
+					return ObjIO.parseObjFile(content).faces.length;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Benchmarks building a rotation matrix, from Euler angles and from
+	 * incremental drag rotations.
+	 *
+	 * @param runner the runner to run the benchmarks with.
+	 */
+	private static void benchmarkRotation(BenchmarkRunner runner) {
+		final double[] angles = randomAngles(new Random(42));
+		final Quaternion orientation = new Quaternion();
+		final Matrix3D matrix = new Matrix3D();
+
+		runner.run("rotation.euler", BenchmarkRunner.params(), new Task() {
+			int i = 0;
+
+			@Override
+			public double run() {
+				int at = (i++ % ROTATIONS) * 3;
+				orientation.setEuler(angles[at], angles[at+1], angles[at+2]);
+				orientation.toMatrix(matrix);
+
+				return matrix.m11;
+			}
+		});
+
+		runner.run("rotation.incremental", BenchmarkRunner.params(),
+				   new Task() {
+			@Override
+			public double run() {
+				orientation.rotateIncremental(SMALL_DELTA, SMALL_DELTA, 0);
+				orientation.toMatrix(matrix);
+
+				return matrix.m11;
+			}
+		});
+	}
+
+	/**
+	 * Benchmarks rotating every vertex and normal of the supplied wire-frame,
+	 * one <code>Point3D</code> at a time and with the packed kernels.
+	 *
+	 * @param runner the runner to run the benchmarks with.
+	 * @param name the name of the wire-frame.
+	 * @param wireFrame the wire-frame to transform.
+	 */
+	private static void benchmarkTransform(BenchmarkRunner runner,
+									String name, ObjWireFrame wireFrame) {
+		final Matrix3D rotation = randomRotation(new Random(7));
+
+		final Point3D[] vertices = wireFrame.vertices;
+		final Point3D[] normals = wireFrame.normals;
+		final Point3D[] tVertices = newPoints(vertices.length);
+		final Point3D[] tNormals = newPoints(normals.length);
+		final double[] vPoints = new double[vertices.length * 2];
+
+		// The same work as the packed kernels: rotate and project vertices,
+		// and rotate normals.
+		Map<String, String> params = meshParams(name, wireFrame);
+		runner.run("transform.point3d", params, new Task() {
+			@Override
+			public double run() {
+				for ( int i = 0; i < vertices.length; i++ ) {
+					tVertices[i].setPoint(vertices[i]);
+					tVertices[i].multiply(rotation);
+
+					vPoints[i*2] = tVertices[i].x;
+					vPoints[i*2 + 1] = -tVertices[i].y;
+				}
+
+				for ( int i = 0; i < normals.length; i++ ) {
+					tNormals[i].setPoint(normals[i]);
+					tNormals[i].multiply(rotation);
+				}
+
+				return vPoints[0];
+			}
+		});
+
+		final WireFrameGeometry geometry = new WireFrameGeometry(wireFrame);
+		runner.run("transform.packed", params, new Task() {
+			@Override
+			public double run() {
+				geometry.transform(rotation);
+
+				return geometry.getProjectedVertices()[0];
+			}
+		});
+	}
+
+	/**
+	 * Benchmarks a full frame of geometry work (transform, order, and cull)
+	 * for each face-ordering strategy, under a sequence of small, drag-like
+	 * rotations and under a sequence of random rotations.
+	 *
+	 * @param runner the runner to run the benchmarks with.
+	 * @param name the name of the wire-frame.
+	 * @param wireFrame the wire-frame to draw.
+	 */
+	private static void benchmarkOrdering(BenchmarkRunner runner,
+									String name, final ObjWireFrame wireFrame) {
+		// Keeps the previous frame's order, as WireFrameView does.
+		FaceOrder insertion = new FaceOrder() {
+			@Override
+			public Face[] order(WireFrameGeometry geometry) {
+				geometry.sortFaces();
+				return geometry.getFaces();
+			}
+		};
+
+		// Starts from the file's order every frame, as happens when the
+		// wire-frame is reset before each draw.
+		FaceOrder insertionCold = new FaceOrder() {
+			@Override
+			public Face[] order(WireFrameGeometry geometry) {
+				geometry.resetFaceOrder();
+				geometry.sortFaces();
+				return geometry.getFaces();
+			}
+		};
+
+		// Reference: a library merge sort on precomputed keys.
+		FaceOrder mergeSort = new FaceOrder() {
+			@Override
+			public Face[] order(final WireFrameGeometry geometry) {
+				final Face[] faces = wireFrame.faces;
+				final double[] keys = new double[faces.length];
+				Integer[] indices = new Integer[faces.length];
+
+				for ( int i = 0; i < faces.length; i++ ) {
+					keys[i] = geometry.findMaxZ(faces[i]);
+					indices[i] = i;
+				}
+
+				Arrays.sort(indices, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer a, Integer b) {
+						return Double.compare(keys[a], keys[b]);
+					}
+				});
+
+				Face[] ordered = new Face[faces.length];
+				for ( int i = 0; i < ordered.length; i++ ) {
+					ordered[i] = faces[indices[i]];
+				}
+
+				return ordered;
+			}
+		};
+
+		String[] strategyNames = { "insertion", "insertion-cold", "mergesort" };
+		FaceOrder[] strategies = { insertion, insertionCold, mergeSort };
+
+		for ( int s = 0; s < strategies.length; s++ ) {
+			for ( final boolean smallDelta : new boolean[] { true, false } ) {
+				final FaceOrder strategy = strategies[s];
+				final WireFrameGeometry geometry =
+										new WireFrameGeometry(wireFrame);
+
+				final double[] angles = randomAngles(new Random(42));
+				final Quaternion orientation = new Quaternion();
+				final Matrix3D rotation = new Matrix3D();
+
+				Map<String, String> params = meshParams(name, wireFrame);
+				params.put("strategy", strategyNames[s]);
+				params.put("rotations", smallDelta ? "small-delta"
+												   : "random-jump");
+
+				runner.run("order", params, new Task() {
+					int i = 0;
+
+					@Override
+					public double run() {
+						if ( smallDelta ) {
+							orientation.rotateIncremental(SMALL_DELTA,
+														  SMALL_DELTA, 0);
+						} else {
+							int at = (i++ % ROTATIONS) * 3;
+							orientation.setEuler(angles[at], angles[at+1],
+												 angles[at+2]);
+						}
+						orientation.toMatrix(rotation);
+
+						geometry.transform(rotation);
+
+						int visible = 0;
+						for ( Face face : strategy.order(geometry) ) {
+							if ( geometry.isVisible(face) ) {
+								visible++;
+							}
+						}
+
+						return visible;
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Returns the parameters describing the supplied mesh.
+	 *
+	 * @param name the name of the mesh.
+	 * @param wireFrame the mesh.
+	 * @return the parameters.
+	 */
+	private static Map<String, String> meshParams(String name,
+												  ObjWireFrame wireFrame) {
+		Map<String, String> params = BenchmarkRunner.params();
+		params.put("model", name);
+		params.put("vertices", String.valueOf(wireFrame.vertices.length));
+		params.put("faces", String.valueOf(wireFrame.faces.length));
+
+		return params;
+	}
+
+	/**
+	 * Returns an array of new <code>Point3D</code>s.
+	 *
+	 * @param count the number of points.
+	 * @return the new points.
+	 */
+	private static Point3D[] newPoints(int count) {
+		Point3D[] points = new Point3D[count];
+		for ( int i = 0; i < count; i++ ) {
+			points[i] = new Point3D();
+		}
+
+		return points;
+	}
+
+	/**
+	 * Returns {@link #ROTATIONS} random Euler angle triples, packed.
+	 *
+	 * @param random the source of randomness.
+	 * @return the packed angles.
+	 */
+	private static double[] randomAngles(Random random) {
+		double[] angles = new double[ROTATIONS * 3];
+
+		for ( int i = 0; i < angles.length; i++ ) {
+			angles[i] = random.nextDouble() * 2 * Math.PI;
+		}
+
+		return angles;
+	}
+
+	/**
+	 * Returns a random rotation matrix.
+	 *
+	 * @param random the source of randomness.
+	 * @return the rotation matrix.
+	 */
+	private static Matrix3D randomRotation(Random random) {
+		Quaternion orientation = new Quaternion();
+		orientation.setEuler(random.nextDouble() * 2 * Math.PI,
+							 random.nextDouble() * 2 * Math.PI,
+							 random.nextDouble() * 2 * Math.PI);
+
+		Matrix3D rotation = new Matrix3D();
+		orientation.toMatrix(rotation);
+
+		return rotation;
+	}
+
+	/**
+	 * Creates the contents of an .obj file describing a sphere made up of
+	 * <code>stacks * slices</code> quadrilateral faces, each with its own
+	 * normal.
+	 *
+	 * @param stacks the number of faces from pole to pole.
+	 * @param slices the number of faces around the equator.
+	 * @return the .obj file's contents.
+	 */
+	private static String createSphere(int stacks, int slices) {
+		StringBuilder obj = new StringBuilder();
+
+		for ( int i = 0; i <= stacks; i++ ) {
+			double theta = Math.PI * i / stacks;
+
+			for ( int j = 0; j < slices; j++ ) {
+				double phi = 2 * Math.PI * j / slices;
+
+				obj.append("v ").append(0.75 * Math.sin(theta) * Math.cos(phi))
+				   .append(' ').append(0.75 * Math.cos(theta))
+				   .append(' ').append(0.75 * Math.sin(theta) * Math.sin(phi))
+				   .append('\n');
+			}
+		}
+
+		for ( int i = 0; i < stacks; i++ ) {
+			// Normal through the middle of the face.
+			double theta = Math.PI * (i + 0.5) / stacks;
+
+			for ( int j = 0; j < slices; j++ ) {
+				double phi = 2 * Math.PI * (j + 0.5) / slices;
+
+				obj.append("vn ").append(Math.sin(theta) * Math.cos(phi))
+				   .append(' ').append(Math.cos(theta))
+				   .append(' ').append(Math.sin(theta) * Math.sin(phi))
+				   .append('\n');
+			}
+		}
+
+		for ( int i = 0; i < stacks; i++ ) {
+			for ( int j = 0; j < slices; j++ ) {
+				// Obj files index from 1.
+				int a = i * slices + j + 1;
+				int b = i * slices + (j + 1) % slices + 1;
+				int n = i * slices + j + 1;
+
+				obj.append("f ").append(a).append("//").append(n)
+				   .append(' ').append(a + slices).append("//").append(n)
+				   .append(' ').append(b + slices).append("//").append(n)
+				   .append(' ').append(b).append("//").append(n)
+				   .append('\n');
+			}
+		}
+
+		return obj.toString();
+	}
+
+	/**
+	 * Reads the entire file into a <code>String</code>.
+	 *
+	 * @param file the file to read.
+	 * @return the file's contents.
+	 * @throws IOException if the file can't be read.
+	 */
+	private static String readFile(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+
+		InputStream fin = new FileInputStream(file);
+		try {
+			int read = 0;
+			while ( read < bytes.length ) {
+				int count = fin.read(bytes, read, bytes.length - read);
+				if ( count < 0 ) {
+					break;
+				}
+				read += count;
+			}
+		} finally {
+			fin.close();
+		}
+
+		return new String(bytes, "UTF-8");
+	}
+
+}
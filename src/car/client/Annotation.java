@@ -0,0 +1,115 @@
+package car.client;
+
+import car.orientor.client.CarOrientor;
+import car.picker.client.CarPicker;
+import car.picker.client.Viewer;
+import car.viewer.client.CarViewer;
+
+import com.google.gwt.core.client.EntryPoint;
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.RunAsyncCallback;
+import com.google.gwt.dom.client.Document;
+
+/**
+ * Entry point for the combined annotation module. Instead of each widget
+ * being compiled into its own module, this one module holds all of them, and
+ * starts whichever widgets have a container div on the host page. An annotator
+ * moving between tasks then downloads the module once, and the browser's cache
+ * serves it for every page after that.
+ * 
+ * Each widget is loaded through its own split point, so a page only downloads
+ * the code for the widgets it uses. Code used by more than one of them, like
+ * the configuration and 3D code, ends up in a common fragment, which is also
+ * cached.
+ * 
+ * The host page sets up the widget exactly as it would for the widget's own
+ * module, just with <code>annotation/annotation.nocache.js</code> as the
+ * script.
+ * 
+ * @author Joshua Little
+ */
+public class Annotation implements EntryPoint {
+
+	/**
+	 * This is the entry point method. Called after JavaScript is loaded and
+	 * environment is set up.
+	 */
+	public void onModuleLoad() {
+		if ( hasContainer(CarOrientor.CONTAINER_NAME) ) {
+			GWT.runAsync(new RunAsyncCallback() {
+				@Override
+				public void onSuccess() {
+					new CarOrientor().onModuleLoad();
+				}
+				
+				@Override
+				public void onFailure(Throwable reason) {
+					failed("CarOrientor", reason);
+				}
+			});
+		}
+		
+		if ( hasContainer(CarPicker.CONTAINER_NAME) ) {
+			GWT.runAsync(new RunAsyncCallback() {
+				@Override
+				public void onSuccess() {
+					new CarPicker().onModuleLoad();
+				}
+				
+				@Override
+				public void onFailure(Throwable reason) {
+					failed("CarPicker", reason);
+				}
+			});
+		}
+		
+		if ( hasContainer(Viewer.CONTAINER_NAME) ) {
+			GWT.runAsync(new RunAsyncCallback() {
+				@Override
+				public void onSuccess() {
+					new Viewer().onModuleLoad();
+				}
+				
+				@Override
+				public void onFailure(Throwable reason) {
+					failed("Viewer", reason);
+				}
+			});
+		}
+		
+		if ( hasContainer(CarViewer.CONTAINER_NAME) ) {
+			GWT.runAsync(new RunAsyncCallback() {
+				@Override
+				public void onSuccess() {
+					new CarViewer().onModuleLoad();
+				}
+				
+				@Override
+				public void onFailure(Throwable reason) {
+					failed("CarViewer", reason);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Returns whether the host page has an element with the supplied id.
+	 * 
+	 * @param id the id to look for.
+	 * @return <code>true</code> if there is one, <code>false</code> otherwise.
+	 */
+	private static boolean hasContainer(String id) {
+		return Document.get().getElementById(id) != null;
+	}
+	
+	/**
+	 * Reports that a widget's code couldn't be downloaded.
+	 * 
+	 * @param widget the name of the widget.
+	 * @param reason why it failed.
+	 */
+	private static void failed(String widget, Throwable reason) {
+		GWT.log("Could not load the " + widget + ".", reason);
+	}
+	
+}
@@ -1,7 +1,6 @@
 package car.orientor.client;
 
 import gwt.g2d.client.graphics.Surface;
-import gwt.g2d.client.graphics.canvas.CanvasElement;
 import gwt.g2d.client.math.Rectangle;
 
 import java.util.ArrayList;
@@ -11,17 +10,28 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import car.shared.config.Bootstrap;
+import car.shared.config.LoadTimings;
 import car.shared.input.Slider;
+import car.shared.net.SubmissionQueue;
+import car.shared.net.SubmissionQueue.Submission;
 import car.shared.views.Drawable;
+import car.shared.views.FrameStats;
+import car.shared.views.FrameStats.Phase;
 import car.shared.views.MovableImageMouseHandler;
 import car.shared.views.MovableImageView;
+import car.shared.views.OverlayPainter;
 import car.shared.views3d.WireFrameConfig;
 import car.shared.views3d.WireFrameMouseHandler;
+import car.shared.views3d.WireFramePainter;
 import car.shared.views3d.WireFrameView;
 import car.shared.views3d.obj.ObjWireFrame;
 
 import com.google.gwt.core.client.EntryPoint;
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+import com.google.gwt.core.client.RunAsyncCallback;
 import com.google.gwt.dom.client.Element;
 import com.google.gwt.dom.client.Style;
 import com.google.gwt.dom.client.Style.Display;
@@ -54,8 +64,10 @@ import com.google.gwt.user.client.ui.RootPanel;
  * @author Joshua Little
  */
 public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
-	// Containing div id.
-	private static final String CONTAINER_NAME = "carorientor-container";
+	/**
+	 * Id of the div tag the widget is put in.
+	 */
+	public static final String CONTAINER_NAME = "carorientor-container";
 	// Name of parameter used for image URL.
 	private static final String IMAGE_PARAM = "img";
 	// Assumed total horizontal border width of views.
@@ -76,6 +88,8 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 	
 	// Panels showing wire-frame and image.
 	private WireFrameView wireFrameView = null;
+	// Draws the wire-frame straight onto the image view's overlay.
+	private WireFramePainter overlayWireFrame = null;
 	private MovableImageView movableImageView = null;
 	
 	// Classes responsible for handling mouse events on the views.
@@ -97,6 +111,18 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 	private Panel formContainer;
 	private Button submit;
 	private Set<Hidden> genHiddens; // Handles to added data fields.
+	
+	// Entries added, and the button's state set, before the form loaded.
+	private List<Hidden> pendingEntries = new ArrayList<Hidden>();
+	private boolean formEnabled = true;
+	
+	// Sends the form in the background, or null to submit it normally.
+	private SubmissionQueue submissions = null;
+	
+	// Upcoming tasks, or null if not in queue mode.
+	private TaskQueue tasks = null;
+	
+	private FrameStats stats = new FrameStats(); // Drawing timings.
 
 	/**
 	 * Adds a hidden input to the submit form with the specified name and value.
@@ -108,6 +134,9 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 	public void addFormEntry(String name, String value) {
 		if ( form != null ) {
 			formContainer.add(new Hidden(name, value));
+		} else if ( config.hasForm() ) {
+			// Still loading. It's added as soon as the form's built.
+			pendingEntries.add(new Hidden(name, value));
 		}
 	}
 
@@ -117,7 +146,11 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 	 * @param enabled whether the submit button should be enabled.
 	 */
 	public void setFormEnabled(boolean enabled) {
-		submit.setEnabled(enabled);
+		formEnabled = enabled;
+		
+		if ( submit != null ) {
+			submit.setEnabled(enabled);
+		}
 	}
 	
 	/**
@@ -178,6 +211,24 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 		return movableImageView.getZoom();
 	}
 	
+	/**
+	 * Returns the drawing statistics recorded so far, as a native JavaScript
+	 * object.
+	 * 
+	 * @return the drawing statistics.
+	 * @see car.shared.views.FrameStats#toJSON()
+	 */
+	public JavaScriptObject getStats() {
+		return stats.toJavaScriptObject();
+	}
+	
+	/**
+	 * Clears the drawing statistics recorded so far.
+	 */
+	public void resetStats() {
+		stats.reset();
+	}
+	
 	/**
 	 * Exports the functions that should be available to hand-written
 	 * JavaScript. Should be called before {@link #onModuleLoad()} returns.
@@ -211,28 +262,191 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 		$wnd.CarOrientor.getZoom = $entry(function() {
 			return _this.@car.orientor.client.CarOrientor::getZoom()();
 		});
+		
+		$wnd.CarOrientor.addTask = $entry(function(img,x,y,w,h) {
+			_this.@car.orientor.client.CarOrientor::addTask(Ljava/lang/String;DDDD)(img,x,y,w,h);
+		});
+		$wnd.CarOrientor.addTasks = $entry(function(tasks) {
+			_this.@car.orientor.client.CarOrientor::addTasks(Lcom/google/gwt/core/client/JsArray;)(tasks);
+		});
+		$wnd.CarOrientor.nextTask = $entry(function() {
+			_this.@car.orientor.client.CarOrientor::nextTask()();
+		});
+		
+		$wnd.CarOrientor.getStats = $entry(function() {
+			return _this.@car.orientor.client.CarOrientor::getStats()();
+		});
+		$wnd.CarOrientor.getLoadTimings = $entry(function() {
+			return _this.@car.orientor.client.CarOrientor::getLoadTimings()();
+		});
+		$wnd.CarOrientor.resetStats = $entry(function() {
+			_this.@car.orientor.client.CarOrientor::resetStats()();
+		});
 	}-*/;
 
 	/**
 	 * Calls the native JavaScript function <code>$wnd.afterCarOrientorLoad()
-	 * </code>, if it exists.
+	 * </code>, if it exists. It's called once the first frame showing the
+	 * image has been drawn, and the load timings are passed as its argument.
+	 * 
+	 * @param timings the load timings, as a JavaScript object.
+	 * @see car.shared.config.LoadTimings#toJSON()
 	 */
-	private native void fireAfterModuleLoad() /*-{
+	private native void fireAfterModuleLoad(JavaScriptObject timings) /*-{
 		if ( $wnd.afterCarOrientorLoad ) {
-			$wnd.afterCarOrientorLoad();
+			$wnd.afterCarOrientorLoad(timings);
 		}
 	}-*/;
+	
+	/**
+	 * Returns how long each phase of loading took, as a native JavaScript
+	 * object.
+	 * 
+	 * @return the load timings.
+	 * @see car.shared.config.LoadTimings#toJSON()
+	 */
+	public JavaScriptObject getLoadTimings() {
+		return config.getLoadTimings().toJavaScriptObject();
+	}
 
 	/**
 	 * Calls the native JavaScript function <code>$wnd.onCarOrientorSubmit()
-	 * </code>, if it exists.
+	 * </code>, if it exists. When submitting in the background, it's called
+	 * each time a submission changes state, with the submission's status as
+	 * its argument. Otherwise, it's called once, just before the form is
+	 * submitted, with no argument.
+	 * 
+	 * @param status the submission's status, or <code>null</code>.
+	 * @see car.shared.net.SubmissionQueue.Submission#toJSON()
 	 */
-	private native void fireOnFormSubmit() /*-{
+	private native void fireOnFormSubmit(JavaScriptObject status) /*-{
 		if ( $wnd.onCarOrientorSubmit ) {
-			$wnd.onCarOrientorSubmit();
+			if ( status ) {
+				$wnd.onCarOrientorSubmit(status);
+			} else {
+				$wnd.onCarOrientorSubmit();
+			}
 		}
 	}-*/;
 
+	/**
+	 * Calls the native JavaScript function <code>
+	 * $wnd.onCarOrientorQueueEmpty()</code>, if it exists.
+	 */
+	private native void fireOnQueueEmpty() /*-{
+		if ( $wnd.onCarOrientorQueueEmpty ) {
+			$wnd.onCarOrientorQueueEmpty();
+		}
+	}-*/;
+	
+	/**
+	 * Adds a task to the end of the task queue, switching to queue mode if
+	 * needed. If there's no image being annotated yet, the task is shown as
+	 * soon as its image loads.
+	 * 
+	 * @param imageURL the URL of the task's image.
+	 * @param x x-coordinate of the car rectangle's upper-left corner.
+	 * @param y y-coordinate of the car rectangle's upper-left corner.
+	 * @param width width of the car rectangle.
+	 * @param height height of the car rectangle.
+	 * @see TaskQueue
+	 */
+	public void addTask(String imageURL, double x, double y,
+						double width, double height) {
+		ensureTaskQueue().add(imageURL, new Rectangle(x, y, width, height));
+		startQueueIfNeeded();
+	}
+	
+	/**
+	 * Adds the supplied tasks to the end of the task queue, switching to
+	 * queue mode if needed.
+	 * 
+	 * @param data the tasks, as objects with "img", "x", "y", "w", and "h".
+	 * @see #addTask(String, double, double, double, double)
+	 */
+	public void addTasks(JsArray<TaskQueue.TaskData> data) {
+		ensureTaskQueue().addAll(data);
+		startQueueIfNeeded();
+	}
+	
+	/**
+	 * Moves on to the next task in the task queue, without submitting the
+	 * current one. Does nothing if not in queue mode.
+	 */
+	public void nextTask() {
+		if ( tasks != null ) {
+			tasks.advance();
+		}
+	}
+	
+	/**
+	 * Returns the task queue, creating it if this <code>CarOrientor</code>
+	 * isn't in queue mode yet.
+	 * 
+	 * @return the task queue.
+	 */
+	private TaskQueue ensureTaskQueue() {
+		if ( tasks == null ) {
+			// Prefetched images load here, out of sight.
+			FlowPanel prefetchPanel = new FlowPanel();
+			prefetchPanel.getElement().getStyle().setDisplay(Display.NONE);
+			RootPanel.get().add(prefetchPanel);
+			
+			tasks = new TaskQueue(prefetchPanel, config.getTasksURL());
+			tasks.setListener(new TaskQueue.Listener() {
+				@Override
+				public void onTaskReady(TaskQueue.Task task) {
+					showTask(task);
+				}
+				
+				@Override
+				public void onQueueEmpty() {
+					// Nothing left to submit. Also applies to a form that's
+					// still loading.
+					setFormEnabled(false);
+					
+					fireOnQueueEmpty();
+				}
+			});
+		}
+		
+		return tasks;
+	}
+	
+	/**
+	 * Shows the first task in the queue if no image has been given to
+	 * annotate, and the queue hasn't been started yet. Once started, the
+	 * queue shows tasks added after it runs dry by itself.
+	 */
+	private void startQueueIfNeeded() {
+		if ( imageURL == null && !tasks.isStarted()
+				&& movableImageView != null ) {
+			tasks.advance();
+		}
+	}
+	
+	/**
+	 * Swaps the supplied task's image and car rectangle into the views, and
+	 * resets everything for the new task.
+	 * 
+	 * @param task the task to show.
+	 */
+	private void showTask(TaskQueue.Task task) {
+		imageURL = task.getImageURL();
+		movableImageView.setImage(task.getImage());
+		
+		Rectangle rect = task.getRectangle();
+		setRectangle(rect.getX(), rect.getY(),
+					 rect.getWidth(), rect.getHeight());
+		
+		// Fresh form for the new task, also after the queue ran dry.
+		resetForm();
+		setFormEnabled(true);
+		
+		reset();
+		markFirstFrame(); // The first task's image is the first one shown.
+	}
+	
 	/**
 	 * Gets the configuration name defined in the global JavaScript variable
 	 * "carorientor_config", or <code>null</code> if the variable evaluates to
@@ -243,6 +457,18 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 	public native String readConfigName() /*-{
 		return $wnd.carorientor_config;
 	}-*/;
+	
+	/**
+	 * Gets the configuration and models embedded in the global JavaScript
+	 * variable "carorientor_bootstrap", or <code>null</code> if the variable
+	 * is <code>null</code> or <code>undefined</code>.
+	 * 
+	 * @return the supplied bootstrap, or <code>null</code>.
+	 * @see car.shared.config.Bootstrap
+	 */
+	public native Bootstrap readBootstrap() /*-{
+		return $wnd.carorientor_bootstrap || null;
+	}-*/;
 
 	/**
 	 * Gets the image URL defined in the global JavaScript variable
@@ -300,7 +526,7 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 		String url = readImageURL();
 		
 		// If a url wasn't specified in the host HTML...
-		if ( url == null ) {
+		if ( url == null && paramMap.containsKey(IMAGE_PARAM) ) {
 			// Look for one in a GET parameter.
 			url = paramMap.get(IMAGE_PARAM).get(0);
 		}
@@ -320,8 +546,15 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 		}
 		
 		String configName = readConfigName();
+		Bootstrap bootstrap = readBootstrap();
 		
-		if ( configName == null ) {
+		if ( bootstrap != null ) {
+			// Embedded in the page, so it may already be fully loaded.
+			if ( configName == null ) {
+				configName = WireFrameConfig.DEFAULT_CONFIG;
+			}
+			config = new WireFrameConfig(configName, bootstrap);
+		} else if ( configName == null ) {
 			config = WireFrameConfig.get(); // Load and grab default config.
 		} else {
 			config = new WireFrameConfig(configName);
@@ -366,27 +599,71 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 		
 		buildWireFrameView();
 		buildImageView();
-		buildControls();
 		
-		// Fill up the main container.
+		// Fill up the main container. The controls come later.
 		container = new FlowPanel();
 		container.add(image);
 		container.add(wireFrameView);
 		container.add(movableImageView);
-		container.add(sliderPanel);
-		container.add(carSelectBox);
-		container.add(noCar);
-		container.add(resetButton);
-		
-		if ( config.hasForm() ) {
-			buildForm();
-			container.add(form);
-		}
 		
 		setWidget(container);
 		draw();
 		
-		fireAfterModuleLoad();
+		// A task feed puts us in queue mode. So do tasks added early.
+		if ( config.getTasksURL() != null ) {
+			ensureTaskQueue();
+		}
+		if ( tasks != null ) {
+			startQueueIfNeeded();
+		}
+		
+		loadControls(); // Not needed for the first frame.
+	}
+	
+	/**
+	 * Marks the first frame as drawn, and calls the native after-load hook.
+	 * Should be called once a frame showing the image has been drawn, since
+	 * loading the image is most of the wait. Only the first call does
+	 * anything.
+	 */
+	private void markFirstFrame() {
+		LoadTimings timings = config.getLoadTimings();
+		
+		if ( timings.getFirstFrame() == -1 ) {
+			timings.markFirstFrame();
+			fireAfterModuleLoad(timings.toJavaScriptObject());
+		}
+	}
+	
+	/**
+	 * Downloads the code for the controls and the form in its own fragment,
+	 * then builds them and adds them under the views. Until then, the views
+	 * can still be used with the mouse, but nothing can be submitted.
+	 */
+	private void loadControls() {
+		GWT.runAsync(new RunAsyncCallback() {
+			@Override
+			public void onSuccess() {
+				buildControls();
+				
+				container.add(sliderPanel);
+				container.add(carSelectBox);
+				container.add(noCar);
+				container.add(resetButton);
+				
+				if ( config.hasForm() ) {
+					buildForm();
+					container.add(form);
+				}
+			}
+			
+			@Override
+			public void onFailure(Throwable reason) {
+				GWT.log("Could not load the CarOrientor's controls.", reason);
+				Window.alert("The controls could not be loaded. "
+						+ "Please reload the page.");
+			}
+		});
 	}
 
 	/**
@@ -397,6 +674,7 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 		// Load default car wire-frame and set up wire-frame view.
 		ObjWireFrame carFrame = config.getDefaultWireFrame(); 
 		wireFrameView = new WireFrameView(carFrame, viewWidth, viewHeight);
+		wireFrameView.setFrameStats(stats);
 		
 		// Set up view CSS style.
 		Style wfvStyle = wireFrameView.getElement().getStyle();
@@ -416,14 +694,30 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 		// Initialize the image view with a <code>null</code> image.
 		movableImageView = new MovableImageView(image, carRect, viewWidth, viewHeight);
 		movableImageView.getElement().getStyle().setDisplay(Display.INLINE_BLOCK);
+		movableImageView.setFrameStats(stats);
+		
+		// The wire-frame goes on the overlay. It stays in the middle of the
+		// view, so panning and zooming don't affect it.
+		movableImageView.setOverlayFollowsView(false);
+		movableImageView.setOverlayPainter(new OverlayPainter() {
+			@Override
+			public void paintOverlay(MovableImageView view, Surface overlay) {
+				// If we're displaying the wire-frame...
+				if ( noCarBox == null || !noCarBox.getValue() ) {
+					drawWireFrameOn(overlay);
+				}
+			}
+		});
 
 		// Load the image and give it to the image view when it's done loading.
-		image = new Image(imageURL);
+		// In queue mode, there might not be one until the first task.
+		image = ( imageURL == null ) ? new Image() : new Image(imageURL);
 		image.addLoadHandler(new LoadHandler() {
 			@Override
 			public void onLoad(LoadEvent event) {
 				movableImageView.setImage(image);
 				draw();
+				markFirstFrame();
 			}
 		});
 		
@@ -519,7 +813,9 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 		noCarBox.addClickHandler(new ClickHandler() {
 			@Override
 			public void onClick(ClickEvent event) {
-				redraw(); // Redraw so that the wire-frame dis/reappears.
+				// Redraw so that the wire-frame dis/reappears.
+				movableImageView.invalidateOverlay();
+				draw();
 			}
 		});
 		
@@ -557,6 +853,13 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 		formContainer = new FlowPanel();
 		formContainer.add(submit);
 		
+		// Catch up on anything the page did while the form was loading.
+		for ( Hidden entry : pendingEntries ) {
+			formContainer.add(entry);
+		}
+		pendingEntries.clear();
+		submit.setEnabled(formEnabled);
+		
 		form.add(formContainer);
 		
 		// Adds hidden tags with data before the form is actually submitted.
@@ -566,20 +869,77 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 				if ( shouldSubmitForm() ) {
 					// Turn internal variables into hidden inputs.
 					generateFormData();
-					fireOnFormSubmit();
-					form.submit();
+					
+					if ( submissions != null ) {
+						submitInBackground();
+					} else {
+						fireOnFormSubmit(null);
+						form.submit();
+						
+						// The browser has read the fields by now. If the form
+						// doesn't replace the page, the queue moves on.
+						if ( tasks != null ) {
+							resetForm();
+							advanceAfterSubmit();
+						}
+					}
 				}
 			}
 		});
 		
 		genHiddens = new HashSet<Hidden>();
+		
+		if ( config.shouldSubmitAsync() ) {
+			submissions = new SubmissionQueue(config.getFormAction(),
+											  config.getFormMethod());
+			
+			// Keep the host page up to date on how the submissions are doing.
+			submissions.setListener(new SubmissionQueue.Listener() {
+				@Override
+				public void onSubmissionChanged(Submission submission) {
+					fireOnFormSubmit(submission.toJavaScriptObject());
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Queues the form's fields to be sent in the background, then resets the
+	 * form so it can be submitted again. The page, and this widget, stay
+	 * loaded.
+	 */
+	private void submitInBackground() {
+		if ( submissions.canSubmit() ) {
+			submissions.submit(SubmissionQueue.encodeFields(formContainer));
+		} else {
+			Window.alert("Too many submissions are still waiting to be sent.\n"
+					+ "Please try again in a moment.");
+			resetForm();
+			return;
+		}
+		
+		resetForm();
+		advanceAfterSubmit();
+	}
+	
+	/**
+	 * In queue mode, moves straight on to the next task after a submission.
+	 * The form stays disabled until {@link #showTask(TaskQueue.Task)} puts
+	 * the next task up. Does nothing if not in queue mode.
+	 */
+	private void advanceAfterSubmit() {
+		if ( tasks != null ) {
+			setFormEnabled(false);
+			tasks.advance();
+		}
 	}
 	
 	/**
-	 * Resets the form by removing the generated fields and enabling the submit
-	 * button. Removes all of the fields in {@link #genHiddens} from the
-	 * {@linkplain #formContainer form}, clears the set, and calls
-	 * <code>setEnabled(true)</code> on {@link #submit}.
+	 * Resets the form by removing the generated fields and re-enabling the
+	 * submit button. Removes all of the fields in {@link #genHiddens} from the
+	 * {@linkplain #formContainer form}, clears the set, and enables
+	 * {@link #submit} unless it's been disabled with
+	 * {@link #setFormEnabled(boolean)}.
 	 * 
 	 * If this <code>CarOrientor</code> has no form, this method does nothing.
 	 */
@@ -591,7 +951,7 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 			}
 			
 			genHiddens.clear();
-			submit.setEnabled(true);
+			submit.setEnabled(formEnabled);
 		}
 	}
 	
@@ -682,6 +1042,11 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 			genHiddens.add(new Hidden("scale", "" + computeCarScale(zoom)));
 		}
 		
+		// Field performance data, if the config asks for it.
+		if ( config.shouldSubmitStats() ) {
+			genHiddens.add(new Hidden("frameStats", stats.toJSON()));
+		}
+		
 		// Add hidden data fields to form.
 		for ( Hidden hidden : genHiddens ) {
 			formContainer.add(hidden);
@@ -696,6 +1061,10 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 	 * @throws IllegalArgumentException if name is not in the <code>carSelectBox</code>
 	 */
 	private void setSelectedCarName(String name) {
+		if ( carSelectBox == null ) {
+			return; // Controls are still loading. They'll pick the default.
+		}
+		
 		// If name is null, unselect current car name.
 		if ( name == null ) {
 			carSelectBox.setItemSelected(carSelectBox.getSelectedIndex(),false);
@@ -726,10 +1095,12 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 		wireFrameView.reset();
 		movableImageView.reset();
 		
-		// Sets the default slider values.
-		zoomSlider.setValue(
-				movableImageView.getZoomFactor() * zoomSlider.getMaximum());
-		rollSlider.setValue(50);
+		// Sets the default slider values, if they've loaded.
+		if ( zoomSlider != null ) {
+			zoomSlider.setValue(
+					movableImageView.getZoomFactor() * zoomSlider.getMaximum());
+			rollSlider.setValue(50);
+		}
 		
 		// If the wire-frame has been changed from the default, change it back.
 		ObjWireFrame def = config.getDefaultWireFrame();
@@ -748,6 +1119,7 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 	@Override
 	public boolean draw() {
 		// Draw only redraws if necessary. Returns whether it redrew or not.
+		double start = stats.start();
 		
 		boolean wireFrameRedrawn = false;
 		if ( wireFrameView != null ) {
@@ -755,20 +1127,15 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 		}
 		
 		if ( movableImageView != null ) {
-			boolean movableImageRedrawn;
-			
-			// If the wire-frame was redrawn, we need to redraw this.
+			// If the wire-frame was redrawn, we need to redraw the overlay it's
+			// drawn on. The image and rectangle underneath are left alone.
 			if ( wireFrameRedrawn ) { 
-				movableImageView.redraw();
-				movableImageRedrawn = true;
-			} else { // Otherwise, only redraw it if it needs redrawing.
-				movableImageRedrawn = movableImageView.draw();
+				movableImageView.invalidateOverlay();
 			}
 			
-			// If it was redrawn and we're displaying the wire-frame...
-			if ( movableImageRedrawn && (noCarBox == null || !noCarBox.getValue()) ) {
-				// Redraw wire-frame ontop of it.
-				drawWireFrameOn(movableImageView.getSurface());
+			// Only count frames that actually drew something.
+			if ( movableImageView.draw() ) {
+				stats.record(Phase.FRAME, start);
 			}
 		}
 		
@@ -791,20 +1158,21 @@ public class CarOrientor extends FocusPanel implements EntryPoint, Drawable {
 	}
 	
 	/**
-	 * Draws the wire-frame onto the supplied surface. It does this by directly
-	 * rendering the wire-frame view's canvas onto the supplied canvas.
+	 * Draws the wire-frame onto the supplied surface. It does this by drawing
+	 * the wire-frame view's faces straight onto the supplied canvas, the same
+	 * way the view draws them on its own, so lines stay sharp.
 	 * 
 	 * @param canvas Canvas to draw the wire-frame on.
 	 */
 	protected void drawWireFrameOn(Surface canvas) {
-		CanvasElement fromCanvas = wireFrameView.getSurface().getCanvas();
-		
-		// The canvas may (will) have a strange transform.
-		canvas.save(); // Save the weird transform.
-		// Set the transformation to identity.
-		canvas.setTransform(1, 0, 0, 1, 0, 0);
-		// Draw.
-		canvas.drawImage(fromCanvas, 0, 0, canvas.getWidth(), canvas.getHeight());
-		canvas.restore(); // Restore weird transform.
+		if ( overlayWireFrame == null
+				|| overlayWireFrame.getSurface() != canvas ) {
+			overlayWireFrame = new WireFramePainter(canvas);
+		}
+		
+		// Like the wire-frame view, y = [-1.0, 1.0] fills the canvas' height.
+		double scale = canvas.getHeight() / 2.0;
+		wireFrameView.drawOn(overlayWireFrame, scale,
+							 canvas.getWidth() / 2.0, scale);
 	}
 }
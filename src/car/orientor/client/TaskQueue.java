@@ -0,0 +1,401 @@
+package car.orientor.client;
+
+import gwt.g2d.client.graphics.Surface;
+import gwt.g2d.client.math.Rectangle;
+
+import java.util.LinkedList;
+
+import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+import com.google.gwt.core.client.JsonUtils;
+import com.google.gwt.dom.client.ImageElement;
+import com.google.gwt.event.dom.client.ErrorEvent;
+import com.google.gwt.event.dom.client.ErrorHandler;
+import com.google.gwt.event.dom.client.LoadEvent;
+import com.google.gwt.event.dom.client.LoadHandler;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.RequestException;
+import com.google.gwt.http.client.Response;
+import com.google.gwt.user.client.ui.Image;
+import com.google.gwt.user.client.ui.Panel;
+
+/**
+ * A queue of orientation tasks, each an image and the rectangle around the
+ * car to orient in it. Lets a {@link CarOrientor} move straight on to the
+ * next task after a submission, instead of reloading the page.
+ * 
+ * Tasks come from the host page, from a task feed URL, or both. The feed
+ * should return a JSON array of objects with "img", "x", "y", "w", and "h"
+ * values, and is asked for more whenever the queue runs low. An empty array
+ * means there are no more tasks.
+ * 
+ * The images for the next {@link #PREFETCH_COUNT} tasks are loaded, and
+ * decoded, while the current task is being worked on, so switching to them
+ * doesn't have to wait on the network.
+ * 
+ * @author Joshua Little
+ */
+public class TaskQueue {
+	/**
+	 * Number of upcoming tasks whose images are loaded ahead of time.
+	 */
+	public static final int PREFETCH_COUNT = 2;
+	
+	/**
+	 * A single orientation task.
+	 */
+	public static class Task {
+		private String imageURL; // URL of the image to annotate.
+		private Rectangle rect; // Rectangle around the car.
+		
+		private Image image = null; // Image, once it's started loading.
+		private boolean loaded = false; // Image loaded and decoded?
+		private boolean failed = false; // Image couldn't be loaded?
+		
+		private Task(String imageURL, Rectangle rect) {
+			this.imageURL = imageURL;
+			this.rect = rect;
+		}
+		
+		/**
+		 * Returns the URL of this task's image.
+		 * 
+		 * @return the image's URL.
+		 */
+		public String getImageURL() {
+			return imageURL;
+		}
+		
+		/**
+		 * Returns the rectangle around the car to orient.
+		 * 
+		 * @return the car's rectangle.
+		 */
+		public Rectangle getRectangle() {
+			return rect;
+		}
+		
+		/**
+		 * Returns this task's image. Only guaranteed to be loaded once the
+		 * task has been handed to {@link Listener#onTaskReady(Task)}.
+		 * 
+		 * @return the image.
+		 */
+		public Image getImage() {
+			return image;
+		}
+	}
+	
+	/**
+	 * Listens for tasks becoming ready.
+	 */
+	public interface Listener {
+		/**
+		 * Called when the task asked for by {@link TaskQueue#advance()} is
+		 * ready, with its image loaded.
+		 * 
+		 * @param task the new current task.
+		 */
+		void onTaskReady(Task task);
+		
+		/**
+		 * Called when a task was asked for, but there are none left.
+		 */
+		void onQueueEmpty();
+	}
+	
+	/**
+	 * A task as it's given in JSON by the host page or task feed.
+	 */
+	public static class TaskData extends JavaScriptObject {
+		protected TaskData() {
+		}
+		
+		public final native String getImageURL() /*-{ return this.img; }-*/;
+		public final native double getX() /*-{ return this.x; }-*/;
+		public final native double getY() /*-{ return this.y; }-*/;
+		public final native double getWidth() /*-{ return this.w; }-*/;
+		public final native double getHeight() /*-{ return this.h; }-*/;
+	}
+	
+	private Panel prefetchPanel; // Hidden panel the images load in.
+	private Surface decoder; // Tiny canvas, drawn on to force decoding.
+	
+	private LinkedList<Task> tasks = new LinkedList<Task>(); // Upcoming tasks.
+	private Task current = null; // Task being worked on.
+	private boolean waiting = false; // Has a task been asked for?
+	private boolean started = false; // Has a task ever been asked for?
+	
+	private String feedURL; // Where to get more tasks, or null.
+	private boolean fetching = false; // Feed request in flight?
+	private boolean feedDone = false; // Feed has run dry (or broken)?
+	
+	private Listener listener = null;
+	
+	/**
+	 * Creates an instance of <code>TaskQueue</code>. Prefetched images are
+	 * added to <code>prefetchPanel</code>, which should be attached to the
+	 * document, but hidden.
+	 * 
+	 * @param prefetchPanel the panel to load images in.
+	 * @param feedURL the task feed's URL, or <code>null</code> if there's none.
+	 */
+	public TaskQueue(Panel prefetchPanel, String feedURL) {
+		this.prefetchPanel = prefetchPanel;
+		this.feedURL = feedURL;
+		
+		decoder = new Surface(1, 1);
+	}
+	
+	/**
+	 * Sets the {@link Listener} told about ready tasks.
+	 * 
+	 * @param listener the new listener.
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Returns the task being worked on, or <code>null</code> if there's none.
+	 * 
+	 * @return the current task, or <code>null</code>.
+	 */
+	public Task getCurrent() {
+		return current;
+	}
+	
+	/**
+	 * Returns whether a task has ever been asked for with {@link #advance()}.
+	 * 
+	 * @return whether the queue has been started.
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+	
+	/**
+	 * Returns whether the queue has been started, but ran dry: no task is
+	 * being worked on, or waited for. Tasks added while the queue's idle are
+	 * handed to the listener as soon as they're ready.
+	 * 
+	 * @return whether the queue is idle.
+	 */
+	public boolean isIdle() {
+		return started && current == null && !waiting;
+	}
+	
+	/**
+	 * Adds a task to the end of the queue.
+	 * 
+	 * @param imageURL the URL of the task's image.
+	 * @param rect the rectangle around the car.
+	 */
+	public void add(String imageURL, Rectangle rect) {
+		tasks.add(new Task(imageURL, rect));
+		deliverAdded();
+	}
+	
+	/**
+	 * Adds the supplied tasks to the end of the queue.
+	 * 
+	 * @param data the tasks, as given by the host page or task feed.
+	 */
+	public void addAll(JsArray<TaskData> data) {
+		for ( int i = 0; i < data.length(); i++ ) {
+			TaskData task = data.get(i);
+			tasks.add(new Task(task.getImageURL(), new Rectangle(
+					task.getX(), task.getY(),
+					task.getWidth(), task.getHeight())));
+		}
+		
+		deliverAdded();
+	}
+	
+	/**
+	 * Picks up newly added tasks. If the queue's idle, asks for the next task
+	 * again, since nobody else will.
+	 */
+	private void deliverAdded() {
+		if ( isIdle() && !tasks.isEmpty() ) {
+			advance();
+		} else {
+			deliver();
+		}
+	}
+	
+	/**
+	 * Finishes the current task and asks for the next one. The listener is
+	 * told once it's ready, which may be right away if its image has already
+	 * been prefetched.
+	 */
+	public void advance() {
+		if ( current != null ) {
+			current.image.removeFromParent(); // Done with it.
+			current = null;
+		}
+		
+		started = true;
+		waiting = true;
+		deliver();
+	}
+	
+	/**
+	 * Hands the next task to the listener if one's been asked for and its
+	 * image is ready, then makes sure the upcoming images and tasks are being
+	 * fetched.
+	 */
+	private void deliver() {
+		while ( waiting && !tasks.isEmpty() ) {
+			Task head = tasks.getFirst();
+			
+			if ( head.failed ) { // Skip tasks whose images won't load.
+				tasks.removeFirst();
+				head.image.removeFromParent();
+				continue;
+			}
+			
+			if ( !head.loaded ) {
+				break; // Its load handler will call back in here.
+			}
+			
+			tasks.removeFirst();
+			current = head;
+			waiting = false;
+			
+			prefetch();
+			listener.onTaskReady(head);
+			return;
+		}
+		
+		prefetch();
+		
+		if ( waiting && tasks.isEmpty() && !fetching
+				&& (feedURL == null || feedDone) ) {
+			waiting = false;
+			listener.onQueueEmpty();
+		}
+	}
+	
+	/**
+	 * Starts loading the images of the next few tasks, and asks the feed for
+	 * more tasks if the queue's running low.
+	 */
+	private void prefetch() {
+		int count = 0;
+		for ( Task task : tasks ) {
+			if ( count++ >= PREFETCH_COUNT ) {
+				break;
+			}
+			
+			if ( task.image == null ) {
+				load(task);
+			}
+		}
+		
+		if ( tasks.size() <= PREFETCH_COUNT && feedURL != null
+				&& !fetching && !feedDone ) {
+			fetchMore();
+		}
+	}
+	
+	/**
+	 * Starts loading the supplied task's image. Once it's loaded, draws it
+	 * onto a tiny canvas so the browser decodes it now, rather than when it's
+	 * first shown.
+	 * 
+	 * @param task the task whose image to load.
+	 */
+	private void load(final Task task) {
+		task.image = new Image();
+		
+		task.image.addLoadHandler(new LoadHandler() {
+			@Override
+			public void onLoad(LoadEvent event) {
+				decoder.drawImage(
+						ImageElement.as(task.image.getElement()), 0, 0, 1, 1);
+				
+				task.loaded = true;
+				deliver();
+			}
+		});
+		
+		task.image.addErrorHandler(new ErrorHandler() {
+			@Override
+			public void onError(ErrorEvent event) {
+				GWT.log("Could not load task image: " + task.imageURL);
+				task.failed = true;
+				deliver();
+			}
+		});
+		
+		// Handlers first, so a cached image can't load before they're added.
+		prefetchPanel.add(task.image);
+		task.image.setUrl(task.imageURL);
+	}
+	
+	/**
+	 * Asks the task feed for more tasks.
+	 */
+	private void fetchMore() {
+		RequestBuilder rb = new RequestBuilder(RequestBuilder.GET, feedURL);
+		fetching = true;
+		
+		try {
+			rb.sendRequest(null, new RequestCallback() {
+				@Override
+				public void onResponseReceived(Request request,
+											   Response response) {
+					fetching = false;
+					
+					if ( response.getStatusCode() != 200 ) {
+						feedFailed("Status: " + response.getStatusCode());
+						return;
+					}
+					
+					// The feed is declared by the config, and comes from the
+					// same server, so we trust it as much as the config.
+					JsArray<TaskData> data;
+					try {
+						data = JsonUtils.unsafeEval(response.getText());
+					} catch ( RuntimeException ex ) {
+						feedFailed("Malformed JSON.");
+						return;
+					}
+					
+					if ( data.length() == 0 ) {
+						feedDone = true; // No more tasks.
+					}
+					
+					addAll(data);
+				}
+				
+				@Override
+				public void onError(Request request, Throwable exception) {
+					fetching = false;
+					feedFailed(exception.getMessage());
+				}
+			});
+		} catch ( RequestException ex ) {
+			fetching = false;
+			feedFailed(ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Stops asking the task feed for tasks after it fails, so a broken feed
+	 * doesn't get hammered.
+	 * 
+	 * @param reason why it failed.
+	 */
+	private void feedFailed(String reason) {
+		GWT.log("Could not fetch tasks from \"" + feedURL + "\". " + reason);
+		
+		feedDone = true;
+		deliver();
+	}
+	
+}
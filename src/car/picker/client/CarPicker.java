@@ -1,10 +1,19 @@
 package car.picker.client;
 
 import gwt.g2d.client.graphics.Surface;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import car.shared.codec.PointCodec;
 import car.shared.config.Config;
+import car.shared.net.SubmissionQueue;
+import car.shared.net.SubmissionQueue.Submission;
 
 import com.google.gwt.core.client.EntryPoint;
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.RunAsyncCallback;
 import com.google.gwt.dom.client.Element;
 import com.google.gwt.dom.client.Style;
 import com.google.gwt.dom.client.Style.Display;
@@ -16,6 +25,7 @@ import com.google.gwt.event.dom.client.LoadHandler;
 import com.google.gwt.event.logical.shared.ValueChangeEvent;
 import com.google.gwt.event.logical.shared.ValueChangeHandler;
 import com.google.gwt.user.client.Window;
+import com.google.gwt.user.client.ui.AbsolutePanel;
 import com.google.gwt.user.client.ui.Button;
 import com.google.gwt.user.client.ui.ComplexPanel;
 import com.google.gwt.user.client.ui.FlowPanel;
@@ -34,8 +44,10 @@ import com.google.gwt.user.client.ui.FormPanel.SubmitHandler;
  * @author Joshua Little
  */
 public class CarPicker extends FocusPanel implements EntryPoint {
-	// Name of div tag to put main widget in.
-	private static final String CONTAINER_NAME = "carpicker-container";
+	/**
+	 * Id of the div tag the widget is put in.
+	 */
+	public static final String CONTAINER_NAME = "carpicker-container";
 	// Parameter name for image URL.
 	private static final String IMAGE_PARAM = "img";
 
@@ -48,7 +60,9 @@ public class CarPicker extends FocusPanel implements EntryPoint {
 	
 	private String imageURL; // URL to image to annotate.
 	
-	private Surface canvas = null; // Canvas to draw everything on.
+	private AbsolutePanel layers = null; // Stacks the canvases.
+	private Surface backgroundCanvas = null; // Canvas to draw the image on.
+	private Surface canvas = null; // Canvas to draw CarPoints on.
 	private Image image = null; // Image to annotate.
 	
 	private ComplexPanel controlPanel; // Panel to hold all the buttons.
@@ -59,6 +73,14 @@ public class CarPicker extends FocusPanel implements EntryPoint {
 	private FormPanel form;
 	private Panel formContainer;
 	private Button submit;
+	private List<Hidden> genHiddens; // Handles to added data fields.
+	
+	// Entries added, and the button's state set, before the form loaded.
+	private List<Hidden> pendingEntries = new ArrayList<Hidden>();
+	private boolean formEnabled = true;
+	
+	// Sends the form in the background, or null to submit it normally.
+	private SubmissionQueue submissions = null;
 	
 	/**
 	 * Adds a hidden input to the submit form with the specified name and value.
@@ -70,6 +92,9 @@ public class CarPicker extends FocusPanel implements EntryPoint {
 	public void addFormEntry(String name, String value) {
 		if ( form != null ) {
 			formContainer.add(new Hidden(name, value));
+		} else if ( config.hasForm() ) {
+			// Still loading. It's added as soon as the form's built.
+			pendingEntries.add(new Hidden(name, value));
 		}
 	}
 	
@@ -79,7 +104,11 @@ public class CarPicker extends FocusPanel implements EntryPoint {
 	 * @param enabled whether the submit button should be enabled.
 	 */
 	public void setFormEnabled(boolean enabled) {
-		submit.setEnabled(enabled);
+		formEnabled = enabled;
+		
+		if ( submit != null ) {
+			submit.setEnabled(enabled);
+		}
 	}
 	
 	/**
@@ -113,11 +142,21 @@ public class CarPicker extends FocusPanel implements EntryPoint {
 	
 	/**
 	 * Calls the native JavaScript function <code>$wnd.onCarPickerSubmit()
-	 * </code>, if it exists.
+	 * </code>, if it exists. When submitting in the background, it's called
+	 * each time a submission changes state, with the submission's status as
+	 * its argument. Otherwise, it's called once, just before the form is
+	 * submitted, with no argument.
+	 * 
+	 * @param status the submission's status, or <code>null</code>.
+	 * @see car.shared.net.SubmissionQueue.Submission#toJSON()
 	 */
-	private native void fireOnFormSubmit() /*-{
+	private native void fireOnFormSubmit(JavaScriptObject status) /*-{
 		if ( $wnd.onCarPickerSubmit ) {
-			$wnd.onCarPickerSubmit();
+			if ( status ) {
+				$wnd.onCarPickerSubmit(status);
+			} else {
+				$wnd.onCarPickerSubmit();
+			}
 		}
 	}-*/;
 
@@ -213,15 +252,37 @@ public class CarPicker extends FocusPanel implements EntryPoint {
 	 */
 	public void onLoad() {
 		buildView();
-		buildControls();
 		
-		// Fill main panel.
+		// Fill main panel. The controls come later.
 		container = new FlowPanel();
 		container.add(image);
-		container.add(canvas);
-		container.add(controlPanel);
+		container.add(layers);
 
 		setWidget(container); // Connects the main container to this widget.
+		
+		loadControls(); // Not needed to show the image.
+	}
+	
+	/**
+	 * Downloads the code for the controls and the form in its own fragment,
+	 * then builds them and adds them under the image. Cars can already be
+	 * picked while they're loading.
+	 */
+	private void loadControls() {
+		GWT.runAsync(new RunAsyncCallback() {
+			@Override
+			public void onSuccess() {
+				buildControls();
+				container.add(controlPanel);
+			}
+			
+			@Override
+			public void onFailure(Throwable reason) {
+				GWT.log("Could not load the CarPicker's controls.", reason);
+				Window.alert("The controls could not be loaded. "
+						+ "Please reload the page.");
+			}
+		});
 	}
 
 	/**
@@ -236,12 +297,18 @@ public class CarPicker extends FocusPanel implements EntryPoint {
 		// doesn't directly show up on the page.
 		image.getElement().getStyle().setDisplay(Display.NONE);
 		
-		// Set up the canvas to draw everything on.
+		// Set up the canvases to draw everything on. The image goes on the
+		// bottom one, so dragging a CarPoint doesn't have to redraw it.
+		backgroundCanvas = new Surface();
 		canvas = new Surface();
 		canvas.getElement().setId("carPickerCanvas");
 		
+		layers = new AbsolutePanel();
+		layers.add(backgroundCanvas, 0, 0);
+		layers.add(canvas, 0, 0);
+		
 		// Build handler responsible for dealing with user-interactions.
-		carPointHandler = new CarPointHandler(canvas, image);
+		carPointHandler = new CarPointHandler(backgroundCanvas, canvas, image);
 		carPointHandler.register();
 		addKeyUpHandler(carPointHandler);
 
@@ -250,14 +317,16 @@ public class CarPicker extends FocusPanel implements EntryPoint {
 		image.addLoadHandler(new LoadHandler() {
 			@Override
 			public void onLoad(LoadEvent event) {
+				backgroundCanvas.setSize(image.getWidth(), image.getHeight());
 				canvas.setSize(image.getWidth(), image.getHeight());
+				layers.setPixelSize(image.getWidth(), image.getHeight());
 
 				//Explicit width is needed for centering the widget on the page.
 				Style style = getElement().getStyle();
 				style.setWidth(image.getWidth(), Unit.PX);
 				style.setHeight(image.getHeight(), Unit.PX);
 				
-				carPointHandler.draw();
+				carPointHandler.redraw(); // Resizing cleared the canvases.
 				fireAfterModuleLoad();
 			}
 		});
@@ -318,34 +387,103 @@ public class CarPicker extends FocusPanel implements EntryPoint {
 		submit.addClickHandler(new ClickHandler() {
 			@Override
 			public void onClick(ClickEvent event) {
-				form.submit();
+				if ( submissions != null ) {
+					submitInBackground();
+				} else {
+					form.submit();
+				}
 			}
 		});
 		
 		formContainer = new FlowPanel();
 		formContainer.add(submit);
 		
+		// Catch up on anything the page did while the form was loading.
+		for ( Hidden entry : pendingEntries ) {
+			formContainer.add(entry);
+		}
+		pendingEntries.clear();
+		submit.setEnabled(formEnabled);
+		
 		form.add(formContainer);
 
 		// Adds hidden tags with data before the form is actually submitted.
 		form.addSubmitHandler(new SubmitHandler() {
 			@Override
 			public void onSubmit(SubmitEvent event) {
-				if ( carPointHandler.getCars().isEmpty() ) { // No pickings...
-					boolean submitEmpty = Window.confirm(
-							"No cars have been picked.\n" +
-							"Are you sure you want to submit empty?");
-					
-					if ( !submitEmpty ) {
-						event.cancel(); // Cancel form submission.
-						return;
-					}
+				if ( !shouldSubmitForm() ) {
+					event.cancel(); // Cancel form submission.
+					return;
 				}
 				
 				generateFormData();
-				fireOnFormSubmit();
+				fireOnFormSubmit(null);
 			}
 		});
+		
+		genHiddens = new ArrayList<Hidden>();
+		
+		if ( config.shouldSubmitAsync() ) {
+			submissions = new SubmissionQueue(config.getFormAction(),
+											  config.getFormMethod());
+			
+			// Keep the host page up to date on how the submissions are doing.
+			submissions.setListener(new SubmissionQueue.Listener() {
+				@Override
+				public void onSubmissionChanged(Submission submission) {
+					fireOnFormSubmit(submission.toJavaScriptObject());
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Checks that the form should be submitted. If no cars have been picked,
+	 * asks the user to confirm submitting anyway.
+	 * 
+	 * @return whether the form should be submitted.
+	 */
+	private boolean shouldSubmitForm() {
+		if ( carPointHandler.getCars().isEmpty() ) { // No pickings...
+			return Window.confirm(
+					"No cars have been picked.\n" +
+					"Are you sure you want to submit empty?");
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Queues the form's fields to be sent in the background, then removes the
+	 * generated fields and re-enables the submit button, unless it's been
+	 * disabled with {@link #setFormEnabled(boolean)}, so it can be submitted
+	 * again. The page, and this widget, stay loaded.
+	 */
+	private void submitInBackground() {
+		if ( !shouldSubmitForm() ) {
+			return;
+		}
+		
+		if ( !submissions.canSubmit() ) {
+			Window.alert("Too many submissions are still waiting to be sent.\n"
+					+ "Please try again in a moment.");
+			return;
+		}
+		
+		generateFormData();
+		
+		// generateFormData() may have switched to POST for a big payload.
+		submissions.submit(SubmissionQueue.encodeFields(formContainer),
+						   form.getMethod());
+		
+		// Put the form back the way it was.
+		for ( Hidden hidden : genHiddens ) {
+			formContainer.remove(hidden);
+		}
+		
+		genHiddens.clear();
+		form.setMethod(config.getFormMethod());
+		submit.setEnabled(formEnabled);
 	}
 
 	/**
@@ -353,12 +491,45 @@ public class CarPicker extends FocusPanel implements EntryPoint {
 	 * adds them to the attached form. Called when the attached form is being
 	 * submitted. The attached form can be assumed to be non-<code>null</code>
 	 * and initialized.
+	 * 
+	 * If the configuration asks for compact encoding, all of the points go
+	 * into a single "cars" field, encoded by {@link PointCodec}. Otherwise,
+	 * each point gets its own "car" field. Either way, a GET form is switched
+	 * to POST if the data is longer than the configured threshold.
 	 */
 	private void generateFormData() {
 		submit.setEnabled(false);
 		
-		for ( CarPoint carPoint : carPointHandler.getCars() ) {
-			formContainer.add(new Hidden("car", "" + carPoint.toDataString()));
+		List<CarPoint> cars = carPointHandler.getCars();
+		int length = 0; // Rough length of the submitted data.
+		
+		if ( config.shouldEncodeCompactly() ) {
+			double[] points = new double[cars.size() * 2];
+			for ( int i = 0; i < cars.size(); i++ ) {
+				points[i*2    ] = cars.get(i).x;
+				points[i*2 + 1] = cars.get(i).y;
+			}
+			
+			String encoded = PointCodec.encode(points);
+			genHiddens.add(new Hidden("cars", encoded));
+			length = encoded.length();
+		} else {
+			for ( CarPoint carPoint : cars ) {
+				String data = carPoint.toDataString();
+				genHiddens.add(new Hidden("car", data));
+				length += data.length() + 5; // Plus "&car=".
+			}
+		}
+		
+		// Add hidden data fields to form.
+		for ( Hidden hidden : genHiddens ) {
+			formContainer.add(hidden);
+		}
+		
+		int threshold = config.getPostThreshold();
+		if ( threshold >= 0 && length > threshold
+				&& "GET".equalsIgnoreCase(form.getMethod()) ) {
+			form.setMethod(FormPanel.METHOD_POST); // Too long for a URL.
 		}
 	}
 }
@@ -141,6 +141,16 @@ public class CarPoint extends Point2D {
 		return movable;
 	}
 
+	/**
+	 * Returns the radius of the circle this <code>CarPoint</code> is drawn
+	 * as, not counting its stroke.
+	 * 
+	 * @return the drawn radius.
+	 */
+	public double getDrawRadius() {
+		return drawRadius;
+	}
+
 	/**
 	 * Returns true if the supplied <code>Point2D</code> are within the
 	 * clickable area of this <code>CarPoint</code>. The clickable area is
@@ -183,7 +193,10 @@ public class CarPoint extends Point2D {
 
 	/**
 	 * Sets the radius of the circle defining the clickable area of this
-	 * <code>CarPoint</code>.
+	 * <code>CarPoint</code>. Once it's been added to a
+	 * {@link CarPointHandler}, use
+	 * {@link CarPointHandler#setSelectRadius(CarPoint, double)} instead, so
+	 * it can still be found.
 	 * 
 	 * @param selectRadius the new clickable dimension.
 	 * @see #getSelectRadius()
@@ -0,0 +1,233 @@
+package car.picker.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A uniform grid over the image that indexes {@link CarPoint}s by position, so
+ * that finding the point under the mouse only has to look at the few points in
+ * the nearby cells, rather than all of them.
+ * 
+ * A point's select radius is read when it's added, so changing it afterwards
+ * should go through {@link #setSelectRadius(CarPoint, double)}.
+ * 
+ * <code>CarPoint</code>s extend {@link car.shared.math.Point2D}, whose
+ * <code>equals()</code> compares coordinates, so points are always looked up
+ * by identity here.
+ * 
+ * @author Joshua Little
+ */
+public class CarPointGrid {
+	/**
+	 * Default width and height of each cell, in pixels.
+	 */
+	public static final double DEFAULT_CELL_SIZE = 32;
+	
+	private double cellSize; // Width and height of each cell.
+	
+	// Points in each non-empty cell, keyed by cellKey().
+	private Map<Integer, List<CarPoint>> cells;
+	
+	// Largest select radius of any point added. Bounds how far to search.
+	private double maxRadius = 0;
+	
+	/**
+	 * Creates an empty instance of <code>CarPointGrid</code> with cells of the
+	 * {@linkplain #DEFAULT_CELL_SIZE default size}.
+	 */
+	public CarPointGrid() {
+		this(DEFAULT_CELL_SIZE);
+	}
+	
+	/**
+	 * Creates an empty instance of <code>CarPointGrid</code> with cells of the
+	 * supplied size.
+	 * 
+	 * @param cellSize the width and height of each cell.
+	 */
+	public CarPointGrid(double cellSize) {
+		this.cellSize = cellSize;
+		cells = new HashMap<Integer, List<CarPoint>>();
+	}
+	
+	/**
+	 * Adds the supplied {@link CarPoint} at its current position.
+	 * 
+	 * @param carPoint the <code>CarPoint</code> to add.
+	 */
+	public void add(CarPoint carPoint) {
+		Integer key = cellKey(cell(carPoint.x), cell(carPoint.y));
+		
+		List<CarPoint> cell = cells.get(key);
+		if ( cell == null ) {
+			cell = new ArrayList<CarPoint>(2);
+			cells.put(key, cell);
+		}
+		
+		cell.add(carPoint);
+		maxRadius = Math.max(maxRadius, carPoint.getSelectRadius());
+	}
+	
+	/**
+	 * Removes the supplied {@link CarPoint}, which must be at the same position
+	 * it was added (or last moved) at.
+	 * 
+	 * @param carPoint the <code>CarPoint</code> to remove.
+	 * @return <code>true</code> if it was found, <code>false</code> otherwise.
+	 */
+	public boolean remove(CarPoint carPoint) {
+		Integer key = cellKey(cell(carPoint.x), cell(carPoint.y));
+		
+		List<CarPoint> cell = cells.get(key);
+		if ( cell == null ) {
+			return false;
+		}
+		
+		for ( int i = 0; i < cell.size(); i++ ) {
+			if ( cell.get(i) == carPoint ) {
+				cell.remove(i);
+				
+				if ( cell.isEmpty() ) {
+					cells.remove(key);
+				}
+				
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Moves the supplied {@link CarPoint} to the supplied position, updating
+	 * its cell if needed. Use this instead of setting the point directly.
+	 * 
+	 * @param carPoint the <code>CarPoint</code> to move.
+	 * @param x the new x-coordinate.
+	 * @param y the new y-coordinate.
+	 */
+	public void move(CarPoint carPoint, double x, double y) {
+		if ( cell(carPoint.x) == cell(x) && cell(carPoint.y) == cell(y) ) {
+			carPoint.setPoint(x, y); // Same cell, nothing else to do.
+		} else {
+			remove(carPoint);
+			carPoint.setPoint(x, y);
+			add(carPoint);
+		}
+	}
+	
+	/**
+	 * Sets the select radius of the supplied {@link CarPoint}, which should
+	 * be in this grid, and widens the search to match if needed.
+	 * 
+	 * @param carPoint the <code>CarPoint</code> to change.
+	 * @param selectRadius the new select radius.
+	 */
+	public void setSelectRadius(CarPoint carPoint, double selectRadius) {
+		carPoint.setSelectRadius(selectRadius);
+		maxRadius = Math.max(maxRadius, selectRadius);
+	}
+	
+	/**
+	 * Removes every {@link CarPoint}.
+	 */
+	public void clear() {
+		cells.clear();
+		maxRadius = 0;
+	}
+	
+	/**
+	 * Returns the nearest {@link CarPoint} that the supplied position is on,
+	 * according to {@link CarPoint#onPoint(double, double)}, or <code>null
+	 * </code> if it isn't on any of them.
+	 * 
+	 * @param x the x-coordinate to test.
+	 * @param y the y-coordinate to test.
+	 * @return the nearest <code>CarPoint</code> there, or <code>null</code>.
+	 */
+	public CarPoint findNearest(double x, double y) {
+		CarPoint nearest = null;
+		double nearestDist = Double.POSITIVE_INFINITY; // Squared.
+		
+		// Only cells within the largest select radius can have a hit.
+		int minCX = cell(x - maxRadius), maxCX = cell(x + maxRadius);
+		int minCY = cell(y - maxRadius), maxCY = cell(y + maxRadius);
+		
+		for ( int cy = minCY; cy <= maxCY; cy++ ) {
+			for ( int cx = minCX; cx <= maxCX; cx++ ) {
+				List<CarPoint> cell = cells.get(cellKey(cx, cy));
+				if ( cell == null ) {
+					continue;
+				}
+				
+				for ( CarPoint carPoint : cell ) {
+					double dx = carPoint.x - x;
+					double dy = carPoint.y - y;
+					double dist = dx*dx + dy*dy;
+					double radius = carPoint.getSelectRadius();
+					
+					// Squared distances, so no need for a square root.
+					if ( dist < radius*radius && dist < nearestDist ) {
+						nearest = carPoint;
+						nearestDist = dist;
+					}
+				}
+			}
+		}
+		
+		return nearest;
+	}
+	
+	/**
+	 * Adds every {@link CarPoint} whose position is within the supplied
+	 * rectangle to the supplied list, in no particular order.
+	 * 
+	 * @param x x-coordinate of the rectangle's upper-left corner.
+	 * @param y y-coordinate of the rectangle's upper-left corner.
+	 * @param w width of the rectangle.
+	 * @param h height of the rectangle.
+	 * @param found the list to add the <code>CarPoint</code>s to.
+	 */
+	public void findWithin(double x, double y, double w, double h,
+						   List<CarPoint> found) {
+		for ( int cy = cell(y); cy <= cell(y + h); cy++ ) {
+			for ( int cx = cell(x); cx <= cell(x + w); cx++ ) {
+				List<CarPoint> cell = cells.get(cellKey(cx, cy));
+				if ( cell == null ) {
+					continue;
+				}
+				
+				for ( CarPoint carPoint : cell ) {
+					if ( carPoint.x >= x && carPoint.x <= x + w
+							&& carPoint.y >= y && carPoint.y <= y + h ) {
+						found.add(carPoint);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the index of the cell containing the supplied coordinate.
+	 * 
+	 * @param coord the coordinate.
+	 * @return the cell index.
+	 */
+	private int cell(double coord) {
+		return (int) Math.floor(coord / cellSize);
+	}
+	
+	/**
+	 * Returns the map key for the supplied cell. Distinct for any cells within
+	 * 32768 cells of the origin.
+	 * 
+	 * @param cx the cell's column.
+	 * @param cy the cell's row.
+	 * @return the cell's key.
+	 */
+	private static Integer cellKey(int cx, int cy) {
+		return (cy << 16) ^ (cx & 0xFFFF);
+	}
+}
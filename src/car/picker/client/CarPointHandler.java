@@ -1,6 +1,7 @@
 package car.picker.client;
 
 import gwt.g2d.client.graphics.Color;
+import gwt.g2d.client.graphics.DirectShapeRenderer;
 import gwt.g2d.client.graphics.Surface;
 
 import java.util.ArrayList;
@@ -33,6 +34,11 @@ import com.google.gwt.user.client.ui.Image;
 /**
  * Handles drawing and user-interaction for a set of {@link CarPoint}s.
  * 
+ * Draws on two stacked canvases: the background image goes on the bottom one,
+ * and is only drawn once, while the <code>CarPoint</code>s go on a transparent
+ * one above it. While a <code>CarPoint</code> is being dragged, only the
+ * squares around its old and new positions are cleared and repainted.
+ * 
  * Note: Car sizes are no longer used, as we have decided just to use points
  *       to denote cars, rather than rectangles.
  * 
@@ -43,10 +49,24 @@ public class CarPointHandler implements MouseDownHandler, MouseUpHandler,
 										HasSelectionHandlers<CarPoint>,
 										Drawable {
 	
+	/**
+	 * Extra space around a <code>CarPoint</code>'s drawn radius that's
+	 * repainted when it moves, to cover its stroke and anti-aliasing.
+	 */
+	private static final double DIRTY_PADDING = 2;
+	
 	private List<CarPoint> carPoints = null; // List of current CarPoints.
-	private Surface canvas = null; // The canvas to draw everything on.
+	private CarPointGrid grid = null; // Spatial index of carPoints.
+	private Surface backgroundCanvas = null; // Canvas for the background.
+	private Surface canvas = null; // The canvas to draw CarPoints on.
+	private DirectShapeRenderer builder = null; // Builds clip paths on canvas.
 	private Image background = null; // The background image.
 	
+	private boolean backgroundDrawn = false; // Background canvas up to date?
+	
+	// Scratch list of CarPoints to repaint in a dirty rectangle.
+	private List<CarPoint> dirtyPoints = new ArrayList<CarPoint>();
+	
 	// Manages registration and event-firing for registered handles.
 	private HandlerManager handlerManager;
 	
@@ -75,14 +95,22 @@ public class CarPointHandler implements MouseDownHandler, MouseUpHandler,
 	private int maxCars = -1;
 	
 	/**
-	 * Creates an instance of <code>CarPointHandler</code>.
+	 * Creates an instance of <code>CarPointHandler</code>. The two canvases
+	 * should be the same size, with <code>canvas</code> stacked directly on
+	 * top of <code>backgroundCanvas</code>. Mouse handlers are registered on
+	 * <code>canvas</code>.
 	 * 
-	 * @param canvas the <code>Canvas</code> to draw on.
+	 * @param backgroundCanvas the <code>Canvas</code> to draw the background on.
+	 * @param canvas the <code>Canvas</code> to draw the <code>CarPoint</code>s on.
 	 * @param background the image to use as a background.
 	 */
-	public CarPointHandler(Surface canvas, Image background) {
+	public CarPointHandler(Surface backgroundCanvas, Surface canvas,
+						   Image background) {
 		carPoints = new ArrayList<CarPoint>();
+		grid = new CarPointGrid();
+		this.backgroundCanvas = backgroundCanvas;
 		this.canvas = canvas;
+		this.builder = new DirectShapeRenderer(canvas);
 		this.background = background;
 		
 		handlerRegs = new ArrayList<HandlerRegistration>();
@@ -158,25 +186,32 @@ public class CarPointHandler implements MouseDownHandler, MouseUpHandler,
 	}
 	
 	/**
-	 * Returns the {@link CarPoint} at that location, or <code>null if there are
-	 * none. If the return value is non-<code>null</code>, then it is the first
-	 * <code>CarPoint</code> such that {@link CarPoint#onPoint(Point2D)} returns
-	 * <code>true</code> for the supplied point.
+	 * Returns the {@link CarPoint} at that location, or <code>null</code> if
+	 * there are none. If the return value is non-<code>null</code>, then it is
+	 * the nearest <code>CarPoint</code> such that
+	 * {@link CarPoint#onPoint(Point2D)} returns <code>true</code> for the
+	 * supplied point.
 	 * 
 	 * @param point the point to test.
 	 * @return the <code>CarPoint</code> at that point, or <code>null</code>.
 	 * @see #getCars()
 	 */
 	public CarPoint findCarAt(Point2D point) {
-		// Simpler linear search. There shouldn't be enough points to justify
-		// some kind of geometric storage container.
-		for ( CarPoint carPoint : carPoints ) {
-			if ( carPoint.onPoint(point) ) {
-				return carPoint;
-			}
-		}
-		
-		return null;
+		// Only looks at the points in the grid cells around the point.
+		return grid.findNearest(point.x, point.y);
+	}
+	
+	/**
+	 * Sets the radius of the clickable area of the supplied {@link CarPoint},
+	 * which belongs to this <code>CarPointHandler</code>. Use this instead of
+	 * {@link CarPoint#setSelectRadius(double)}, so that
+	 * {@link #findCarAt(Point2D)} still looks far enough for it.
+	 * 
+	 * @param carPoint the <code>CarPoint</code> to change.
+	 * @param selectRadius the new clickable dimension.
+	 */
+	public void setSelectRadius(CarPoint carPoint, double selectRadius) {
+		grid.setSelectRadius(carPoint, selectRadius);
 	}
 	
 	/**
@@ -184,6 +219,7 @@ public class CarPointHandler implements MouseDownHandler, MouseUpHandler,
 	 */
 	public void clearCars() {
 		carPoints.clear();
+		grid.clear();
 
 		// setFocusedCar fires an event. Only fire that event if it's changed.
 		if ( getFocusedCar() != null ) {
@@ -275,9 +311,39 @@ public class CarPointHandler implements MouseDownHandler, MouseUpHandler,
 		
 		CarPoint newCarPoint = new CarPoint(point.x, point.y, movable);
 		carPoints.add(newCarPoint);
+		grid.add(newCarPoint);
 		
 		return newCarPoint;
 	}
+	
+	/**
+	 * Adds a {@link CarPoint} at each of the supplied points from <code>start
+	 * </code> up to (but not including) <code>end</code>. Doesn't redraw, so
+	 * {@link #draw()} should be called once everything's been added. Rather
+	 * than throwing, stops early if the maximum number of <code>CarPoint</code>s
+	 * is reached.
+	 * 
+	 * @param points the points, as packed (x, y) pairs.
+	 * @param start index of the first point to add.
+	 * @param end index after the last point to add.
+	 * @param movable whether the <code>CarPoint</code>s should be movable.
+	 * @return the number of <code>CarPoint</code>s added.
+	 * @see #getMaxCars()
+	 */
+	public int addCars(double[] points, int start, int end, boolean movable) {
+		int added = 0;
+		
+		for ( int i = start; i < end && canAddCar(); i++ ) {
+			CarPoint newCarPoint =
+				new CarPoint(points[i*2], points[i*2 + 1], movable);
+			carPoints.add(newCarPoint);
+			grid.add(newCarPoint);
+			
+			added++;
+		}
+		
+		return added;
+	}
 
 	/**
 	 * Removes the specified {@link CarPoint} from this <code>CarPointHandler
@@ -287,7 +353,15 @@ public class CarPointHandler implements MouseDownHandler, MouseUpHandler,
 	 * @throws IllegalArgumentException if the supplied <code>CarPoint</code> not registered to this <code>CarPointHandler</code>.
 	 */
 	private void removeCar(CarPoint carPoint) {
-		int oldIdx = carPoints.indexOf(carPoint); // Find the CarPoint.
+		// Find the CarPoint itself. indexOf() would match any CarPoint at the
+		// same coordinates, while the grid removes by identity.
+		int oldIdx = -1;
+		for ( int i = 0; i < carPoints.size(); i++ ) {
+			if ( carPoints.get(i) == carPoint ) {
+				oldIdx = i;
+				break;
+			}
+		}
 		
 		if ( oldIdx == -1 ) { // CarPoint not found.
 			throw new IllegalArgumentException(
@@ -295,6 +369,7 @@ public class CarPointHandler implements MouseDownHandler, MouseUpHandler,
 		}
 		
 		carPoints.remove(oldIdx); // Remove car point.
+		grid.remove(carPoint);
 		
 		// If that was the focused car point...
 		if ( carPoint == getFocusedCar() ) {
@@ -316,15 +391,24 @@ public class CarPointHandler implements MouseDownHandler, MouseUpHandler,
 	}
 	
 	/**
-	 * Draws this widget onto its drawing canvas. Simply draws the background
-	 * image in the center and tells each registered {@link CarPoint} to draw
-	 * itself onto the canvas.
+	 * Draws this widget onto its drawing canvases. Draws the background image
+	 * onto the background canvas if it hasn't been already, then clears the
+	 * <code>CarPoint</code> canvas and tells each registered {@link CarPoint}
+	 * to draw itself onto it.
+	 * 
+	 * Always ends up redrawing this <code>CarPointHandler</code>'s <code>
+	 * CarPoint</code>s.
 	 * 
-	 * Always ends up redrawing this <code>CarPointHandler</code>.
-	 * @return 
+	 * @return <code>true</code>, always.
 	 */
 	public boolean draw() {
-		canvas.drawImage(ImageElement.as(background.getElement()), 0, 0);
+		if ( !backgroundDrawn ) {
+			backgroundCanvas.drawImage(
+					ImageElement.as(background.getElement()), 0, 0);
+			backgroundDrawn = true;
+		}
+		
+		canvas.clear();
 		
 		for ( CarPoint carPoint : carPoints ) {
 			carPoint.draw(canvas);
@@ -334,19 +418,69 @@ public class CarPointHandler implements MouseDownHandler, MouseUpHandler,
 	}
 	
 	/**
-	 * Simply calls {@link #draw()}, which always redraws the <code>
-	 * CarPointHandler</code>.
+	 * Redraws everything, including the background image.
 	 */
 	public void redraw() {
+		invalidate();
 		draw();
 	}
 	
 	/**
-	 * Does nothing, as this <code>CarPointHandler</code> will always redraw
-	 * itself when {@link #draw()} is called.
+	 * Marks the background canvas as needing to be redrawn. Should be called
+	 * whenever the canvases are resized, since that clears them.
 	 */
 	public void invalidate() {
-		// Do nothing. The draw method always draws.
+		backgroundDrawn = false;
+	}
+	
+	/**
+	 * Repaints the parts of the <code>CarPoint</code> canvas affected by the
+	 * supplied <code>CarPoint</code> moving from the supplied old position to
+	 * its current one. Nothing else is touched.
+	 * 
+	 * @param carPoint the <code>CarPoint</code> that moved.
+	 * @param oldX the x-coordinate it moved from.
+	 * @param oldY the y-coordinate it moved from.
+	 */
+	private void drawMoved(CarPoint carPoint, double oldX, double oldY) {
+		double half = carPoint.getDrawRadius() + DIRTY_PADDING;
+		
+		repaintRegion(oldX - half, oldY - half, 2*half, 2*half);
+		repaintRegion(carPoint.x - half, carPoint.y - half, 2*half, 2*half);
+	}
+	
+	/**
+	 * Clears the supplied rectangle of the <code>CarPoint</code> canvas, and
+	 * repaints the parts of the <code>CarPoint</code>s that overlap it.
+	 * 
+	 * @param x x-coordinate of the rectangle's upper-left corner.
+	 * @param y y-coordinate of the rectangle's upper-left corner.
+	 * @param w width of the rectangle.
+	 * @param h height of the rectangle.
+	 */
+	private void repaintRegion(double x, double y, double w, double h) {
+		canvas.save();
+		
+		// Clip, so points sticking out of the rectangle aren't drawn twice
+		// over themselves outside of it.
+		builder.beginPath();
+		builder.drawRect(x, y, w, h);
+		builder.clip();
+		
+		canvas.clearRectangle(x, y, w, h);
+		
+		// CarPoints are all drawn the same size, so anything that can reach
+		// into the rectangle is within the rectangle's own half-size of it.
+		double padX = w / 2, padY = h / 2;
+		
+		dirtyPoints.clear();
+		grid.findWithin(x - padX, y - padY, w + 2*padX, h + 2*padY, dirtyPoints);
+		
+		for ( CarPoint carPoint : dirtyPoints ) {
+			carPoint.draw(canvas);
+		}
+		
+		canvas.restore();
 	}
 	
 	/**
@@ -445,8 +579,11 @@ public class CarPointHandler implements MouseDownHandler, MouseUpHandler,
 	public void onMouseMove(MouseMoveEvent event) {
 		if ( isDragging() ) {
 			Point2D mousePoint = getMousePoint(event); // Get relative location.
-			focused.setPoint(mousePoint); // Update the focused car's loc.
-			draw();
+			double oldX = focused.x, oldY = focused.y;
+			
+			// Update the focused car's loc, and its place in the grid.
+			grid.move(focused, mousePoint.x, mousePoint.y);
+			drawMoved(focused, oldX, oldY); // Just around the old and new loc.
 		}
 	}
 	
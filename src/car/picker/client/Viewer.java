@@ -1,12 +1,18 @@
 package car.picker.client;
 
 import gwt.g2d.client.graphics.Surface;
+import car.shared.codec.PointCodec;
 import car.shared.config.Config;
 import car.shared.math.Point2D;
 import car.shared.views.Drawable;
 
+import com.google.gwt.core.client.Duration;
 import com.google.gwt.core.client.EntryPoint;
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArrayNumber;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.RepeatingCommand;
 import com.google.gwt.dom.client.Style;
 import com.google.gwt.dom.client.Style.Display;
 import com.google.gwt.dom.client.Style.Unit;
@@ -14,7 +20,9 @@ import com.google.gwt.event.dom.client.LoadEvent;
 import com.google.gwt.event.dom.client.LoadHandler;
 import com.google.gwt.event.logical.shared.ValueChangeEvent;
 import com.google.gwt.event.logical.shared.ValueChangeHandler;
+import com.google.gwt.user.client.Command;
 import com.google.gwt.user.client.Window;
+import com.google.gwt.user.client.ui.AbsolutePanel;
 import com.google.gwt.user.client.ui.FlowPanel;
 import com.google.gwt.user.client.ui.FocusPanel;
 import com.google.gwt.user.client.ui.Image;
@@ -27,10 +35,18 @@ import com.google.gwt.user.client.ui.RootPanel;
  * @author Joshua Little
  */
 public class Viewer extends FocusPanel implements EntryPoint, Drawable {
-	// Name of div tag to put main widget in.
-	private static final String CONTAINER_NAME = "carpickerviewer-container";
+	/**
+	 * Id of the div tag the widget is put in.
+	 */
+	public static final String CONTAINER_NAME = "carpickerviewer-container";
 	// Parameter name for image URL.
 	private static final String IMAGE_PARAM = "img";
+	
+	// Number of points addCars() inserts at a time. Fewer than this are
+	// inserted right away, more are spread across several slices.
+	private static final int BATCH_SIZE = 250;
+	// Milliseconds addCars() may spend inserting points per slice.
+	private static final int SLICE_MILLIS = 8;
 
 	private Config config; // Stores form configuration.
 	
@@ -41,7 +57,9 @@ public class Viewer extends FocusPanel implements EntryPoint, Drawable {
 	
 	private String imageURL; // URL to image to annotate.
 	
-	private Surface canvas = null; // Canvas to draw everything on.
+	private AbsolutePanel layers = null; // Stacks the canvases.
+	private Surface backgroundCanvas = null; // Canvas to draw the image on.
+	private Surface canvas = null; // Canvas to draw CarPoints on.
 	private Image image = null; // Image to annotate.
 	
 	/**
@@ -55,6 +73,25 @@ public class Viewer extends FocusPanel implements EntryPoint, Drawable {
 		$wnd.CarPickerViewer.addCar = $entry(function(x,y) {
 			_this.@car.picker.client.Viewer::addCar(DD)(x,y);
 		});
+		$wnd.CarPickerViewer.addCars = $entry(function(data, onDone) {
+			if ( typeof data == 'string' ) {
+				_this.@car.picker.client.Viewer::addEncodedCars(Ljava/lang/String;Lcom/google/gwt/core/client/JavaScriptObject;)(data, onDone || null);
+			} else {
+				_this.@car.picker.client.Viewer::addPackedCars(Lcom/google/gwt/core/client/JsArrayNumber;Lcom/google/gwt/core/client/JavaScriptObject;)(data, onDone || null);
+			}
+		});
+	}-*/;
+	
+	/**
+	 * Calls the supplied native JavaScript function, if it's non-<code>null
+	 * </code>.
+	 * 
+	 * @param callback the function to call, or <code>null</code>.
+	 */
+	private static native void fireCallback(JavaScriptObject callback) /*-{
+		if ( callback ) {
+			callback();
+		}
 	}-*/;
 	
 	/**
@@ -109,6 +146,108 @@ public class Viewer extends FocusPanel implements EntryPoint, Drawable {
 		carPointHandler.addCar(new Point2D(x, y));
 		redraw();
 	}
+	
+	/**
+	 * Adds a new {@link CarPoint} at each of the supplied points, then
+	 * redraws once and executes <code>onDone</code>. Large sets of points are
+	 * inserted a slice at a time, yielding to the browser between slices, so
+	 * the page stays responsive; <code>onDone</code> may then be executed
+	 * after this method returns.
+	 * 
+	 * @param points the points, as packed (x, y) pairs.
+	 * @param onDone executed once every point is added, or <code>null</code>.
+	 */
+	public void addCars(final double[] points, final Command onDone) {
+		final int count = points.length / 2;
+		
+		if ( count <= BATCH_SIZE ) { // Not worth yielding.
+			carPointHandler.addCars(points, 0, count, true);
+			finishAddingCars(onDone);
+			return;
+		}
+		
+		Scheduler.get().scheduleIncremental(new RepeatingCommand() {
+			private int next = 0; // Index of the next point to add.
+			
+			@Override
+			public boolean execute() {
+				Duration slice = new Duration();
+				
+				while ( next < count && slice.elapsedMillis() < SLICE_MILLIS ) {
+					int end = Math.min(count, next + BATCH_SIZE);
+					int added = carPointHandler.addCars(points, next, end, true);
+					
+					// Stop altogether if the handler's full.
+					next = ( added < end - next ) ? count : end;
+				}
+				
+				if ( next < count ) {
+					return true; // Continue in the next slice.
+				}
+				
+				finishAddingCars(onDone);
+				return false;
+			}
+		});
+	}
+	
+	/**
+	 * Adds the points in the supplied native array of packed (x, y) pairs,
+	 * and calls the supplied native function when done.
+	 * 
+	 * @param packed the points, as packed (x, y) pairs.
+	 * @param onDone the function to call when done, or <code>null</code>.
+	 * @see #addCars(double[], Command)
+	 */
+	private void addPackedCars(JsArrayNumber packed, JavaScriptObject onDone) {
+		double[] points = new double[packed.length()];
+		for ( int i = 0; i < points.length; i++ ) {
+			points[i] = packed.get(i);
+		}
+		
+		addCars(points, callbackCommand(onDone));
+	}
+	
+	/**
+	 * Adds the points in the supplied {@link PointCodec}-encoded <code>String
+	 * </code>, and calls the supplied native function when done.
+	 * 
+	 * @param encoded the encoded points.
+	 * @param onDone the function to call when done, or <code>null</code>.
+	 * @see #addCars(double[], Command)
+	 */
+	private void addEncodedCars(String encoded, JavaScriptObject onDone) {
+		addCars(PointCodec.decode(encoded), callbackCommand(onDone));
+	}
+	
+	/**
+	 * Returns a <code>Command</code> that calls the supplied native function.
+	 * 
+	 * @param callback the function to call, or <code>null</code>.
+	 * @return a <code>Command</code> calling <code>callback</code>.
+	 */
+	private static Command callbackCommand(final JavaScriptObject callback) {
+		return new Command() {
+			@Override
+			public void execute() {
+				fireCallback(callback);
+			}
+		};
+	}
+	
+	/**
+	 * Redraws once a batch of points has been added, then executes the
+	 * supplied <code>Command</code>.
+	 * 
+	 * @param onDone the <code>Command</code> to execute, or <code>null</code>.
+	 */
+	private void finishAddingCars(Command onDone) {
+		redraw();
+		
+		if ( onDone != null ) {
+			onDone.execute();
+		}
+	}
 
 	/**
 	 * This is the entry point method. Called after JavaScript is loaded and
@@ -174,7 +313,7 @@ public class Viewer extends FocusPanel implements EntryPoint, Drawable {
 		// Fill main panel.
 		container = new FlowPanel();
 		container.add(image);
-		container.add(canvas);
+		container.add(layers);
 
 		setWidget(container); // Connects the main container to this widget.
 	}
@@ -191,12 +330,18 @@ public class Viewer extends FocusPanel implements EntryPoint, Drawable {
 		// doesn't directly show up on the page.
 		image.getElement().getStyle().setDisplay(Display.NONE);
 		
-		// Set up the canvas to draw everything on.
+		// Set up the canvases to draw everything on. The image goes on the
+		// bottom one, so dragging a CarPoint doesn't have to redraw it.
+		backgroundCanvas = new Surface();
 		canvas = new Surface();
 		canvas.getElement().setId("carViewerCanvas");
 		
+		layers = new AbsolutePanel();
+		layers.add(backgroundCanvas, 0, 0);
+		layers.add(canvas, 0, 0);
+		
 		// Build handler responsible for dealing with user-interactions.
-		carPointHandler = new CarPointHandler(canvas, image);
+		carPointHandler = new CarPointHandler(backgroundCanvas, canvas, image);
 		
 		// We don't register it because it's supposed to be read-only.
 		// carPointHandler.register();
@@ -206,14 +351,16 @@ public class Viewer extends FocusPanel implements EntryPoint, Drawable {
 		image.addLoadHandler(new LoadHandler() {
 			@Override
 			public void onLoad(LoadEvent event) {
+				backgroundCanvas.setSize(image.getWidth(), image.getHeight());
 				canvas.setSize(image.getWidth(), image.getHeight());
+				layers.setPixelSize(image.getWidth(), image.getHeight());
 
 				//Explicit width is needed for centering the widget on the page.
 				Style style = getElement().getStyle();
 				style.setWidth(image.getWidth(), Unit.PX);
 				style.setHeight(image.getHeight(), Unit.PX);
 				
-				carPointHandler.draw();
+				carPointHandler.redraw(); // Resizing cleared the canvases.
 				fireAfterModuleLoad();
 			}
 		});
@@ -0,0 +1,426 @@
+package car.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the wire-frame models and configuration files out of an in-memory
+ * cache. Each file is read once, and kept along with a gzipped copy and, if
+ * there's a file of the same name ending in ".br" next to it, a copy
+ * compressed with brotli. Each request gets the smallest copy the client
+ * accepts.
+ * 
+ * Every copy has a strong ETag, taken from a hash of its bytes, so a client
+ * that already has it gets a <code>304 Not Modified</code> instead. The
+ * Cache-Control header defaults to {@link #DEFAULT_CACHE_CONTROL}, and can be
+ * changed with the "cache-control" init-param.
+ * 
+ * Files are checked on disk on every request. If a file (or its ".br" copy)
+ * has changed, all of its copies are rebuilt before any of them replace the
+ * old ones, so a request never sees a mix of the old and new contents.
+ * 
+ * Only files with the extensions in {@link #CONTENT_TYPES} are served, and
+ * nothing under WEB-INF or META-INF.
+ * 
+ * @author Joshua Little
+ */
+public class ModelServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * Cache-Control header sent if the "cache-control" init-param isn't set.
+	 */
+	public static final String DEFAULT_CACHE_CONTROL
+								= "public, max-age=31536000, immutable";
+	
+	/**
+	 * Content types of the files that can be served, by extension.
+	 */
+	public static final Map<String, String> CONTENT_TYPES
+								= new HashMap<String, String>();
+	
+	static {
+		CONTENT_TYPES.put("objm", "text/plain; charset=UTF-8");
+		CONTENT_TYPES.put("xml", "application/xml; charset=UTF-8");
+		CONTENT_TYPES.put("json", "application/json; charset=UTF-8");
+		CONTENT_TYPES.put("dtd", "application/xml-dtd; charset=UTF-8");
+	}
+	
+	private String cacheControl; // Cache-Control header to send.
+	
+	// Loaded files, by their path in the webapp.
+	private final ConcurrentMap<String, CachedFile> cache
+								= new ConcurrentHashMap<String, CachedFile>();
+	
+	@Override
+	public void init() throws ServletException {
+		cacheControl = getInitParameter("cache-control");
+		
+		if ( cacheControl == null ) {
+			cacheControl = DEFAULT_CACHE_CONTROL;
+		}
+	}
+	
+	/**
+	 * Sends the requested file, in the best encoding the client accepts, or
+	 * a <code>304 Not Modified</code> if the client's copy is current.
+	 */
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		String path = getResourcePath(req);
+		String type = ( path == null ) ? null : getContentType(path);
+		
+		if ( type == null ) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		
+		CachedFile file = lookup(path);
+		if ( file == null ) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		
+		Variant variant = file.choose(req.getHeader("Accept-Encoding"));
+		
+		// Sent with 304s too, so caches keep them up to date.
+		resp.setHeader("Cache-Control", cacheControl);
+		resp.setHeader("Vary", "Accept-Encoding");
+		resp.setHeader("ETag", variant.etag);
+		
+		if ( matchesETag(req.getHeader("If-None-Match"), variant.etag) ) {
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		
+		resp.setContentType(type);
+		if ( variant.encoding != null ) {
+			resp.setHeader("Content-Encoding", variant.encoding);
+		}
+		resp.setContentLength(variant.bytes.length);
+		
+		// HttpServlet's doHead() throws the body away for HEAD requests.
+		resp.getOutputStream().write(variant.bytes);
+	}
+	
+	/**
+	 * Returns the requested file's path in the webapp, or <code>null</code> if
+	 * it's a path that shouldn't be served.
+	 * 
+	 * @param req the request.
+	 * @return the path, or <code>null</code>.
+	 */
+	private static String getResourcePath(HttpServletRequest req) {
+		// Extension mappings only have a servlet path, prefix mappings have
+		// both.
+		String path = req.getServletPath();
+		if ( req.getPathInfo() != null ) {
+			path += req.getPathInfo();
+		}
+		
+		String upper = path.toUpperCase();
+		if ( path.contains("..") || path.contains("\\")
+				|| upper.startsWith("/WEB-INF") || upper.startsWith("/META-INF") ) {
+			return null;
+		}
+		
+		return path;
+	}
+	
+	/**
+	 * Returns the content type of the supplied path, or <code>null</code> if
+	 * files like it aren't served.
+	 * 
+	 * @param path the path to look at.
+	 * @return the content type, or <code>null</code>.
+	 */
+	private static String getContentType(String path) {
+		int dot = path.lastIndexOf('.');
+		if ( dot < path.lastIndexOf('/') ) {
+			return null; // No extension.
+		}
+		
+		return CONTENT_TYPES.get(path.substring(dot + 1).toLowerCase());
+	}
+	
+	/**
+	 * Returns the cached copy of the file at the supplied path, loading it if
+	 * it isn't cached or has changed on disk.
+	 * 
+	 * @param path the file's path in the webapp.
+	 * @return the cached file, or <code>null</code> if there's no such file.
+	 * @throws IOException if the file could not be read.
+	 */
+	private CachedFile lookup(String path) throws IOException {
+		String realPath = getServletContext().getRealPath(path);
+		if ( realPath == null ) {
+			return null; // Not unpacked onto the disk.
+		}
+		
+		File file = new File(realPath);
+		File brFile = new File(realPath + ".br");
+		
+		if ( !file.isFile() ) {
+			cache.remove(path);
+			return null;
+		}
+		
+		CachedFile cached = cache.get(path);
+		if ( cached == null || cached.isStale(file, brFile) ) {
+			// Fully built before it's put in, so it replaces the old one all
+			// at once. Two requests might both load it, but that's harmless.
+			cached = new CachedFile(file, brFile);
+			cache.put(path, cached);
+		}
+		
+		return cached;
+	}
+	
+	/**
+	 * Returns whether the supplied If-None-Match header matches the supplied
+	 * ETag. Uses the weak comparison, as If-None-Match should.
+	 * 
+	 * @param header the If-None-Match header, or <code>null</code>.
+	 * @param etag the current ETag.
+	 * @return <code>true</code> if it matches, <code>false</code> otherwise.
+	 */
+	private static boolean matchesETag(String header, String etag) {
+		if ( header == null ) {
+			return false;
+		}
+		
+		for ( String tag : header.split(",") ) {
+			tag = tag.trim();
+			if ( tag.startsWith("W/") ) {
+				tag = tag.substring(2);
+			}
+			
+			if ( tag.equals("*") || tag.equals(etag) ) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Returns whether the supplied Accept-Encoding header accepts the
+	 * supplied content coding. The coding's own entry wins, wherever it is in
+	 * the header. Otherwise, "*" decides.
+	 * 
+	 * @param header the Accept-Encoding header, or <code>null</code>.
+	 * @param coding the content coding to look for.
+	 * @return <code>true</code> if it's accepted, <code>false</code> otherwise.
+	 */
+	private static boolean acceptsEncoding(String header, String coding) {
+		if ( header == null ) {
+			return false;
+		}
+		
+		boolean wildcard = false; // Whether "*" accepts it.
+		
+		for ( String part : header.split(",") ) {
+			String[] params = part.split(";");
+			String name = params[0].trim();
+			
+			if ( name.equalsIgnoreCase(coding) ) {
+				return hasNonZeroQuality(params);
+			} else if ( name.equals("*") ) {
+				wildcard = hasNonZeroQuality(params);
+			}
+		}
+		
+		return wildcard;
+	}
+	
+	/**
+	 * Returns whether the supplied parameters of an Accept-Encoding entry
+	 * accept it. They do unless they give it a quality of zero.
+	 * 
+	 * @param params the entry, split on ';'. The first is the coding's name.
+	 * @return <code>true</code> if it's accepted, <code>false</code> otherwise.
+	 */
+	private static boolean hasNonZeroQuality(String[] params) {
+		for ( int i = 1; i < params.length; i++ ) {
+			String param = params[i].trim();
+			
+			if ( param.startsWith("q=") ) {
+				try {
+					return Double.parseDouble(param.substring(2)) > 0;
+				} catch ( NumberFormatException ex ) {
+					return false;
+				}
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Reads the whole of the supplied file.
+	 * 
+	 * @param file the file to read.
+	 * @return the file's contents.
+	 * @throws IOException if the file could not be read.
+	 */
+	private static byte[] readFile(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		
+		try {
+			ByteArrayOutputStream out =
+					new ByteArrayOutputStream((int) file.length());
+			byte[] buffer = new byte[8192];
+			
+			int read;
+			while ( (read = in.read(buffer)) != -1 ) {
+				out.write(buffer, 0, read);
+			}
+			
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Returns the gzipped version of the supplied bytes.
+	 * 
+	 * @param bytes the bytes to compress.
+	 * @return the compressed bytes.
+	 * @throws IOException if compressing fails.
+	 */
+	private static byte[] gzip(byte[] bytes) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		GZIPOutputStream gzip = new GZIPOutputStream(out);
+		gzip.write(bytes);
+		gzip.close();
+		
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Returns a strong ETag for the supplied bytes. It's the first half of
+	 * their SHA-256 hash, in hex, quoted.
+	 * 
+	 * @param bytes the bytes to hash.
+	 * @return the ETag.
+	 */
+	private static String makeETag(byte[] bytes) {
+		byte[] hash;
+		try {
+			hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch ( NoSuchAlgorithmException ex ) {
+			// Every JVM has to support SHA-256.
+			throw new IllegalStateException(ex);
+		}
+		
+		StringBuilder etag = new StringBuilder("\"");
+		for ( int i = 0; i < hash.length / 2; i++ ) {
+			etag.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+			etag.append(Character.forDigit(hash[i] & 0xF, 16));
+		}
+		
+		return etag.append('"').toString();
+	}
+	
+	/**
+	 * One encoding of a file's contents.
+	 */
+	private static class Variant {
+		final String encoding; // Content-Encoding, or null for none.
+		final byte[] bytes;
+		final String etag;
+		
+		Variant(String encoding, byte[] bytes) {
+			this.encoding = encoding;
+			this.bytes = bytes;
+			this.etag = makeETag(bytes);
+		}
+	}
+	
+	/**
+	 * All of the encodings of a file, and what the file looked like on disk
+	 * when they were made. Never changed once it's built.
+	 */
+	private static class CachedFile {
+		final long modified; // File's last-modified time.
+		final long length; // File's length.
+		final long brModified; // ".br" file's last-modified time, or 0.
+		
+		final Variant identity;
+		final Variant gzip; // null if it isn't any smaller.
+		final Variant brotli; // null if there's no up-to-date ".br" file.
+		
+		/**
+		 * Reads the supplied file and its ".br" copy, if it exists, and
+		 * builds all of the encodings.
+		 * 
+		 * @param file the file to read.
+		 * @param brFile the brotli-compressed copy, which may not exist.
+		 * @throws IOException if a file could not be read.
+		 */
+		CachedFile(File file, File brFile) throws IOException {
+			// Taken first, so a change while reading gets noticed next time.
+			modified = file.lastModified();
+			length = file.length();
+			brModified = brFile.lastModified(); // 0 if it doesn't exist.
+			
+			identity = new Variant(null, readFile(file));
+			
+			byte[] gzipped = gzip(identity.bytes);
+			gzip = ( gzipped.length < identity.bytes.length )
+					? new Variant("gzip", gzipped) : null;
+			
+			// An older ".br" file is out of date, so it's left out.
+			brotli = ( brFile.isFile() && brModified >= modified )
+					? new Variant("br", readFile(brFile)) : null;
+		}
+		
+		/**
+		 * Returns whether the file or its ".br" copy has changed on disk since
+		 * this was built.
+		 * 
+		 * @param file the file.
+		 * @param brFile the brotli-compressed copy.
+		 * @return <code>true</code> if it needs to be reloaded.
+		 */
+		boolean isStale(File file, File brFile) {
+			return file.lastModified() != modified || file.length() != length
+					|| brFile.lastModified() != brModified;
+		}
+		
+		/**
+		 * Returns the smallest encoding the client accepts.
+		 * 
+		 * @param acceptEncoding the request's Accept-Encoding header.
+		 * @return the encoding to send.
+		 */
+		Variant choose(String acceptEncoding) {
+			if ( brotli != null && acceptsEncoding(acceptEncoding, "br") ) {
+				return brotli;
+			} else if ( gzip != null && acceptsEncoding(acceptEncoding, "gzip") ) {
+				return gzip;
+			} else {
+				return identity;
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,262 @@
+package car.shared.codec;
+
+/**
+ * Encodes lists of 2D points into compact, URL-safe <code>String</code>s, and
+ * decodes them back. Points are given as packed (x, y) pairs.
+ * 
+ * Coordinates are quantized to a fixed number of decimal places, and each
+ * point is stored as its difference from the previous one, so nearby points
+ * take only a character or two per coordinate. Each difference is zig-zag
+ * encoded (so small negative numbers stay small), then written as a
+ * variable-length run of base64 digits: each digit holds five bits of the
+ * number and a flag saying whether more digits follow.
+ * 
+ * An encoded <code>String</code> starts with the precision and the number of
+ * points, written the same way.
+ * 
+ * Contains no browser-specific code, so the same class decodes submissions on
+ * the server. All the arithmetic is done in whole-numbered doubles, rather
+ * than longs, which are slow in compiled JavaScript. Coordinates are kept
+ * small enough that every intermediate value is exact.
+ * 
+ * @author Joshua Little
+ */
+public final class PointCodec {
+	/**
+	 * Default number of decimal places coordinates are kept to. Image
+	 * coordinates from mouse events are whole pixels.
+	 */
+	public static final int DEFAULT_PRECISION = 0;
+	
+	/**
+	 * Largest supported precision.
+	 */
+	public static final int MAX_PRECISION = 6;
+	
+	// URL-safe base64 digits, so encoded strings needn't be escaped.
+	private static final String DIGITS =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+	
+	// Value of each digit, indexed by character, or -1 if it isn't one.
+	private static final int[] DIGIT_VALUES = new int[128];
+	static {
+		for ( int i = 0; i < DIGIT_VALUES.length; i++ ) {
+			DIGIT_VALUES[i] = -1;
+		}
+		for ( int i = 0; i < DIGITS.length(); i++ ) {
+			DIGIT_VALUES[DIGITS.charAt(i)] = i;
+		}
+	}
+	
+	private static final int MORE_FLAG = 0x20; // Set on all but a run's last digit.
+	private static final int PAYLOAD = 32; // Payload values per digit (5 bits).
+	
+	// Largest quantized coordinate. Differences between two of them, once
+	// zig-zagged, are at most 2^53, and doubles hold every whole number up to
+	// there.
+	private static final double MAX_SCALED = 2251799813685248.0; // 2^51
+	private static final double MAX_NUMBER = 9007199254740992.0; // 2^53
+	
+	// Most digits in a run. Eleven hold 55 bits, enough for MAX_NUMBER.
+	private static final int MAX_DIGITS = 11;
+	
+	/**
+	 * Not instantiable.
+	 */
+	private PointCodec() {
+	}
+	
+	/**
+	 * Encodes the supplied points with the {@linkplain #DEFAULT_PRECISION
+	 * default precision}.
+	 * 
+	 * @param points the points, as packed (x, y) pairs.
+	 * @return the encoded points.
+	 * @see #encode(double[], int, int)
+	 */
+	public static String encode(double[] points) {
+		return encode(points, points.length / 2, DEFAULT_PRECISION);
+	}
+	
+	/**
+	 * Encodes the first <code>count</code> of the supplied points, keeping
+	 * their coordinates to <code>precision</code> decimal places.
+	 * 
+	 * @param points the points, as packed (x, y) pairs.
+	 * @param count the number of points to encode.
+	 * @param precision the number of decimal places to keep.
+	 * @return the encoded points.
+	 * @throws IllegalArgumentException if the precision or a coordinate is out of range.
+	 */
+	public static String encode(double[] points, int count, int precision) {
+		if ( precision < 0 || precision > MAX_PRECISION ) {
+			throw new IllegalArgumentException(
+					"Precision out of range: " + precision);
+		}
+		
+		double scale = Math.pow(10, precision);
+		StringBuilder out = new StringBuilder(count * 4 + 4);
+		
+		writeNumber(out, precision);
+		writeNumber(out, count);
+		
+		// Whole-numbered doubles, since large coordinates at a high precision
+		// don't fit in an int.
+		double prevX = 0, prevY = 0;
+		for ( int i = 0; i < count; i++ ) {
+			double x = quantize(points[i*2    ], scale);
+			double y = quantize(points[i*2 + 1], scale);
+			
+			writeNumber(out, zigZag(x - prevX));
+			writeNumber(out, zigZag(y - prevY));
+			
+			prevX = x;
+			prevY = y;
+		}
+		
+		return out.toString();
+	}
+	
+	/**
+	 * Decodes points encoded by {@link #encode(double[], int, int)}.
+	 * 
+	 * @param encoded the encoded points.
+	 * @return the points, as packed (x, y) pairs.
+	 * @throws IllegalArgumentException if <code>encoded</code> is malformed.
+	 */
+	public static double[] decode(String encoded) {
+		int[] pos = { 0 }; // Read position, updated by readNumber().
+		
+		double precision = readNumber(encoded, pos);
+		double count = readNumber(encoded, pos);
+		
+		if ( precision < 0 || precision > MAX_PRECISION
+				|| count < 0 || count > encoded.length() ) {
+			// Every point takes at least two digits, so that can't be right.
+			throw new IllegalArgumentException("Malformed point header.");
+		}
+		
+		double scale = Math.pow(10, precision);
+		double[] points = new double[(int) count * 2];
+		
+		double x = 0, y = 0;
+		for ( int i = 0; i < count; i++ ) {
+			x += unZigZag(readNumber(encoded, pos));
+			y += unZigZag(readNumber(encoded, pos));
+			
+			// Past here, they'd no longer be exact.
+			if ( Math.abs(x) > MAX_SCALED || Math.abs(y) > MAX_SCALED ) {
+				throw new IllegalArgumentException(
+						"Point out of range at " + pos[0]);
+			}
+			
+			points[i*2    ] = x / scale;
+			points[i*2 + 1] = y / scale;
+		}
+		
+		if ( pos[0] != encoded.length() ) {
+			throw new IllegalArgumentException("Trailing data after points.");
+		}
+		
+		return points;
+	}
+	
+	/**
+	 * Scales the supplied coordinate and rounds it to a whole number.
+	 * 
+	 * @param v the coordinate.
+	 * @param scale the scale for the precision being kept.
+	 * @return the quantized coordinate, a whole number.
+	 * @throws IllegalArgumentException if it's too large, or not a number.
+	 */
+	private static double quantize(double v, double scale) {
+		double scaled = v * scale;
+		
+		// Also catches NaN and the infinities.
+		if ( !(Math.abs(scaled) <= MAX_SCALED) ) {
+			throw new IllegalArgumentException(
+					"Coordinate out of range at this precision: " + v);
+		}
+		
+		return Math.floor(scaled + 0.5); // Rounds like Math.round().
+	}
+	
+	/**
+	 * Maps signed numbers onto unsigned ones so that numbers near zero, of
+	 * either sign, map to small numbers: 0, -1, 1, -2, ... => 0, 1, 2, 3, ...
+	 * 
+	 * @param n the signed whole number.
+	 * @return the zig-zag encoded number.
+	 */
+	private static double zigZag(double n) {
+		return ( n >= 0 ) ? n * 2 : -n * 2 - 1;
+	}
+	
+	/**
+	 * Undoes {@link #zigZag(double)}.
+	 * 
+	 * @param n the zig-zag encoded number.
+	 * @return the signed whole number.
+	 */
+	private static double unZigZag(double n) {
+		return ( n % 2 == 0 ) ? n / 2 : -(n + 1) / 2;
+	}
+	
+	/**
+	 * Appends the supplied non-negative (or zig-zagged) whole number as a run
+	 * of digits, least significant bits first.
+	 * 
+	 * @param out where to write the digits.
+	 * @param n the number to write.
+	 */
+	private static void writeNumber(StringBuilder out, double n) {
+		while ( n >= PAYLOAD ) {
+			out.append(DIGITS.charAt((int) (n % PAYLOAD) | MORE_FLAG));
+			n = Math.floor(n / PAYLOAD); // Exact, since it's a power of two.
+		}
+		
+		out.append(DIGITS.charAt((int) n));
+	}
+	
+	/**
+	 * Reads a run of digits written by
+	 * {@link #writeNumber(StringBuilder, double)} starting at <code>pos[0]
+	 * </code>, and moves <code>pos[0]</code> past it.
+	 * 
+	 * @param in the encoded string.
+	 * @param pos a one-element array holding the read position.
+	 * @return the number read.
+	 * @throws IllegalArgumentException if the run is cut off or malformed.
+	 */
+	private static double readNumber(String in, int[] pos) {
+		double n = 0;
+		double weight = 1; // Value of the current digit's lowest bit.
+		int digits = 0;
+		int digit;
+		
+		do {
+			if ( pos[0] >= in.length() || digits++ == MAX_DIGITS ) {
+				throw new IllegalArgumentException(
+						"Malformed encoded points at " + pos[0]);
+			}
+			
+			char c = in.charAt(pos[0]++);
+			digit = ( c < DIGIT_VALUES.length ) ? DIGIT_VALUES[c] : -1;
+			if ( digit == -1 ) {
+				throw new IllegalArgumentException(
+						"Invalid character at " + (pos[0] - 1));
+			}
+			
+			n += (digit % PAYLOAD) * weight;
+			weight *= PAYLOAD;
+		} while ( digit >= MORE_FLAG );
+		
+		if ( n > MAX_NUMBER ) {
+			throw new IllegalArgumentException(
+					"Number out of range before " + pos[0]);
+		}
+		
+		return n;
+	}
+	
+}
@@ -0,0 +1,83 @@
+package car.shared.config;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * A configuration, and the models it references, embedded directly in the
+ * host page so they don't need to be fetched. It's a native JavaScript object
+ * of the form:
+ * <pre>
+ * {
+ *   config: { ... } or "...",
+ *   models: { "../models/sedan.objm": "v 0.5 0.2 1.0\n...", ... }
+ * }
+ * </pre>
+ * The config may be a JSON configuration object, or the text of an XML or
+ * JSON configuration file. Models are keyed by the URL given for them in the
+ * configuration, or by their name, and hold the model files' text. Either
+ * part may be left out, in which case it's fetched as usual.
+ * 
+ * @author Joshua Little
+ * @see Config#Config(String, Bootstrap)
+ */
+public class Bootstrap extends JavaScriptObject {
+	/**
+	 * Overlay types need a protected, no-argument constructor.
+	 */
+	protected Bootstrap() {
+	}
+	
+	/**
+	 * Returns whether a configuration is embedded.
+	 * 
+	 * @return <code>true</code> if there's a configuration, <code>false</code> otherwise.
+	 */
+	public final native boolean hasConfig() /*-{
+		return this.config != null;
+	}-*/;
+	
+	/**
+	 * Returns whether the embedded configuration is a file's text, rather
+	 * than an already parsed JSON object.
+	 * 
+	 * @return <code>true</code> if the configuration is text, <code>false</code> otherwise.
+	 */
+	public final native boolean isConfigText() /*-{
+		return typeof this.config == 'string';
+	}-*/;
+	
+	/**
+	 * Returns the embedded configuration file's text.
+	 * 
+	 * @return the configuration's text.
+	 * @see #isConfigText()
+	 */
+	public final native String getConfigText() /*-{
+		return this.config;
+	}-*/;
+	
+	/**
+	 * Returns the embedded configuration as a JSON object.
+	 * 
+	 * @return the configuration object.
+	 * @see #isConfigText()
+	 */
+	public final native JavaScriptObject getConfigObject() /*-{
+		return this.config;
+	}-*/;
+	
+	/**
+	 * Returns the embedded text of the model with the supplied key, or
+	 * <code>null</code> if it isn't embedded.
+	 * 
+	 * @param key the model's URL or name.
+	 * @return the model file's text, or <code>null</code>.
+	 */
+	public final native String getModel(String key) /*-{
+		var models = this.models;
+		if ( models && typeof models[key] == 'string' ) {
+			return models[key];
+		}
+		return null;
+	}-*/;
+}
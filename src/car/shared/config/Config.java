@@ -12,25 +12,31 @@ import com.google.gwt.http.client.RequestBuilder;
 import com.google.gwt.http.client.RequestCallback;
 import com.google.gwt.http.client.RequestException;
 import com.google.gwt.http.client.Response;
-import com.google.gwt.xml.client.Document;
-import com.google.gwt.xml.client.Element;
-import com.google.gwt.xml.client.NodeList;
-import com.google.gwt.xml.client.Text;
-import com.google.gwt.xml.client.XMLParser;
-import com.google.gwt.xml.client.impl.DOMParseException;
 
 /**
  * This is the class that is responsible for loading configuration information
  * for the Car Orientor project. The configuration must be specified in an
- * external XML file. The <code>Config</code> will also automatically load and
- * parse each referenced wire-frame resource.
+ * external XML or JSON file. The <code>Config</code> will also automatically
+ * load and parse each referenced wire-frame resource.
+ * 
+ * Files whose names end in ".json" are parsed as JSON, by the browser, and
+ * everything else is parsed as XML. Both formats describe the same
+ * {@link ConfigElement}s. XML parsing is only available to modules that
+ * inherit <code>car.shared.ConfigXML</code>, so modules that only use JSON
+ * don't have to include GWT's XML support.
  * 
  * By default, the class will automatically load a configuration file
  * from a {@linkplain #DEFAULT_CONFIG default location}.
  * 
- * All loading is asynchronous, and one should call {@link #isLoaded()} before
- * using an instance for the first time to make sure everything is loaded. When
- * the <code>Config</code> is finished loading, it will fire a
+ * Loading is normally asynchronous, and one should call {@link #isLoaded()}
+ * before using an instance for the first time to make sure everything is
+ * loaded. If the configuration, and everything it references, is embedded in
+ * the page through a {@link Bootstrap}, it's instead loaded before the
+ * constructor returns, and no requests are made at all. Subclasses' own
+ * fields may not have been initialized yet when {@link #load()} is called in
+ * that case.
+ * 
+ * When the <code>Config</code> is finished loading, it will fire a
  * <code>ValueChangeEvent<Boolean></code> with a value of <code>true</code>,
  * if the requested configuration file could be loaded, or <code>false</code> if
  * it could not and a fallback state was loaded.
@@ -70,17 +76,26 @@ public class Config implements HasValueChangeHandlers<Boolean> {
 	// Holds handlers waiting for the finished-loading event.
 	HandlerManager handlers;
 	
-	private Document xmlDoc; // The underlying XML file for this Config.
+	private ConfigElement configRoot; // The parsed file for this Config.
 	private boolean loaded = false; // Finished loading everything?
 	private boolean fallback = false;
 	
 	private String configURL;
+	private Bootstrap bootstrap; // Embedded config and models, or null.
+	
+	private LoadTimings timings = new LoadTimings(); // Load-phase timings.
 	
 	// Form information.
 	private boolean hasForm;
 	private String formAction;
 	private String formMethod;
 	private String formTarget;
+	private boolean formStats;
+	private boolean formCompact;
+	private int formPostThreshold;
+	private boolean formAsync;
+	
+	private String tasksURL = null; // Task feed, or null if there's none.
 	
 	/**
 	 * Creates a new <code>Config</code> from the file at the specified URL.
@@ -92,10 +107,31 @@ public class Config implements HasValueChangeHandlers<Boolean> {
 	 * @throws RuntimeException if there was an error requesting the file.
 	 */
 	public Config(String url) {
+		this(url, null);
+	}
+	
+	/**
+	 * Creates a new <code>Config</code> from the supplied {@link Bootstrap},
+	 * falling back to the file at the specified URL if it doesn't contain a
+	 * configuration. Whatever the bootstrap does contain is loaded before this
+	 * constructor returns.
+	 * 
+	 * @param url the location of the configuration file to load.
+	 * @param bootstrap the embedded configuration and models, or
+	 * <code>null</code>.
+	 * @throws RuntimeException if there was an error requesting the file.
+	 */
+	public Config(String url, Bootstrap bootstrap) {
 		configURL = url;
+		this.bootstrap = bootstrap;
 		
 		handlers = new HandlerManager(this);
-		loadConfig(url);
+		
+		if ( bootstrap != null && bootstrap.hasConfig() ) {
+			loadBootstrapConfig();
+		} else {
+			loadConfig(url);
+		}
 	}
 	
 	/**
@@ -113,10 +149,21 @@ public class Config implements HasValueChangeHandlers<Boolean> {
 	 * @param success whether the requested configuration file could be loaded.
 	 */
 	private void setLoaded(boolean success) {
+		timings.markLoaded();
 		loaded = true;
 		ValueChangeEvent.fire(this, success);
 	}
 	
+	/**
+	 * Returns the {@link LoadTimings} recording how long each phase of loading
+	 * this <code>Config</code> took.
+	 * 
+	 * @return the load timings.
+	 */
+	public LoadTimings getLoadTimings() {
+		return timings;
+	}
+	
 	/**
 	 * Returns whether the configuration file defined form information. If this
 	 * method returns <code>false</code>. Then {@link #getFormMethod()} and
@@ -175,13 +222,108 @@ public class Config implements HasValueChangeHandlers<Boolean> {
 	}
 	
 	/**
-	 * Returns the underlying XML <code>Document</code> for this <code>Config
-	 * </code>. Can be used to load custom properties.
+	 * Returns whether the configuration file asked for drawing statistics to
+	 * be submitted along with the form. If no form was defined, or no stats
+	 * value was declared, will return <code>false</code>.
+	 * 
+	 * @return <code>true</code> if stats should be submitted, <code>false</code> otherwise.
+	 */
+	public boolean shouldSubmitStats() {
+		return hasForm() && formStats;
+	}
+	
+	/**
+	 * Returns whether the configuration file asked for submitted points to be
+	 * packed into a single compact field, with an encoding of "compact". If
+	 * no form was defined, or no encoding was declared, will return <code>
+	 * false</code>.
+	 * 
+	 * @return <code>true</code> if points should be encoded compactly, <code>false</code> otherwise.
+	 * @see car.shared.codec.PointCodec
+	 */
+	public boolean shouldEncodeCompactly() {
+		return hasForm() && formCompact;
+	}
+	
+	/**
+	 * Returns whether the configuration file asked for the form to be
+	 * submitted in the background, so the page stays loaded. If no form was
+	 * defined, or no async value was declared, will return <code>false</code>.
+	 * 
+	 * @return <code>true</code> if the form should be submitted in the background, <code>false</code> otherwise.
+	 * @see car.shared.net.SubmissionQueue
+	 */
+	public boolean shouldSubmitAsync() {
+		return hasForm() && formAsync;
+	}
+	
+	/**
+	 * Returns the size, in characters, above which a GET form's submitted
+	 * data should be sent with POST instead. If no form was defined, or no
+	 * threshold was declared, will return <code>-1</code>, meaning the method
+	 * is never switched.
+	 * 
+	 * @return the POST threshold, or <code>-1</code>.
+	 */
+	public int getPostThreshold() {
+		if ( hasForm() ) {
+			return formPostThreshold;
+		} else {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Returns the URL of the task feed defined in the configuration file, or
+	 * <code>null</code> if none was defined.
+	 * 
+	 * @return the task feed's URL, or <code>null</code>.
+	 */
+	public String getTasksURL() {
+		return tasksURL;
+	}
+	
+	/**
+	 * Returns the root element of the parsed configuration file for this
+	 * <code>Config</code>, whichever format it was in. Can be used to load
+	 * custom properties.
+	 * 
+	 * @return the root configuration element.
+	 */
+	protected ConfigElement getConfigRoot() {
+		return configRoot;
+	}
+	
+	/**
+	 * Returns the {@link Bootstrap} this <code>Config</code> was created with,
+	 * so subclasses can look for embedded resources in it.
+	 * 
+	 * @return the bootstrap, or <code>null</code> if there isn't one.
+	 */
+	protected Bootstrap getBootstrap() {
+		return bootstrap;
+	}
+	
+	/**
+	 * Returns whether the file at the supplied URL should be parsed as JSON,
+	 * going by its extension.
 	 * 
-	 * @return the underlying XML <code>Document</code>
+	 * @param url the file's URL.
+	 * @return <code>true</code> if it's JSON, <code>false</code> if it's XML.
 	 */
-	protected Document getXMLDoc() {
-		return xmlDoc;
+	static boolean isJSON(String url) {
+		// Ignore any query or fragment.
+		int end = url.length();
+		int query = url.indexOf('?');
+		if ( query != -1 ) {
+			end = query;
+		}
+		int fragment = url.indexOf('#');
+		if ( fragment != -1 && fragment < end ) {
+			end = fragment;
+		}
+		
+		return url.substring(0, end).toLowerCase().endsWith(".json");
 	}
 	
 	/**
@@ -204,9 +346,10 @@ public class Config implements HasValueChangeHandlers<Boolean> {
 				// Try parsing everything.
 				try {
 					if ( success(response) ) {
+						timings.markConfigFetched(response.getText().length());
+						
 						// If we've loaded the file, start parsing.
-						parseConfig(response.getText());
-						finishLoading();
+						loadConfigText(response.getText(), isJSON(configURL));
 					} else {
 						// abort.
 						throw new RuntimeException(
@@ -273,18 +416,63 @@ public class Config implements HasValueChangeHandlers<Boolean> {
 	}
 	
 	/**
-	 * Parses the supplied content into a XML document.
+	 * Parses and loads the configuration embedded in the {@link Bootstrap}.
+	 * Calls {@link #finishFallback()} if that fails.
+	 */
+	private void loadBootstrapConfig() {
+		try {
+			if ( bootstrap.isConfigText() ) {
+				String text = bootstrap.getConfigText();
+				timings.markConfigFetched(text.length());
+				
+				// No extension to go by, but JSON can only start one way.
+				loadConfigText(text, text.trim().startsWith("{"));
+			} else {
+				timings.markConfigFetched(0);
+				configRoot = new JsonConfigParser().parse(
+						bootstrap.getConfigObject());
+				finishLoading();
+			}
+		} catch ( RuntimeException ex ) {
+			// Nothing to propagate it to, since we're still being built.
+			GWT.log("Could not load bootstrapped config.", ex);
+			finishFallback();
+		}
+	}
+	
+	/**
+	 * Parses the supplied content, as JSON or XML, and finishes loading. Both
+	 * parsers are part of the initial download, since the first frame can't
+	 * be drawn without the configuration. Calls {@link #finishFallback()} if
+	 * this module can't parse XML.
 	 * 
-	 * @param content the XML file's content to parse.
-	 * @throws DOMParseException if the content does not represent a parsable XML file.
+	 * @param content the file's content to parse.
+	 * @param json <code>true</code> if it's JSON, <code>false</code> if XML.
+	 * @throws RuntimeException if the content could not be parsed.
 	 */
-	private void parseConfig(String content) {
-		xmlDoc = XMLParser.parse(content);
+	private void loadConfigText(String content, boolean json) {
+		if ( json ) {
+			configRoot = new JsonConfigParser().parse(content);
+		} else {
+			XmlConfigParser parser = GWT.create(XmlConfigParser.class);
+			
+			if ( !parser.isSupported() ) {
+				GWT.log("Config file \"" + configURL + "\" is XML, but this "
+						+ "module doesn't inherit car.shared.ConfigXML. Using "
+						+ "the default configuration instead.", null);
+				finishFallback();
+				return;
+			}
+			
+			configRoot = parser.parse(content);
+		}
+		
+		finishLoading();
 	}
 
 	/**
-	 * Hook for subclasses to provide custom parsing. Called once the XML
-	 * document has been created, but before the loaded event is fired.
+	 * Hook for subclasses to provide custom parsing. Called once the
+	 * configuration file has been parsed, but before the loaded event is fired.
 	 * {@link #isLoaded()} should return <code>false</code> while still within
 	 * this method. Currently just calls {@link #doneLoading}.
 	 */
@@ -305,12 +493,14 @@ public class Config implements HasValueChangeHandlers<Boolean> {
 	}
 	
 	/**
-	 * Finishes loading this <code>Config</code> after the XML configuration
+	 * Finishes loading this <code>Config</code> after the configuration
 	 * file has been retrieved. Calls {@link #load()} so subclasses can
 	 * extract the needed data.
 	 */
 	private void finishLoading() {
 		loadForm();
+		tasksURL = getElementText(getConfigRoot(), "tasks", null);
+		timings.markConfigParsed();
 		
 		fallback = false;
 		load();
@@ -329,25 +519,37 @@ public class Config implements HasValueChangeHandlers<Boolean> {
 	}
 	
 	/**
-	 * Loads form information from the XML document. If no form tag is present,
+	 * Loads form information from the configuration. If no form is present,
 	 * sets <code>hasForm</code> to <code>false</code> Otherwise, sets <code>
 	 * hasForm</code> to <code>true</code> and sets each form parameter either
 	 * to its specified value, or to its default value if no value is specified.
 	 */
 	private void loadForm() {
-		Element root = getXMLDoc().getDocumentElement();
-		NodeList formNodes = root.getElementsByTagName("form");
+		ConfigElement formElement = getConfigRoot().getChild("form");
 		
-		if ( formNodes.getLength() == 0 ) {
+		if ( formElement == null ) {
 			// There's no form defined.
 			hasForm = false;
 		} else {
-			Element formElement = (Element) formNodes.item(0);
 			
 			// Load parameters.
 			formMethod = getElementText(formElement, "method", "GET");
 			formAction = getElementText(formElement, "action", "");
 			formTarget = getElementText(formElement, "target", "_self");
+			formStats = "true".equals(
+							getElementText(formElement, "stats", "false"));
+			formCompact = "compact".equals(
+							getElementText(formElement, "encoding", "plain"));
+			formAsync = "true".equals(
+							getElementText(formElement, "async", "false"));
+			
+			try {
+				formPostThreshold = Integer.parseInt(
+						getElementText(formElement, "post-threshold", "-1"));
+			} catch ( NumberFormatException ex ) {
+				GWT.log("Invalid post-threshold. Never switching to POST.", ex);
+				formPostThreshold = -1;
+			}
 			
 			// Finally...
 			hasForm = true;
@@ -364,15 +566,15 @@ public class Config implements HasValueChangeHandlers<Boolean> {
 	 * @param def the default value if no specified value can be found.
 	 * @return the specified value, or the default value if none exists.
 	 */
-	private String getElementText(Element element, String name, String def) {
-		NodeList methodNodes = element.getElementsByTagName(name);
-		if ( methodNodes.getLength() == 0 ) {
+	private String getElementText(ConfigElement element, String name,
+								  String def) {
+		ConfigElement child = element.getChild(name);
+		if ( child == null ) {
 			// There's no element of this name defined, use default.
 			return def;
 		} else {
 			// Use the defined value.
-			Text data = (Text) methodNodes.item(0).getFirstChild();
-			return data.getData();
+			return child.getText();
 		}
 	}
 	
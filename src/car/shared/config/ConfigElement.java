@@ -0,0 +1,64 @@
+package car.shared.config;
+
+import java.util.List;
+
+/**
+ * A node in a parsed configuration file, independent of the file's format.
+ * In an XML file, each element is a <code>ConfigElement</code>. In a JSON
+ * file, each object and each plain value (string, number, or boolean) is one,
+ * named after the property it's the value of. An array's items are each a
+ * child of the array's name.
+ * 
+ * For example, these two describe the same form:
+ * <pre>
+ * &lt;form&gt;&lt;method&gt;GET&lt;/method&gt;&lt;/form&gt;
+ * "form": { "method": "GET" }
+ * </pre>
+ * 
+ * @author Joshua Little
+ * @see ConfigParser
+ */
+public interface ConfigElement {
+	/**
+	 * Returns the name of this element.
+	 * 
+	 * @return the element's name.
+	 */
+	String getName();
+	
+	/**
+	 * Returns the text content of this element. For a JSON value, that's the
+	 * value as a <code>String</code>. Returns the empty <code>String</code> if
+	 * there isn't any.
+	 * 
+	 * @return the element's text.
+	 */
+	String getText();
+	
+	/**
+	 * Returns the value of the named attribute, or <code>null</code> if it
+	 * isn't set. For a JSON object, attributes are its plain-valued
+	 * properties.
+	 * 
+	 * @param name the attribute's name.
+	 * @return the attribute's value, or <code>null</code>.
+	 */
+	String getAttribute(String name);
+	
+	/**
+	 * Returns the first child element with the supplied name, or <code>null
+	 * </code> if there isn't one.
+	 * 
+	 * @param name the child's name.
+	 * @return the first child with that name, or <code>null</code>.
+	 */
+	ConfigElement getChild(String name);
+	
+	/**
+	 * Returns all of the child elements with the supplied name, in order.
+	 * 
+	 * @param name the children's name.
+	 * @return the children with that name. May be empty.
+	 */
+	List<ConfigElement> getChildren(String name);
+}
@@ -0,0 +1,20 @@
+package car.shared.config;
+
+/**
+ * Parses the content of a configuration file into a tree of
+ * {@link ConfigElement}s.
+ * 
+ * @author Joshua Little
+ * @see JsonConfigParser
+ * @see XmlConfigParser
+ */
+public interface ConfigParser {
+	/**
+	 * Parses the supplied configuration file content.
+	 * 
+	 * @param content the file's content.
+	 * @return the root element of the configuration.
+	 * @throws RuntimeException if the content can't be parsed.
+	 */
+	ConfigElement parse(String content);
+}
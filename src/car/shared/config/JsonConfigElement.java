@@ -0,0 +1,127 @@
+package car.shared.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * A {@link ConfigElement} backed by a parsed JSON value. Objects have
+ * children and attributes, while plain values only have text.
+ * 
+ * @author Joshua Little
+ * @see JsonConfigParser
+ */
+class JsonConfigElement implements ConfigElement {
+	private String name; // Property this is the value of.
+	private JavaScriptObject object; // The object, or null if a plain value.
+	private String text; // The plain value, or null if an object.
+	
+	/**
+	 * Creates a new <code>JsonConfigElement</code> for either an object or a
+	 * plain value.
+	 * 
+	 * @param name the element's name.
+	 * @param object the object, or <code>null</code> if it's a plain value.
+	 * @param text the plain value, or <code>null</code> if it's an object.
+	 */
+	JsonConfigElement(String name, JavaScriptObject object, String text) {
+		this.name = name;
+		this.object = object;
+		this.text = text;
+	}
+	
+	/**
+	 * Returns whether the supplied value is a JSON object (and not an array).
+	 * 
+	 * @param value the value to check.
+	 * @return <code>true</code> if it's an object, <code>false</code> otherwise.
+	 */
+	static native boolean isObject(JavaScriptObject value) /*-{
+		return value != null && typeof value == 'object'
+			&& Object.prototype.toString.call(value) != '[object Array]';
+	}-*/;
+	
+	@Override
+	public String getName() {
+		return name;
+	}
+	
+	@Override
+	public String getText() {
+		return ( text == null ) ? "" : text;
+	}
+	
+	@Override
+	public String getAttribute(String name) {
+		return ( object == null ) ? null : getPlainValue(object, name);
+	}
+	
+	@Override
+	public ConfigElement getChild(String name) {
+		List<ConfigElement> children = getChildren(name);
+		return children.isEmpty() ? null : children.get(0);
+	}
+	
+	@Override
+	public List<ConfigElement> getChildren(String name) {
+		List<ConfigElement> children = new ArrayList<ConfigElement>();
+		
+		if ( object != null ) {
+			collectChildren(object, name, children);
+		}
+		
+		return children;
+	}
+	
+	/**
+	 * Returns the named property of the supplied object as a <code>String
+	 * </code>, if it's a plain value, or <code>null</code> if it isn't.
+	 * 
+	 * @param object the object to look in.
+	 * @param name the property's name.
+	 * @return the property's value, or <code>null</code>.
+	 */
+	private static native String getPlainValue(JavaScriptObject object,
+											   String name) /*-{
+		var value = object[name];
+		if ( value == null || typeof value == 'object' ) {
+			return null;
+		}
+		return String(value);
+	}-*/;
+	
+	/**
+	 * Adds an element for the named property of the supplied object to the
+	 * supplied list, or one for each of its items if it's an array.
+	 * 
+	 * @param object the object to look in.
+	 * @param name the property's name.
+	 * @param dest where to add the elements.
+	 */
+	private static native void collectChildren(JavaScriptObject object,
+						String name, List<ConfigElement> dest) /*-{
+		var value = object[name];
+		if ( value == null ) {
+			return;
+		}
+		
+		var isArray = Object.prototype.toString.call(value) == '[object Array]';
+		var items = isArray ? value : [value];
+		
+		for ( var i = 0; i < items.length; i++ ) {
+			var item = items[i];
+			if ( item == null ) {
+				continue;
+			}
+			
+			var child;
+			if ( typeof item == 'object' ) {
+				child = @car.shared.config.JsonConfigElement::new(Ljava/lang/String;Lcom/google/gwt/core/client/JavaScriptObject;Ljava/lang/String;)(name, item, null);
+			} else {
+				child = @car.shared.config.JsonConfigElement::new(Ljava/lang/String;Lcom/google/gwt/core/client/JavaScriptObject;Ljava/lang/String;)(name, null, String(item));
+			}
+			dest.@java.util.List::add(Ljava/lang/Object;)(child);
+		}
+	}-*/;
+}
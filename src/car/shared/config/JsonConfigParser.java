@@ -0,0 +1,43 @@
+package car.shared.config;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsonUtils;
+
+/**
+ * Parses JSON configuration files with the browser's own parser, without
+ * building a DOM. The file should hold a single object, which becomes the
+ * root element, named "config".
+ * 
+ * @author Joshua Little
+ * @see JsonConfigElement
+ */
+public class JsonConfigParser implements ConfigParser {
+	/**
+	 * Parses the supplied JSON configuration file content.
+	 * 
+	 * @param content the file's content.
+	 * @return the root element of the configuration.
+	 * @throws IllegalArgumentException if the content isn't a JSON object.
+	 */
+	@Override
+	public ConfigElement parse(String content) {
+		// Configuration files are served by the same host as the page.
+		return parse(JsonUtils.<JavaScriptObject>unsafeEval(content));
+	}
+	
+	/**
+	 * Wraps an already parsed JSON configuration object.
+	 * 
+	 * @param root the configuration object.
+	 * @return the root element of the configuration.
+	 * @throws IllegalArgumentException if <code>root</code> isn't an object.
+	 */
+	public ConfigElement parse(JavaScriptObject root) {
+		if ( !JsonConfigElement.isObject(root) ) {
+			throw new IllegalArgumentException(
+					"JSON configuration must be an object.");
+		}
+		
+		return new JsonConfigElement("config", root, null);
+	}
+}
@@ -0,0 +1,247 @@
+package car.shared.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import car.shared.js.JsObjectBuilder;
+import car.shared.views.FrameStats;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+import com.google.gwt.core.client.JsonUtils;
+
+/**
+ * Records how long each phase of loading a {@link Config} takes: fetching the
+ * configuration file, parsing it, fetching and parsing each model, and
+ * finally drawing the first frame. All times are in milliseconds, measured
+ * from when the <code>LoadTimings</code> was created.
+ *
+ * Phases that haven't happened (yet) have a time of <code>-1</code>.
+ *
+ * @author Joshua Little
+ */
+public class LoadTimings {
+	/**
+	 * The timings for a single model.
+	 */
+	public class Model {
+		private String name; // Model's name in the configuration file.
+		private String url; // Where the model was loaded from.
+
+		private double requested; // When the request was sent.
+		private double fetched = -1; // When the response arrived.
+		private double parsed = -1; // When the response was parsed.
+		private int bytes = -1; // Length of the response.
+
+		private Model(String name, String url) {
+			this.name = name;
+			this.url = url;
+			this.requested = elapsed();
+		}
+
+		/**
+		 * Marks the model's response as received.
+		 *
+		 * @param bytes the length of the response.
+		 */
+		public void markFetched(int bytes) {
+			this.fetched = elapsed();
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Marks the model as parsed.
+		 */
+		public void markParsed() {
+			this.parsed = elapsed();
+		}
+
+		/**
+		 * Appends this model's timings, as a JSON object, to the supplied
+		 * <code>StringBuilder</code>.
+		 *
+		 * @param json where to append the JSON.
+		 */
+		private void appendJSON(StringBuilder json) {
+			json.append("{\"name\":").append(JsonUtils.escapeValue(name));
+			json.append(",\"url\":").append(JsonUtils.escapeValue(url));
+			json.append(",\"requested\":").append(requested);
+			json.append(",\"fetch\":").append(span(requested, fetched));
+			json.append(",\"bytes\":").append(bytes);
+			json.append(",\"parse\":").append(span(fetched, parsed));
+			json.append('}');
+		}
+
+		/**
+		 * Returns this model's timings as a native JavaScript object, laid out
+		 * as in {@link #appendJSON(StringBuilder)}.
+		 *
+		 * @return the model's timings, as a JavaScript object.
+		 */
+		private JavaScriptObject toJavaScriptObject() {
+			return new JsObjectBuilder()
+					.set("name", name)
+					.set("url", url)
+					.set("requested", requested)
+					.set("fetch", span(requested, fetched))
+					.set("bytes", bytes)
+					.set("parse", span(fetched, parsed))
+					.build();
+		}
+	}
+
+	private double start; // When loading started.
+
+	private double configFetched = -1; // When the config file arrived.
+	private double configParsed = -1; // When the config file was parsed.
+	private int configBytes = -1; // Length of the config file.
+
+	private List<Model> models = new ArrayList<Model>();
+
+	private double loaded = -1; // When the Config finished loading.
+	private double firstFrame = -1; // When the first frame was drawn.
+
+	/**
+	 * Creates a new instance of <code>LoadTimings</code>. Times are measured
+	 * from this call.
+	 */
+	public LoadTimings() {
+		start = FrameStats.now();
+	}
+
+	/**
+	 * Marks the configuration file's response as received.
+	 *
+	 * @param bytes the length of the response.
+	 */
+	public void markConfigFetched(int bytes) {
+		configFetched = elapsed();
+		configBytes = bytes;
+	}
+
+	/**
+	 * Marks the configuration file as parsed.
+	 */
+	public void markConfigParsed() {
+		configParsed = elapsed();
+	}
+
+	/**
+	 * Marks a model's request as sent, and returns the {@link Model} to record
+	 * the rest of its timings in.
+	 *
+	 * @param name the model's name.
+	 * @param url the model's URL.
+	 * @return the model's timings.
+	 */
+	public Model startModel(String name, String url) {
+		Model model = new Model(name, url);
+		models.add(model);
+
+		return model;
+	}
+
+	/**
+	 * Marks the {@link Config} as fully loaded.
+	 */
+	public void markLoaded() {
+		loaded = elapsed();
+	}
+
+	/**
+	 * Marks the first frame as drawn. Only the first call has any effect.
+	 */
+	public void markFirstFrame() {
+		if ( firstFrame == -1 ) {
+			firstFrame = elapsed();
+		}
+	}
+
+	/**
+	 * Returns the time-to-first-frame, or <code>-1</code> if the first frame
+	 * hasn't been drawn yet.
+	 *
+	 * @return the time-to-first-frame.
+	 */
+	public double getFirstFrame() {
+		return firstFrame;
+	}
+
+	/**
+	 * Returns the recorded timings as a JSON <code>String</code>. "configFetch"
+	 * and "configParse" are durations, "loaded" and "firstFrame" are times
+	 * since the start, and "models" holds an object per model with its
+	 * "fetch" and "parse" durations and its size in "bytes".
+	 *
+	 * @return the timings, as JSON.
+	 */
+	public String toJSON() {
+		StringBuilder json = new StringBuilder("{");
+
+		json.append("\"configFetch\":").append(span(0, configFetched));
+		json.append(",\"configBytes\":").append(configBytes);
+		json.append(",\"configParse\":").append(span(configFetched, configParsed));
+
+		json.append(",\"models\":[");
+		for ( int i = 0; i < models.size(); i++ ) {
+			if ( i > 0 ) {
+				json.append(',');
+			}
+			models.get(i).appendJSON(json);
+		}
+		json.append(']');
+
+		json.append(",\"loaded\":").append(loaded);
+		json.append(",\"firstFrame\":").append(firstFrame);
+
+		return json.append('}').toString();
+	}
+
+	/**
+	 * Returns the recorded timings as a native JavaScript object, laid out as
+	 * described in {@link #toJSON()}.
+	 *
+	 * @return the timings, as a JavaScript object.
+	 */
+	public JavaScriptObject toJavaScriptObject() {
+		JsArray<JavaScriptObject> modelTimings = JsObjectBuilder.newArray();
+		for ( Model model : models ) {
+			modelTimings.push(model.toJavaScriptObject());
+		}
+
+		return new JsObjectBuilder()
+				.set("configFetch", span(0, configFetched))
+				.set("configBytes", configBytes)
+				.set("configParse", span(configFetched, configParsed))
+				.set("models", modelTimings)
+				.set("loaded", loaded)
+				.set("firstFrame", firstFrame)
+				.build();
+	}
+
+	/**
+	 * Returns the time since this <code>LoadTimings</code> was created.
+	 *
+	 * @return the elapsed time, in milliseconds.
+	 */
+	private double elapsed() {
+		return FrameStats.now() - start;
+	}
+
+	/**
+	 * Returns the time between the two supplied times, or <code>-1</code> if
+	 * either hasn't happened.
+	 *
+	 * @param from the earlier time.
+	 * @param to the later time.
+	 * @return the duration, or <code>-1</code>.
+	 */
+	private static double span(double from, double to) {
+		if ( from == -1 || to == -1 ) {
+			return -1;
+		} else {
+			return to - from;
+		}
+	}
+
+}
@@ -0,0 +1,40 @@
+package car.shared.config;
+
+/**
+ * Parses XML configuration files. Parsing XML needs GWT's XML module, so the
+ * real parser is only swapped in, through deferred binding, by modules that
+ * inherit <code>car.shared.ConfigXML</code>. Modules that only use JSON
+ * configuration files can leave it, and the XML module, out. Without it, this
+ * class can't parse anything, and {@link #isSupported()} says so.
+ * 
+ * Should be created with <code>GWT.create()</code>.
+ * 
+ * @author Joshua Little
+ * @see car.shared.configxml.DomConfigParser
+ */
+public class XmlConfigParser implements ConfigParser {
+	/**
+	 * Returns whether XML support was compiled in, so that {@link
+	 * #parse(String)} can be used. {@link Config} checks this first, and
+	 * falls back to its default state if it can't.
+	 * 
+	 * @return <code>true</code> if XML can be parsed, <code>false</code> otherwise.
+	 */
+	public boolean isSupported() {
+		return false;
+	}
+	
+	/**
+	 * Parses the supplied XML configuration file content. Should only be
+	 * called if {@link #isSupported()} returns <code>true</code>.
+	 * 
+	 * @param content the file's content.
+	 * @return the root element of the configuration.
+	 * @throws IllegalStateException if XML support wasn't compiled in.
+	 */
+	@Override
+	public ConfigElement parse(String content) {
+		throw new IllegalStateException("XML configuration files "
+				+ "need the car.shared.ConfigXML module to be inherited.");
+	}
+}
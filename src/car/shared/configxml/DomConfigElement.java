@@ -0,0 +1,76 @@
+package car.shared.configxml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import car.shared.config.ConfigElement;
+
+import com.google.gwt.xml.client.Element;
+import com.google.gwt.xml.client.Node;
+import com.google.gwt.xml.client.NodeList;
+import com.google.gwt.xml.client.Text;
+
+/**
+ * A {@link ConfigElement} backed by an XML DOM <code>Element</code>.
+ * 
+ * @author Joshua Little
+ * @see DomConfigParser
+ */
+class DomConfigElement implements ConfigElement {
+	private Element element; // Underlying DOM element.
+	
+	/**
+	 * Creates a new <code>DomConfigElement</code> wrapping the supplied DOM
+	 * element.
+	 * 
+	 * @param element the element to wrap.
+	 */
+	DomConfigElement(Element element) {
+		this.element = element;
+	}
+	
+	@Override
+	public String getName() {
+		return element.getTagName();
+	}
+	
+	@Override
+	public String getText() {
+		Node first = element.getFirstChild();
+		
+		if ( first instanceof Text ) {
+			return ((Text) first).getData();
+		} else {
+			return "";
+		}
+	}
+	
+	@Override
+	public String getAttribute(String name) {
+		// Empty if not set in some browsers, null in others.
+		String value = element.getAttribute(name);
+		return ( value == null || value.length() == 0 ) ? null : value;
+	}
+	
+	@Override
+	public ConfigElement getChild(String name) {
+		List<ConfigElement> children = getChildren(name);
+		return children.isEmpty() ? null : children.get(0);
+	}
+	
+	@Override
+	public List<ConfigElement> getChildren(String name) {
+		List<ConfigElement> children = new ArrayList<ConfigElement>();
+		NodeList nodes = element.getChildNodes();
+		
+		for ( int i = 0; i < nodes.getLength(); i++ ) {
+			Node node = nodes.item(i);
+			
+			if ( node instanceof Element && name.equals(node.getNodeName()) ) {
+				children.add(new DomConfigElement((Element) node));
+			}
+		}
+		
+		return children;
+	}
+}
@@ -0,0 +1,39 @@
+package car.shared.configxml;
+
+import car.shared.config.ConfigElement;
+import car.shared.config.XmlConfigParser;
+
+import com.google.gwt.xml.client.XMLParser;
+import com.google.gwt.xml.client.impl.DOMParseException;
+
+/**
+ * Parses XML configuration files into a DOM, with GWT's XML module. Swapped
+ * in for {@link XmlConfigParser} by the <code>car.shared.ConfigXML</code>
+ * module.
+ * 
+ * @author Joshua Little
+ */
+public class DomConfigParser extends XmlConfigParser {
+	/**
+	 * Returns <code>true</code>, since this parser can parse XML.
+	 * 
+	 * @return <code>true</code>.
+	 */
+	@Override
+	public boolean isSupported() {
+		return true;
+	}
+	
+	/**
+	 * Parses the supplied XML configuration file content.
+	 * 
+	 * @param content the file's content.
+	 * @return the root element of the configuration.
+	 * @throws DOMParseException if the content does not represent a parsable XML file.
+	 */
+	@Override
+	public ConfigElement parse(String content) {
+		return new DomConfigElement(
+				XMLParser.parse(content).getDocumentElement());
+	}
+}
@@ -0,0 +1,130 @@
+package car.shared.js;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArray;
+import com.google.gwt.core.client.JsArrayNumber;
+
+/**
+ * Builds a native JavaScript object one property at a time, for handing
+ * statistics and state to the host page without going through JSON.
+ * 
+ * <pre>
+ * JavaScriptObject obj = new JsObjectBuilder()
+ *         .set("count", count)
+ *         .set("times", JsObjectBuilder.toArray(times))
+ *         .build();
+ * </pre>
+ * 
+ * @author Joshua Little
+ */
+public class JsObjectBuilder {
+	private JavaScriptObject object; // Object being built.
+	
+	/**
+	 * Creates a new instance of <code>JsObjectBuilder</code>, starting from an
+	 * empty object.
+	 */
+	public JsObjectBuilder() {
+		object = JavaScriptObject.createObject();
+	}
+	
+	/**
+	 * Sets a number-valued property.
+	 * 
+	 * @param key the property's name.
+	 * @param value the property's value.
+	 * @return this builder.
+	 */
+	public JsObjectBuilder set(String key, double value) {
+		setNumber(object, key, value);
+		return this;
+	}
+	
+	/**
+	 * Sets a string-valued property.
+	 * 
+	 * @param key the property's name.
+	 * @param value the property's value, which may be <code>null</code>.
+	 * @return this builder.
+	 */
+	public JsObjectBuilder set(String key, String value) {
+		setString(object, key, value);
+		return this;
+	}
+	
+	/**
+	 * Sets an object-valued property.
+	 * 
+	 * @param key the property's name.
+	 * @param value the property's value, which may be <code>null</code>.
+	 * @return this builder.
+	 */
+	public JsObjectBuilder set(String key, JavaScriptObject value) {
+		setObject(object, key, value);
+		return this;
+	}
+	
+	/**
+	 * Returns the object built so far.
+	 * 
+	 * @return the object.
+	 */
+	public JavaScriptObject build() {
+		return object;
+	}
+	
+	/**
+	 * Returns a native array holding the supplied numbers.
+	 * 
+	 * @param values the numbers.
+	 * @return the numbers, as a native array.
+	 */
+	public static JsArrayNumber toArray(double[] values) {
+		JsArrayNumber array = JavaScriptObject.createArray().cast();
+		for ( int i = 0; i < values.length; i++ ) {
+			array.set(i, values[i]);
+		}
+		
+		return array;
+	}
+	
+	/**
+	 * Returns a native array holding the supplied numbers.
+	 * 
+	 * @param values the numbers.
+	 * @return the numbers, as a native array.
+	 */
+	public static JsArrayNumber toArray(int[] values) {
+		JsArrayNumber array = JavaScriptObject.createArray().cast();
+		for ( int i = 0; i < values.length; i++ ) {
+			array.set(i, values[i]);
+		}
+		
+		return array;
+	}
+	
+	/**
+	 * Returns a new, empty native array of objects.
+	 * 
+	 * @return the empty array.
+	 */
+	public static JsArray<JavaScriptObject> newArray() {
+		return JavaScriptObject.createArray().cast();
+	}
+	
+	private static native void setNumber(JavaScriptObject object, String key,
+										 double value) /*-{
+		object[key] = value;
+	}-*/;
+	
+	private static native void setString(JavaScriptObject object, String key,
+										 String value) /*-{
+		object[key] = value;
+	}-*/;
+	
+	private static native void setObject(JavaScriptObject object, String key,
+										 JavaScriptObject value) /*-{
+		object[key] = value;
+	}-*/;
+	
+}
@@ -3,6 +3,11 @@ package car.shared.math;
 /**
  * A 3x3 matrix that allows direct access to its components.
  * 
+ * The instance methods work in place and don't allocate, so they're safe to
+ * call from per-frame code. For transforming many points at once, use
+ * {@link #transform(double[], double[], int)} on packed coordinate arrays
+ * rather than calling {@link Point3D#multiply(Matrix3D)} on each point.
+ * 
  * @author Joshua Little
  */
 public class Matrix3D implements Cloneable {
@@ -41,6 +46,18 @@ public class Matrix3D implements Cloneable {
 		this(1, 0, 0, 0, 1, 0, 0, 0, 1); // Identity
 	}
 	
+	/**
+	 * Changes the components of this <code>Matrix3D</code> to equal those of
+	 * the supplied <code>Matrix3D</code>.
+	 * 
+	 * @param other the <code>Matrix3D</code> to copy.
+	 */
+	public void set(Matrix3D other) {
+		m11 = other.m11; m12 = other.m12; m13 = other.m13;
+		m21 = other.m21; m22 = other.m22; m23 = other.m23;
+		m31 = other.m31; m32 = other.m32; m33 = other.m33;
+	}
+	
 	/**
 	 * Scales all components of this <code>Matrix3D</code> by the supplied
 	 * value.
@@ -62,19 +79,22 @@ public class Matrix3D implements Cloneable {
 	 * @see #scale(double)
 	 */
 	public void multiply(Matrix3D by) {
-		Matrix3D what = clone();
+		// Copy into locals instead of cloning, so nothing is allocated.
+		double a11 = m11, a12 = m12, a13 = m13;
+		double a21 = m21, a22 = m22, a23 = m23;
+		double a31 = m31, a32 = m32, a33 = m33;
 		
-		m11 = by.m11*what.m11 + by.m12*what.m21 + by.m13*what.m31;
-		m12 = by.m11*what.m12 + by.m12*what.m22 + by.m13*what.m32;
-		m13 = by.m11*what.m13 + by.m12*what.m23 + by.m13*what.m33;
+		m11 = by.m11*a11 + by.m12*a21 + by.m13*a31;
+		m12 = by.m11*a12 + by.m12*a22 + by.m13*a32;
+		m13 = by.m11*a13 + by.m12*a23 + by.m13*a33;
 		
-		m21 = by.m21*what.m11 + by.m22*what.m21 + by.m23*what.m31;
-		m22 = by.m21*what.m12 + by.m22*what.m22 + by.m23*what.m32;
-		m23 = by.m21*what.m13 + by.m22*what.m23 + by.m23*what.m33;
+		m21 = by.m21*a11 + by.m22*a21 + by.m23*a31;
+		m22 = by.m21*a12 + by.m22*a22 + by.m23*a32;
+		m23 = by.m21*a13 + by.m22*a23 + by.m23*a33;
 		
-		m31 = by.m31*what.m11 + by.m32*what.m21 + by.m33*what.m31;
-		m32 = by.m31*what.m12 + by.m32*what.m22 + by.m33*what.m32;
-		m33 = by.m31*what.m13 + by.m32*what.m23 + by.m33*what.m33;
+		m31 = by.m31*a11 + by.m32*a21 + by.m33*a31;
+		m32 = by.m31*a12 + by.m32*a22 + by.m33*a32;
+		m33 = by.m31*a13 + by.m32*a23 + by.m33*a33;
 	}
 	
 	/**
@@ -83,27 +103,30 @@ public class Matrix3D implements Cloneable {
 	 * @throws IllegalStateException if this <code>Matrix3D</code> is not invertible.
 	 */
 	public void invert() {
-		double det = determinant();
+		// Adjugate. The first row's cofactors double as the determinant's.
+		double n11 = m33*m22 - m32*m23;
+		double n12 = m32*m13 - m33*m12;
+		double n13 = m23*m12 - m22*m13;
+		
+		double det = m11*n11 + m21*n12 + m31*n13;
 		
 		if ( det == 0 ) {
 			throw new IllegalStateException("This matrix is not invertible.");
 		}
 		
-		Matrix3D what = clone();
-		
-		m11 = what.m33*what.m22 - what.m32*what.m23;
-		m12 = what.m32*what.m13 - what.m33*what.m12;
-		m13 = what.m23*what.m12 - what.m22*what.m13;
+		double n21 = m31*m23 - m33*m21;
+		double n22 = m33*m11 - m31*m13;
+		double n23 = m21*m13 - m23*m11;
 		
-		m21 = what.m31*what.m23 - what.m33*what.m21;
-		m22 = what.m33*what.m11 - what.m31*what.m13;
-		m23 = what.m21*what.m13 - what.m23*what.m11;
+		double n31 = m32*m21 - m31*m22;
+		double n32 = m31*m12 - m32*m11;
+		double n33 = m22*m11 - m21*m12;
 		
-		m31 = what.m32*what.m21 - what.m31*what.m22;
-		m32 = what.m31*what.m12 - what.m32*what.m11;
-		m33 = what.m22*what.m11 - what.m21*what.m12;
+		double inv = 1 / det;
 		
-		scale(1 / determinant());
+		m11 = n11*inv; m12 = n12*inv; m13 = n13*inv;
+		m21 = n21*inv; m22 = n22*inv; m23 = n23*inv;
+		m31 = n31*inv; m32 = n32*inv; m33 = n33*inv;
 	}
 	
 	/**
@@ -117,6 +140,73 @@ public class Matrix3D implements Cloneable {
 			 + m31 * (m23*m12 - m22*m13);
 	}
 	
+	/**
+	 * Multiplies <code>count</code> points, packed as consecutive (x, y, z)
+	 * triples in <code>src</code>, by this <code>Matrix3D</code> and stores
+	 * them in <code>dst</code> in the same layout. Equivalent to calling
+	 * {@link Point3D#multiply(Matrix3D)} on each point. <code>src</code> and
+	 * <code>dst</code> may be the same array.
+	 * 
+	 * @param src the packed points to transform.
+	 * @param dst where to store the packed transformed points.
+	 * @param count the number of points to transform.
+	 * @see Point3D#pack(Point3D[])
+	 */
+	public void transform(double[] src, double[] dst, int count) {
+		// Hoisted so the loop body is pure arithmetic on locals.
+		double a11 = m11, a12 = m12, a13 = m13;
+		double a21 = m21, a22 = m22, a23 = m23;
+		double a31 = m31, a32 = m32, a33 = m33;
+		
+		int end = count * 3;
+		for ( int i = 0; i < end; i += 3 ) {
+			double x = src[i];
+			double y = src[i + 1];
+			double z = src[i + 2];
+			
+			dst[i]     = x*a11 + y*a12 + z*a13;
+			dst[i + 1] = x*a21 + y*a22 + z*a23;
+			dst[i + 2] = x*a31 + y*a32 + z*a33;
+		}
+	}
+	
+	/**
+	 * Like {@link #transform(double[], double[], int)}, but also stores the
+	 * orthogonal projection of each transformed point onto the xy-plane in
+	 * <code>proj</code>, packed as consecutive (x, y) pairs. Both outputs are
+	 * written in a single pass over the points.
+	 * 
+	 * @param src the packed points to transform.
+	 * @param dst where to store the packed transformed points.
+	 * @param proj where to store the packed projected points.
+	 * @param count the number of points to transform.
+	 */
+	public void transformAndProject(double[] src, double[] dst, double[] proj,
+									int count) {
+		double a11 = m11, a12 = m12, a13 = m13;
+		double a21 = m21, a22 = m22, a23 = m23;
+		double a31 = m31, a32 = m32, a33 = m33;
+		
+		for ( int i = 0; i < count; i++ ) {
+			int i3 = i * 3;
+			int i2 = i * 2;
+			
+			double x = src[i3];
+			double y = src[i3 + 1];
+			double z = src[i3 + 2];
+			
+			double tx = x*a11 + y*a12 + z*a13;
+			double ty = x*a21 + y*a22 + z*a23;
+			
+			dst[i3]     = tx;
+			dst[i3 + 1] = ty;
+			dst[i3 + 2] = x*a31 + y*a32 + z*a33;
+			
+			proj[i2]     = tx;
+			proj[i2 + 1] = ty;
+		}
+	}
+	
 	/**
 	 * Returns the <code>String</code> representation of this <code>Matrix3D
 	 * </code>. The <code>String</code> is broken up into three lines.
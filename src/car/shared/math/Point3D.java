@@ -198,4 +198,40 @@ public class Point3D implements Cloneable {
 	public Point3D clone() {
 		return new Point3D(x, y, z);
 	}
+	
+	/**
+	 * Packs the supplied <code>Point3D</code>s into a new array of
+	 * consecutive (x, y, z) triples, the layout used by
+	 * {@link Matrix3D#transform(double[], double[], int)}.
+	 * 
+	 * @param points the points to pack.
+	 * @return the packed coordinates.
+	 * @see #unpack(double[], Point3D[])
+	 */
+	public static double[] pack(Point3D[] points) {
+		double[] packed = new double[points.length * 3];
+		
+		for ( int i = 0; i < points.length; i++ ) {
+			packed[i*3]     = points[i].x;
+			packed[i*3 + 1] = points[i].y;
+			packed[i*3 + 2] = points[i].z;
+		}
+		
+		return packed;
+	}
+	
+	/**
+	 * Copies packed (x, y, z) triples back into the supplied <code>Point3D
+	 * </code>s. Reads one triple per point.
+	 * 
+	 * @param packed the packed coordinates.
+	 * @param points the points to store the coordinates in.
+	 * @see #pack(Point3D[])
+	 */
+	public static void unpack(double[] packed, Point3D[] points) {
+		for ( int i = 0; i < points.length; i++ ) {
+			points[i].setPoint(packed[i*3], packed[i*3 + 1], packed[i*3 + 2]);
+		}
+	}
+	
 }
@@ -0,0 +1,258 @@
+package car.shared.math;
+
+/**
+ * A quaternion that allows direct access to its components. Used to represent
+ * orientations in 3D space: a unit <code>Quaternion</code> describes a single
+ * rotation, and multiplying two of them composes the rotations.
+ *
+ * The Euler angle methods use the same convention as the rest of the project:
+ * the z-rotation is applied first, then the y-rotation, then finally the
+ * x-rotation. That is, the corresponding rotation matrix is
+ * <code>Rx * Ry * Rz</code>.
+ *
+ * @author Joshua Little
+ */
+public class Quaternion implements Cloneable {
+	public double w, x, y, z; // The components. w is the scalar part.
+
+	/**
+	 * Creates a new instance of <code>Quaternion</code> with the supplied
+	 * components.
+	 *
+	 * @param w the scalar component.
+	 * @param x the i component.
+	 * @param y the j component.
+	 * @param z the k component.
+	 */
+	public Quaternion(double w, double x, double y, double z) {
+		set(w, x, y, z);
+	}
+
+	/**
+	 * Creates a new instance of <code>Quaternion</code> equal to the identity
+	 * rotation.
+	 */
+	public Quaternion() {
+		this(1, 0, 0, 0); // Identity
+	}
+
+	/**
+	 * Changes the components of this <code>Quaternion</code> to the supplied
+	 * ones.
+	 *
+	 * @param w the new scalar component.
+	 * @param x the new i component.
+	 * @param y the new j component.
+	 * @param z the new k component.
+	 */
+	public void set(double w, double x, double y, double z) {
+		this.w = w;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+	}
+
+	/**
+	 * Changes the components of this <code>Quaternion</code> to equal those
+	 * of the supplied <code>Quaternion</code>.
+	 *
+	 * @param other the <code>Quaternion</code> to copy.
+	 */
+	public void set(Quaternion other) {
+		set(other.w, other.x, other.y, other.z);
+	}
+
+	/**
+	 * Resets this <code>Quaternion</code> to the identity rotation.
+	 */
+	public void setIdentity() {
+		set(1, 0, 0, 0);
+	}
+
+	/**
+	 * Sets this <code>Quaternion</code> to the rotation described by the
+	 * supplied Euler angles. The z-rotation is applied first, then the
+	 * y-rotation, then finally the x-rotation.
+	 *
+	 * @param rotX the rotation around the x-axis, in radians.
+	 * @param rotY the rotation around the y-axis, in radians.
+	 * @param rotZ the rotation around the z-axis, in radians.
+	 * @see #toEuler(Point3D)
+	 */
+	public void setEuler(double rotX, double rotY, double rotZ) {
+		// Half-angles, since q = cos(a/2) + sin(a/2) * axis.
+		double sinX = Math.sin(rotX / 2);
+		double cosX = Math.cos(rotX / 2);
+
+		double sinY = Math.sin(rotY / 2);
+		double cosY = Math.cos(rotY / 2);
+
+		double sinZ = Math.sin(rotZ / 2);
+		double cosZ = Math.cos(rotZ / 2);
+
+		// q = qx * qy * qz, expanded.
+		w = cosX*cosY*cosZ - sinX*sinY*sinZ;
+		x = sinX*cosY*cosZ + cosX*sinY*sinZ;
+		y = cosX*sinY*cosZ - sinX*cosY*sinZ;
+		z = cosX*cosY*sinZ + sinX*sinY*cosZ;
+	}
+
+	/**
+	 * Multiply this <code>Quaternion</code> on the left by the supplied <code>
+	 * Quaternion</code>. The resulting rotation applies this rotation first,
+	 * and then the supplied one.
+	 *
+	 * @param by the quaternion to multiply by.
+	 */
+	public void multiply(Quaternion by) {
+		double qw = w, qx = x, qy = y, qz = z;
+
+		w = by.w*qw - by.x*qx - by.y*qy - by.z*qz;
+		x = by.w*qx + by.x*qw + by.y*qz - by.z*qy;
+		y = by.w*qy - by.x*qz + by.y*qw + by.z*qx;
+		z = by.w*qz + by.x*qy - by.y*qx + by.z*qw;
+	}
+
+	/**
+	 * Applies a small additional rotation on the left of this <code>
+	 * Quaternion</code>. The rotation is around the axis (<code>ax</code>,
+	 * <code>ay</code>, <code>az</code>) by an angle equal to the axis'
+	 * length, in radians.
+	 *
+	 * Uses the first-order approximation of the rotation, so no trigonometry is
+	 * required. The error is cubic in the angle, which is negligible for the
+	 * per-event deltas of a mouse drag. The result is renormalized so that
+	 * errors don't accumulate in the magnitude.
+	 *
+	 * @param ax the x-component of the rotation.
+	 * @param ay the y-component of the rotation.
+	 * @param az the z-component of the rotation.
+	 */
+	public void rotateIncremental(double ax, double ay, double az) {
+		// dq ~= 1 + a/2.
+		double hx = ax / 2, hy = ay / 2, hz = az / 2;
+		double qw = w, qx = x, qy = y, qz = z;
+
+		w = qw - hx*qx - hy*qy - hz*qz;
+		x = qx + hx*qw + hy*qz - hz*qy;
+		y = qy - hx*qz + hy*qw + hz*qx;
+		z = qz + hx*qy - hy*qx + hz*qw;
+
+		normalize();
+	}
+
+	/**
+	 * Scales this <code>Quaternion</code> to unit length, so that it
+	 * represents a pure rotation.
+	 */
+	public void normalize() {
+		double mag = Math.sqrt(w*w + x*x + y*y + z*z);
+
+		w /= mag;
+		x /= mag;
+		y /= mag;
+		z /= mag;
+	}
+
+	/**
+	 * Stores the rotation matrix equivalent to this <code>Quaternion</code> in
+	 * the supplied <code>Matrix3D</code>. Assumes this <code>Quaternion
+	 * </code> is of unit length.
+	 *
+	 * @param dest the <code>Matrix3D</code> to store the result in.
+	 */
+	public void toMatrix(Matrix3D dest) {
+		double xx = x*x, yy = y*y, zz = z*z;
+		double xy = x*y, xz = x*z, yz = y*z;
+		double wx = w*x, wy = w*y, wz = w*z;
+
+		dest.m11 = 1 - 2*(yy + zz);
+		dest.m12 =     2*(xy - wz);
+		dest.m13 =     2*(xz + wy);
+
+		dest.m21 =     2*(xy + wz);
+		dest.m22 = 1 - 2*(xx + zz);
+		dest.m23 =     2*(yz - wx);
+
+		dest.m31 =     2*(xz - wy);
+		dest.m32 =     2*(yz + wx);
+		dest.m33 = 1 - 2*(xx + yy);
+	}
+
+	/**
+	 * Computes Euler angles equivalent to this <code>Quaternion</code> and
+	 * stores them in the supplied <code>Point3D</code>, as the x-, y-, and
+	 * z-rotations respectively. Each angle will be between 0 and two pi.
+	 *
+	 * Euler angles aren't unique, so the angles might differ from the ones
+	 * passed to {@link #setEuler(double, double, double)}, but they will
+	 * describe the same rotation. At the poles (y-rotation of plus or minus
+	 * pi over two), the z-rotation is taken to be 0.
+	 *
+	 * @param dest the <code>Point3D</code> to store the angles in.
+	 * @see #setEuler(double, double, double)
+	 */
+	public void toEuler(Point3D dest) {
+		double xx = x*x, yy = y*y, zz = z*z;
+
+		double m11 = 1 - 2*(yy + zz);
+		double m12 =     2*(x*y - w*z);
+		double m13 =     2*(x*z + w*y); // = sin(rotY)
+		double cosY = Math.sqrt(m11*m11 + m12*m12);
+
+		if ( cosY > 1e-12 ) {
+			dest.x = Math.atan2(-2*(y*z - w*x), 1 - 2*(xx + yy)); // -m23, m33
+			dest.y = Math.atan2(m13, cosY);
+			dest.z = Math.atan2(-m12, m11);
+		} else {
+			// Gimbal lock. x and z rotate around the same axis.
+			dest.x = Math.atan2(2*(y*z + w*x), 1 - 2*(xx + zz)); // m32, m22
+			dest.y = (m13 > 0) ? Math.PI/2 : -Math.PI/2;
+			dest.z = 0;
+		}
+
+		dest.x = wrapAngle(dest.x);
+		dest.y = wrapAngle(dest.y);
+		dest.z = wrapAngle(dest.z);
+	}
+
+	/**
+	 * Returns the <code>String</code> representation of this <code>Quaternion
+	 * </code>.
+	 *
+	 * @return the <code>String</code> representation.
+	 */
+	@Override
+	public String toString() {
+		return "(" + w + ", " + x + ", " + y + ", " + z + ")";
+	}
+
+	/**
+	 * Returns a copy of this <code>Quaternion</code>.
+	 *
+	 * @return a copy of this <code>Quaternion</code>.
+	 */
+	public Quaternion clone() {
+		return new Quaternion(w, x, y, z);
+	}
+
+	/**
+	 * Returns the equivalent angle between 0 (inclusive) and two pi
+	 * (exclusive). Doesn't loop, so it takes constant time regardless of the
+	 * angle's magnitude.
+	 *
+	 * @param angle the angle to wrap, in radians.
+	 * @return the wrapped angle.
+	 */
+	public static double wrapAngle(double angle) {
+		double twoPi = 2 * Math.PI;
+
+		angle %= twoPi;
+		if ( angle < 0 ) {
+			angle += twoPi;
+		}
+
+		return angle;
+	}
+
+}
@@ -0,0 +1,445 @@
+package car.shared.net;
+
+import java.util.LinkedList;
+
+import car.shared.js.JsObjectBuilder;
+
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.http.client.Request;
+import com.google.gwt.http.client.RequestBuilder;
+import com.google.gwt.http.client.RequestCallback;
+import com.google.gwt.http.client.RequestException;
+import com.google.gwt.http.client.Response;
+import com.google.gwt.http.client.URL;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.ui.Hidden;
+import com.google.gwt.user.client.ui.Widget;
+
+/**
+ * Sends form submissions in the background with <code>RequestBuilder</code>,
+ * instead of navigating away from the page. Submissions are queued and sent
+ * one at a time, in order. A submission that fails because of the network or
+ * the server (no response, a timeout, or a 5xx status) is retried after a
+ * delay that doubles with each attempt, up to a maximum number of attempts.
+ * 
+ * A {@link Listener} is told each time a submission changes {@link State}.
+ * 
+ * @author Joshua Little
+ */
+public class SubmissionQueue {
+	/**
+	 * Default number of times to try sending a submission before giving up.
+	 */
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+	
+	/**
+	 * Default number of unsent submissions that may be queued at once.
+	 */
+	public static final int DEFAULT_MAX_QUEUED = 16;
+	
+	/**
+	 * Delay before the first retry, in milliseconds. Doubles each retry.
+	 */
+	public static final int BASE_RETRY_DELAY = 1000;
+	
+	/**
+	 * Longest delay between retries, in milliseconds.
+	 */
+	public static final int MAX_RETRY_DELAY = 30000;
+	
+	/**
+	 * Milliseconds to wait for a response before treating it as failed.
+	 */
+	public static final int TIMEOUT = 30000;
+	
+	/**
+	 * The states a {@link Submission} goes through.
+	 */
+	public enum State {
+		/** Waiting for the submissions before it to be sent. */
+		QUEUED,
+		/** Request sent, waiting for a response. */
+		SENDING,
+		/** Last attempt failed, waiting to try again. */
+		RETRYING,
+		/** Accepted by the server. */
+		SENT,
+		/** Gave up, either after too many attempts or on a client error. */
+		FAILED
+	}
+	
+	/**
+	 * Listens for changes in the state of submissions.
+	 */
+	public interface Listener {
+		/**
+		 * Called whenever the supplied submission changes state.
+		 * 
+		 * @param submission the submission that changed.
+		 */
+		void onSubmissionChanged(Submission submission);
+	}
+	
+	/**
+	 * A single queued submission.
+	 */
+	public class Submission {
+		private int id; // Unique within this queue, counting from 1.
+		private RequestBuilder.Method method; // GET or POST.
+		private String data; // URL-encoded form data.
+		
+		private State state = State.QUEUED;
+		private int attempts = 0; // Times sent so far.
+		private int status = 0; // Last HTTP status, or 0 if none.
+		
+		private Submission(int id, RequestBuilder.Method method, String data) {
+			this.id = id;
+			this.method = method;
+			this.data = data;
+		}
+		
+		/**
+		 * Returns this submission's id, unique within its queue.
+		 * 
+		 * @return the id.
+		 */
+		public int getId() {
+			return id;
+		}
+		
+		/**
+		 * Returns this submission's current state.
+		 * 
+		 * @return the state.
+		 */
+		public State getState() {
+			return state;
+		}
+		
+		/**
+		 * Returns how many times this submission has been sent.
+		 * 
+		 * @return the number of attempts.
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+		
+		/**
+		 * Returns the HTTP status of the last response, or <code>0</code> if
+		 * there hasn't been one.
+		 * 
+		 * @return the last HTTP status, or <code>0</code>.
+		 */
+		public int getStatus() {
+			return status;
+		}
+		
+		/**
+		 * Returns this submission's state as a JSON <code>String</code>, with
+		 * "id", "state" (in lower-case), "attempts", "status", and "pending",
+		 * the number of submissions in the queue still to be finished.
+		 * 
+		 * @return the submission's state, as JSON.
+		 */
+		public String toJSON() {
+			StringBuilder json = new StringBuilder("{");
+			
+			json.append("\"id\":").append(id);
+			json.append(",\"state\":\"").append(state.name().toLowerCase());
+			json.append("\",\"attempts\":").append(attempts);
+			json.append(",\"status\":").append(status);
+			json.append(",\"pending\":").append(getPendingCount());
+			
+			return json.append('}').toString();
+		}
+		
+		/**
+		 * Returns this submission's state as a native JavaScript object, laid
+		 * out as described in {@link #toJSON()}.
+		 * 
+		 * @return the submission's state, as a JavaScript object.
+		 */
+		public JavaScriptObject toJavaScriptObject() {
+			return new JsObjectBuilder()
+					.set("id", id)
+					.set("state", state.name().toLowerCase())
+					.set("attempts", attempts)
+					.set("status", status)
+					.set("pending", getPendingCount())
+					.build();
+		}
+	}
+	
+	private String url; // Where to send submissions.
+	private RequestBuilder.Method method; // Default method.
+	
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private int maxQueued = DEFAULT_MAX_QUEUED;
+	
+	// Unfinished submissions. The head is the one being sent (or retried).
+	private LinkedList<Submission> queue = new LinkedList<Submission>();
+	private boolean busy = false; // Is the head being sent or retried?
+	private int nextId = 1;
+	
+	private Listener listener = null;
+	
+	/**
+	 * Creates an instance of <code>SubmissionQueue</code> that sends to the
+	 * supplied URL with the supplied method by default.
+	 * 
+	 * @param url where to send submissions.
+	 * @param method the HTTP method, "GET" or "POST".
+	 */
+	public SubmissionQueue(String url, String method) {
+		this.url = url;
+		this.method = toMethod(method);
+	}
+	
+	/**
+	 * Sets the {@link Listener} told about state changes. Supply <code>null
+	 * </code> to stop listening.
+	 * 
+	 * @param listener the new listener, or <code>null</code>.
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Sets how many times to try sending a submission before giving up.
+	 * 
+	 * @param maxAttempts the maximum number of attempts.
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+	
+	/**
+	 * Returns the number of submissions that haven't been sent or given up on.
+	 * 
+	 * @return the number of pending submissions.
+	 */
+	public int getPendingCount() {
+		return queue.size();
+	}
+	
+	/**
+	 * Returns whether another submission can be queued without throwing an
+	 * exception.
+	 * 
+	 * @return <code>true</code> if there's room in the queue, <code>false</code> otherwise.
+	 */
+	public boolean canSubmit() {
+		return queue.size() < maxQueued;
+	}
+	
+	/**
+	 * Queues the supplied data to be sent with the default method.
+	 * 
+	 * @param data the URL-encoded form data.
+	 * @return the queued submission.
+	 * @throws IllegalStateException if the queue is full.
+	 * @see #encodeFields(Iterable)
+	 */
+	public Submission submit(String data) {
+		return submit(data, null);
+	}
+	
+	/**
+	 * Queues the supplied data to be sent with the supplied method.
+	 * 
+	 * @param data the URL-encoded form data.
+	 * @param method "GET" or "POST", or <code>null</code> for the default.
+	 * @return the queued submission.
+	 * @throws IllegalStateException if the queue is full.
+	 */
+	public Submission submit(String data, String method) {
+		if ( !canSubmit() ) {
+			throw new IllegalStateException("Submission queue is full.");
+		}
+		
+		RequestBuilder.Method m = ( method == null ) ? this.method
+													 : toMethod(method);
+		
+		Submission submission = new Submission(nextId++, m, data);
+		queue.add(submission);
+		fireChanged(submission);
+		
+		sendNext();
+		return submission;
+	}
+	
+	/**
+	 * Sends the submission at the head of the queue, unless one is already
+	 * being sent.
+	 */
+	private void sendNext() {
+		if ( busy || queue.isEmpty() ) {
+			return;
+		}
+		
+		final Submission submission = queue.getFirst();
+		busy = true;
+		
+		submission.attempts++;
+		submission.state = State.SENDING;
+		fireChanged(submission);
+		
+		RequestBuilder rb;
+		String body = null;
+		
+		if ( submission.method == RequestBuilder.GET ) {
+			char sep = ( url.indexOf('?') == -1 ) ? '?' : '&';
+			rb = new RequestBuilder(RequestBuilder.GET,
+									url + sep + submission.data);
+		} else {
+			rb = new RequestBuilder(RequestBuilder.POST, url);
+			rb.setHeader("Content-Type", "application/x-www-form-urlencoded");
+			body = submission.data;
+		}
+		
+		rb.setTimeoutMillis(TIMEOUT);
+		
+		try {
+			rb.sendRequest(body, new RequestCallback() {
+				@Override
+				public void onResponseReceived(Request request,
+											   Response response) {
+					int status = response.getStatusCode();
+					submission.status = status;
+					
+					if ( status >= 200 && status < 300 ) {
+						finish(submission, State.SENT);
+					} else {
+						// 0 means the request never made it.
+						failed(submission, status == 0 || status == 408
+										   || status == 429 || status >= 500);
+					}
+				}
+				
+				@Override
+				public void onError(Request request, Throwable exception) {
+					failed(submission, true); // Timeouts and network errors.
+				}
+			});
+		} catch ( RequestException ex ) {
+			failed(submission, true);
+		}
+	}
+	
+	/**
+	 * Handles a failed attempt at sending the supplied submission. Retries it
+	 * after a delay if it's worth retrying and it has attempts left, and gives
+	 * up on it otherwise.
+	 * 
+	 * @param submission the submission that failed.
+	 * @param retryable whether the failure was one that might go away.
+	 */
+	private void failed(Submission submission, boolean retryable) {
+		if ( !retryable || submission.attempts >= maxAttempts ) {
+			finish(submission, State.FAILED);
+			return;
+		}
+		
+		submission.state = State.RETRYING;
+		fireChanged(submission);
+		
+		// Still busy while waiting, so later submissions don't jump ahead.
+		new Timer() {
+			@Override
+			public void run() {
+				busy = false;
+				sendNext();
+			}
+		}.schedule(retryDelay(submission.attempts));
+	}
+	
+	/**
+	 * Removes the supplied submission from the head of the queue with the
+	 * supplied final state, and moves on to the next one.
+	 * 
+	 * @param submission the finished submission.
+	 * @param state <code>SENT</code> or <code>FAILED</code>.
+	 */
+	private void finish(Submission submission, State state) {
+		queue.remove(submission);
+		busy = false;
+		
+		submission.state = state;
+		fireChanged(submission);
+		
+		sendNext();
+	}
+	
+	/**
+	 * Tells the listener, if there is one, that the supplied submission
+	 * changed.
+	 * 
+	 * @param submission the submission that changed.
+	 */
+	private void fireChanged(Submission submission) {
+		if ( listener != null ) {
+			listener.onSubmissionChanged(submission);
+		}
+	}
+	
+	/**
+	 * Returns how long to wait before the next attempt, after the supplied
+	 * number of attempts. Doubles each time, with up to 50% random jitter so
+	 * that many clients don't retry in lock-step.
+	 * 
+	 * @param attempts the number of attempts made so far.
+	 * @return the delay, in milliseconds.
+	 */
+	private static int retryDelay(int attempts) {
+		int delay = BASE_RETRY_DELAY << Math.min(attempts - 1, 16);
+		delay = Math.min(delay, MAX_RETRY_DELAY);
+		
+		return delay + (int) (Math.random() * delay / 2);
+	}
+	
+	/**
+	 * Converts the supplied method name into a <code>RequestBuilder.Method
+	 * </code>. Anything other than "POST" is taken as GET, like forms do.
+	 * 
+	 * @param method the method name.
+	 * @return the method.
+	 */
+	private static RequestBuilder.Method toMethod(String method) {
+		if ( "POST".equalsIgnoreCase(method) ) {
+			return RequestBuilder.POST;
+		} else {
+			return RequestBuilder.GET;
+		}
+	}
+	
+	/**
+	 * URL-encodes the names and values of the <code>Hidden</code> fields among
+	 * the supplied widgets, the same way a browser would encode a form. Other
+	 * widgets are ignored.
+	 * 
+	 * @param widgets the widgets to encode, e.g. a form's container.
+	 * @return the URL-encoded form data.
+	 */
+	public static String encodeFields(Iterable<Widget> widgets) {
+		StringBuilder data = new StringBuilder();
+		
+		for ( Widget widget : widgets ) {
+			if ( widget instanceof Hidden ) {
+				Hidden hidden = (Hidden) widget;
+				
+				if ( data.length() > 0 ) {
+					data.append('&');
+				}
+				
+				data.append(URL.encodeComponent(hidden.getName()));
+				data.append('=');
+				data.append(URL.encodeComponent(hidden.getValue()));
+			}
+		}
+		
+		return data.toString();
+	}
+	
+}
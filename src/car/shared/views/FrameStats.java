@@ -0,0 +1,231 @@
+package car.shared.views;
+
+import car.shared.js.JsObjectBuilder;
+
+import com.google.gwt.core.client.JavaScriptObject;
+
+/**
+ * Collects lightweight timing information and counters about drawn frames.
+ * Each {@link Phase} of drawing gets its own histogram of times, bucketed in
+ * powers of two milliseconds, along with its total and maximum time. The
+ * number of faces drawn and culled are counted as well.
+ *
+ * Timing a phase is done by calling {@link #start()} before it, and
+ * {@link #record(Phase, double)} with the returned value after it. Classes
+ * that can be timed accept a <code>FrameStats</code> through a <code>
+ * setFrameStats()</code> method, and skip all timing if they're given
+ * <code>null</code>.
+ *
+ * @author Joshua Little
+ */
+public class FrameStats {
+	/**
+	 * The phases of drawing a frame that are timed separately.
+	 */
+	public enum Phase {
+		/** Rotating and projecting the wire-frame's points. */
+		TRANSFORM,
+		/** Z-sorting the wire-frame's faces. */
+		SORT,
+		/** Building and stroking the paths for each face. */
+		EMIT,
+		/** Drawing images and canvases onto other canvases. */
+		COMPOSITE,
+		/** A whole frame, from start to finish. */
+		FRAME
+	}
+
+	/**
+	 * Upper bounds of the histogram buckets, in milliseconds. Times above the
+	 * last bound go into one extra, unbounded, bucket.
+	 */
+	public static final double[] BUCKET_BOUNDS = {
+		1, 2, 4, 8, 16, 32, 64, 128
+	};
+
+	// Per-phase histogram counts, indexed [phase][bucket].
+	private int[][] histograms;
+	private double[] totals; // Per-phase total time.
+	private double[] maximums; // Per-phase maximum time.
+	private int[] counts; // Per-phase number of recorded times.
+
+	private int facesDrawn; // Total faces stroked.
+	private int facesCulled; // Total faces skipped due to back-face culling.
+
+	/**
+	 * Creates a new, empty instance of <code>FrameStats</code>.
+	 */
+	public FrameStats() {
+		reset();
+	}
+
+	/**
+	 * Returns the current time in milliseconds, with sub-millisecond precision
+	 * if the browser supports it.
+	 *
+	 * @return the current time, in milliseconds.
+	 */
+	public static native double now() /*-{
+		if ( $wnd.performance && $wnd.performance.now ) {
+			return $wnd.performance.now();
+		} else {
+			return new Date().getTime();
+		}
+	}-*/;
+
+	/**
+	 * Clears all recorded times and counters.
+	 */
+	public void reset() {
+		int phases = Phase.values().length;
+
+		histograms = new int[phases][BUCKET_BOUNDS.length + 1];
+		totals = new double[phases];
+		maximums = new double[phases];
+		counts = new int[phases];
+
+		facesDrawn = 0;
+		facesCulled = 0;
+	}
+
+	/**
+	 * Marks the start of a phase. Pass the returned value to
+	 * {@link #record(Phase, double)} when the phase is finished.
+	 *
+	 * @return the start time.
+	 */
+	public double start() {
+		return now();
+	}
+
+	/**
+	 * Records the time taken by a phase that began at the supplied start time
+	 * and has just finished.
+	 *
+	 * @param phase the phase that finished.
+	 * @param start the value returned by {@link #start()} at the phase's start.
+	 */
+	public void record(Phase phase, double start) {
+		double time = now() - start;
+		int p = phase.ordinal();
+
+		// Find the first bucket it fits in.
+		int bucket = 0;
+		while ( bucket < BUCKET_BOUNDS.length && time > BUCKET_BOUNDS[bucket] ) {
+			bucket++;
+		}
+
+		histograms[p][bucket]++;
+		totals[p] += time;
+		maximums[p] = Math.max(maximums[p], time);
+		counts[p]++;
+	}
+
+	/**
+	 * Adds the supplied numbers to the drawn and culled face counters.
+	 *
+	 * @param drawn the number of faces drawn.
+	 * @param culled the number of faces culled.
+	 */
+	public void countFaces(int drawn, int culled) {
+		facesDrawn += drawn;
+		facesCulled += culled;
+	}
+
+	/**
+	 * Returns the number of times the supplied phase has been recorded.
+	 *
+	 * @param phase the phase to look up.
+	 * @return the number of recorded times.
+	 */
+	public int getCount(Phase phase) {
+		return counts[phase.ordinal()];
+	}
+
+	/**
+	 * Returns the total number of faces drawn.
+	 *
+	 * @return the number of faces drawn.
+	 */
+	public int getFacesDrawn() {
+		return facesDrawn;
+	}
+
+	/**
+	 * Returns the total number of faces culled.
+	 *
+	 * @return the number of faces culled.
+	 */
+	public int getFacesCulled() {
+		return facesCulled;
+	}
+
+	/**
+	 * Returns the recorded statistics as a JSON <code>String</code>. Each
+	 * phase is keyed by its lower-case name, and has a "count", "total",
+	 * "max", and "histogram" value. "bounds" holds the histogram buckets'
+	 * upper bounds.
+	 *
+	 * @return the statistics, as JSON.
+	 */
+	public String toJSON() {
+		StringBuilder json = new StringBuilder("{\"bounds\":[");
+		for ( int i = 0; i < BUCKET_BOUNDS.length; i++ ) {
+			if ( i > 0 ) {
+				json.append(',');
+			}
+			json.append(BUCKET_BOUNDS[i]);
+		}
+		json.append(']');
+
+		for ( Phase phase : Phase.values() ) {
+			int p = phase.ordinal();
+
+			json.append(",\"").append(phase.name().toLowerCase()).append("\":{");
+			json.append("\"count\":").append(counts[p]);
+			json.append(",\"total\":").append(totals[p]);
+			json.append(",\"max\":").append(maximums[p]);
+			json.append(",\"histogram\":[");
+			for ( int i = 0; i < histograms[p].length; i++ ) {
+				if ( i > 0 ) {
+					json.append(',');
+				}
+				json.append(histograms[p][i]);
+			}
+			json.append("]}");
+		}
+
+		json.append(",\"facesDrawn\":").append(facesDrawn);
+		json.append(",\"facesCulled\":").append(facesCulled);
+
+		return json.append('}').toString();
+	}
+
+	/**
+	 * Returns the recorded statistics as a native JavaScript object, laid out
+	 * as described in {@link #toJSON()}.
+	 *
+	 * @return the statistics, as a JavaScript object.
+	 */
+	public JavaScriptObject toJavaScriptObject() {
+		JsObjectBuilder stats = new JsObjectBuilder();
+		stats.set("bounds", JsObjectBuilder.toArray(BUCKET_BOUNDS));
+
+		for ( Phase phase : Phase.values() ) {
+			int p = phase.ordinal();
+
+			stats.set(phase.name().toLowerCase(), new JsObjectBuilder()
+					.set("count", counts[p])
+					.set("total", totals[p])
+					.set("max", maximums[p])
+					.set("histogram", JsObjectBuilder.toArray(histograms[p]))
+					.build());
+		}
+
+		stats.set("facesDrawn", facesDrawn);
+		stats.set("facesCulled", facesCulled);
+
+		return stats.build();
+	}
+
+}
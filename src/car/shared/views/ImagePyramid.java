@@ -0,0 +1,212 @@
+package car.shared.views;
+
+import gwt.g2d.client.graphics.Surface;
+import gwt.g2d.client.graphics.canvas.CanvasElement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gwt.dom.client.ImageElement;
+
+/**
+ * A multi-resolution, tiled version of an image. Level 0 is the image at its
+ * full resolution, and each level after that is half the size of the one
+ * before it, down to the first level that fits in a single tile. Each level is
+ * split into square tiles of {@link #TILE_SIZE} pixels.
+ *
+ * Tiles are rendered onto their own canvases the first time they're needed,
+ * and are kept in a cache of bounded size. When the cache is full, the least
+ * recently drawn tile is thrown away.
+ *
+ * Drawing the image through an <code>ImagePyramid</code> only touches the
+ * tiles that are visible, at the level nearest the current zoom, so the cost
+ * depends on the size of the view rather than the size of the image.
+ *
+ * @author Joshua Little
+ */
+public class ImagePyramid {
+	/**
+	 * Width and height of each tile, in pixels.
+	 */
+	public static final int TILE_SIZE = 256;
+
+	/**
+	 * Default maximum number of tiles kept in the cache.
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 64;
+
+	private ImageElement image; // Full-resolution source image.
+	private int width, height; // Dimensions of the source image.
+
+	private int maxLevel; // Coarsest level; fits in a single tile.
+
+	private Map<Integer, Surface> tiles; // Rendered tiles, in LRU order.
+
+	/**
+	 * Creates an instance of <code>ImagePyramid</code> for the supplied image,
+	 * with a cache of {@link #DEFAULT_CACHE_SIZE} tiles. The image must already
+	 * be loaded.
+	 *
+	 * @param image the image to tile.
+	 */
+	public ImagePyramid(ImageElement image) {
+		this(image, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Creates an instance of <code>ImagePyramid</code> for the supplied image,
+	 * with a cache of the supplied size. The image must already be loaded.
+	 *
+	 * @param image the image to tile.
+	 * @param cacheSize the maximum number of tiles to keep.
+	 */
+	public ImagePyramid(ImageElement image, final int cacheSize) {
+		this.image = image;
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+
+		// Halve until it fits in one tile.
+		maxLevel = 0;
+		while ( levelSize(width, maxLevel) > TILE_SIZE
+				|| levelSize(height, maxLevel) > TILE_SIZE ) {
+			maxLevel++;
+		}
+
+		// Access-ordered, so the eldest entry is the least recently used.
+		tiles = new LinkedHashMap<Integer, Surface>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Surface> e) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the image this <code>ImagePyramid</code> tiles.
+	 *
+	 * @return the source image.
+	 */
+	public ImageElement getImage() {
+		return image;
+	}
+
+	/**
+	 * Returns the level whose resolution is nearest the supplied zoom, without
+	 * going under it. That is, the coarsest level that doesn't have to be
+	 * scaled up to be drawn at <code>zoom</code>.
+	 *
+	 * @param zoom the zoom the image will be drawn at.
+	 * @return the level to draw.
+	 */
+	public int chooseLevel(double zoom) {
+		if ( zoom >= 1 ) {
+			return 0;
+		}
+
+		int level = (int) Math.floor(Math.log(1 / zoom) / Math.log(2));
+		return Math.min(level, maxLevel);
+	}
+
+	/**
+	 * Draws the tiles covering the supplied region of the image onto the
+	 * supplied surface, at the level nearest the supplied zoom. The region is
+	 * in full-resolution image coordinates, and the tiles are drawn in those
+	 * coordinates, so the surface's transform should take image coordinates to
+	 * view coordinates. Tiles may extend past the region.
+	 *
+	 * @param surface the surface to draw on.
+	 * @param zoom the zoom the image is being drawn at.
+	 * @param x x-coordinate of the region's upper-left corner.
+	 * @param y y-coordinate of the region's upper-left corner.
+	 * @param w width of the region.
+	 * @param h height of the region.
+	 */
+	public void draw(Surface surface, double zoom,
+					 double x, double y, double w, double h) {
+		int level = chooseLevel(zoom);
+		int scale = 1 << level; // Image pixels per level pixel.
+		int span = TILE_SIZE * scale; // Image pixels per tile.
+
+		// Tiles overlapping the region, clamped to the image.
+		int minTX = Math.max(0, (int) Math.floor(x / span));
+		int minTY = Math.max(0, (int) Math.floor(y / span));
+		int maxTX = Math.min((width  - 1) / span, (int) Math.floor((x+w) / span));
+		int maxTY = Math.min((height - 1) / span, (int) Math.floor((y+h) / span));
+
+		for ( int ty = minTY; ty <= maxTY; ty++ ) {
+			for ( int tx = minTX; tx <= maxTX; tx++ ) {
+				CanvasElement tile = getTile(level, tx, ty).getCanvas();
+
+				// Where the tile goes in image coordinates.
+				int sx = tx * span;
+				int sy = ty * span;
+				int sw = Math.min(span, width  - sx);
+				int sh = Math.min(span, height - sy);
+
+				surface.drawImage(tile, 0, 0, tile.getWidth(), tile.getHeight(),
+								  sx, sy, sw, sh);
+			}
+		}
+	}
+
+	/**
+	 * Returns the requested tile, rendering it if it's not in the cache.
+	 *
+	 * @param level the tile's level.
+	 * @param tx the tile's column.
+	 * @param ty the tile's row.
+	 * @return the tile.
+	 */
+	private Surface getTile(int level, int tx, int ty) {
+		// Levels, rows, and columns all comfortably fit in their bits.
+		Integer key = (level << 24) | (ty << 12) | tx;
+
+		Surface tile = tiles.get(key); // Also marks it as recently used.
+		if ( tile == null ) {
+			tile = renderTile(level, tx, ty);
+			tiles.put(key, tile);
+		}
+
+		return tile;
+	}
+
+	/**
+	 * Renders the requested tile from the source image.
+	 *
+	 * @param level the tile's level.
+	 * @param tx the tile's column.
+	 * @param ty the tile's row.
+	 * @return the rendered tile.
+	 */
+	private Surface renderTile(int level, int tx, int ty) {
+		int scale = 1 << level;
+		int span = TILE_SIZE * scale;
+
+		// Region of the source image, clamped to its edges.
+		int sx = tx * span;
+		int sy = ty * span;
+		int sw = Math.min(span, width  - sx);
+		int sh = Math.min(span, height - sy);
+
+		// Size of the tile at this level. Edge tiles may be smaller.
+		int tw = Math.max(1, (int) Math.ceil((double) sw / scale));
+		int th = Math.max(1, (int) Math.ceil((double) sh / scale));
+
+		Surface tile = new Surface(tw, th);
+		tile.drawImage(image, sx, sy, sw, sh, 0, 0, tw, th);
+
+		return tile;
+	}
+
+	/**
+	 * Returns the size of a dimension of the image at the supplied level.
+	 *
+	 * @param size the full-resolution size.
+	 * @param level the level.
+	 * @return the size at the level.
+	 */
+	private static int levelSize(int size, int level) {
+		return (size + (1 << level) - 1) >> level; // Rounds up.
+	}
+
+}
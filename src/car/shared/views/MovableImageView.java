@@ -1,12 +1,15 @@
 package car.shared.views;
 
 import gwt.g2d.client.graphics.Color;
+import gwt.g2d.client.graphics.DirectShapeRenderer;
 import gwt.g2d.client.graphics.Surface;
 import gwt.g2d.client.math.Matrix;
 import gwt.g2d.client.math.Rectangle;
 import car.shared.math.Point2D;
+import car.shared.views.FrameStats.Phase;
 
 import com.google.gwt.dom.client.ImageElement;
+import com.google.gwt.user.client.ui.AbsolutePanel;
 import com.google.gwt.user.client.ui.FocusPanel;
 import com.google.gwt.user.client.ui.Image;
 
@@ -15,22 +18,49 @@ import com.google.gwt.user.client.ui.Image;
  * image. This class has functions allowing the view to be scaled and translated
  * arbitrarily.
  * 
+ * The view is a stack of three canvases: the image layer, the rectangle layer
+ * above it, and an overlay on top that belongs to the view's owner, which
+ * fills it in through an {@link OverlayPainter}. Each layer is only redrawn
+ * when it has changed. In particular, when the view is only panned by whole
+ * pixels, the image layer's contents are shifted and only the newly exposed
+ * strips are drawn from the image, and changing just the overlay never
+ * touches the image.
+ * 
  * @author Joshua Little
  */
 public class MovableImageView extends FocusPanel implements Drawable {
 	private final double ZOOM_BASE = 2; // Base number for exponential zoom.
 	private final double LOG_BASE = Math.log(ZOOM_BASE);
 	
+	/**
+	 * Images wider or taller than this many pixels are drawn through an
+	 * {@link ImagePyramid}. Smaller ones are cheap enough to draw directly.
+	 */
+	public static final int PYRAMID_THRESHOLD = 2048;
+	
 	private Image image; // Image to draw.
 	private ImageElement imageElement; // ImageElement of image.
+	private ImagePyramid pyramid; // Tiles of image, if it's large.
 	
 	private Rectangle rect; // Rectangle to draw. (Around car generally.)
 	private double offX, offY; // Translation due to dragging.
 	private Matrix transform;
 	
-	private Surface canvas; // Canvas to draw everything on.
+	private Surface imageLayer; // Canvas the image is drawn on.
+	private DirectShapeRenderer imageBuilder; // Clips the image layer.
+	private Surface backBuffer; // Scratch canvas for scrolling the image.
+	private Surface rectLayer; // Canvas the rectangle is drawn on.
+	private Surface overlay; // Canvas the owner draws on, on top.
 	
-	boolean dirty; // Needs to be redrawn?
+	private OverlayPainter overlayPainter = null; // Fills in the overlay.
+	private boolean overlayFollowsView = true; // Repaint overlay on pan/zoom?
+	
+	// What's currently on the image layer. Only valid if imageValid is true.
+	private boolean imageValid = false;
+	private double drawnOffX, drawnOffY, drawnZoom;
+	
+	boolean dirty; // Image and rectangle layers need to be redrawn?
+	private boolean overlayDirty; // Overlay needs to be redrawn?
 	
 	// Color to draw rectangle in.
 	private Color rectColor = new Color(0, 0, 255);
@@ -55,6 +85,8 @@ public class MovableImageView extends FocusPanel implements Drawable {
 	boolean moved = false; // Does not count setOffset, only translate.
 	boolean scaled = false;
 	
+	private FrameStats stats = null; // Where to record timings, if anywhere.
+	
 	/**
 	 * Creates an instance of <code>MovableImageView</code>
 	 * 
@@ -71,17 +103,29 @@ public class MovableImageView extends FocusPanel implements Drawable {
 		
 		if ( image != null ) {
 			imageElement = ImageElement.as(image.getElement());
+			pyramid = buildPyramid(imageElement);
 		}
 		
-		canvas = new Surface(width, height);
+		imageLayer = new Surface(width, height);
+		imageBuilder = new DirectShapeRenderer(imageLayer);
 		
-		canvas.setStrokeStyle(rectColor); // Sets the rectangle color.
+		rectLayer = new Surface(width, height);
+		rectLayer.setStrokeStyle(rectColor); // Sets the rectangle color.
+		
+		overlay = new Surface(width, height);
 
 		transform = new Matrix();
 		
 		reset(); // Set default offset and zoom.
 		
-		setWidget(canvas); // Sets the canvas to be the drawn widget.
+		// Stack the canvases ontop of each other.
+		AbsolutePanel layers = new AbsolutePanel();
+		layers.setPixelSize(width, height);
+		layers.add(imageLayer, 0, 0);
+		layers.add(rectLayer, 0, 0);
+		layers.add(overlay, 0, 0);
+		
+		setWidget(layers); // Sets the layers to be the drawn widget.
 		
 		invalidate();
 	}
@@ -89,8 +133,8 @@ public class MovableImageView extends FocusPanel implements Drawable {
 	@Override
 	public void onLoad() {
 		// Because these aren't available before the canvas is attached.
-		this.width  = canvas.getWidth();
-		this.height = canvas.getHeight();
+		this.width  = overlay.getWidth();
+		this.height = overlay.getHeight();
 	}
 
 	/**
@@ -142,8 +186,26 @@ public class MovableImageView extends FocusPanel implements Drawable {
 	public void setImage(Image image) {
 		this.image = image;
 		imageElement = ImageElement.as(image.getElement());
+		pyramid = buildPyramid(imageElement);
+		imageValid = false;
 
-		invalidate();
+		viewChanged();
+	}
+	
+	/**
+	 * Builds an {@link ImagePyramid} for the supplied image if it's larger than
+	 * {@link #PYRAMID_THRESHOLD}.
+	 * 
+	 * @param element the image to build the pyramid for.
+	 * @return the pyramid, or <code>null</code> if the image is small.
+	 */
+	private static ImagePyramid buildPyramid(ImageElement element) {
+		if ( element.getWidth()  > PYRAMID_THRESHOLD
+				|| element.getHeight() > PYRAMID_THRESHOLD ) {
+			return new ImagePyramid(element);
+		} else {
+			return null;
+		}
 	}
 	
 	/**
@@ -172,7 +234,7 @@ public class MovableImageView extends FocusPanel implements Drawable {
 		transform.setDx(-zoom*x);
 		transform.setDy(-zoom*y);
 
-		invalidate();
+		viewChanged();
 	}
 	
 	/**
@@ -235,6 +297,7 @@ public class MovableImageView extends FocusPanel implements Drawable {
 	 */
 	public void setRectangle(Rectangle rect) {
 		this.rect = rect;
+		dirty = true;
 	}
 
 	/**
@@ -369,7 +432,7 @@ public class MovableImageView extends FocusPanel implements Drawable {
 		setOffset(offX + ( width/oldZoom -  width/zoom)/2,
 				  offY + (height/oldZoom - height/zoom)/2);
 		
-		invalidate();
+		viewChanged();
 	}
 	
 	/**
@@ -423,14 +486,51 @@ public class MovableImageView extends FocusPanel implements Drawable {
 	}
 	
 	/**
-	 * Returns the underlying canvas surface that this <code>MovableImageView
-	 * </code> draws on. Drawing on this will result in an immediate change to
-	 * the resultant view.
+	 * Returns the overlay canvas surface of this <code>MovableImageView
+	 * </code>, which sits ontop of the image and rectangle. Drawing on this
+	 * will result in an immediate change to the resultant view. The overlay is
+	 * cleared whenever it's redrawn, so it should normally only be drawn on by
+	 * the {@link OverlayPainter}.
 	 * 
-	 * @return the underlying canvas surface.
+	 * @return the overlay canvas surface.
+	 * @see #setOverlayPainter(OverlayPainter)
 	 */
 	public Surface getSurface() {
-		return canvas;
+		return overlay;
+	}
+	
+	/**
+	 * Sets the {@link OverlayPainter} that fills in the overlay each time it's
+	 * redrawn. If <code>null</code>, the overlay is left empty.
+	 * 
+	 * @param overlayPainter the new overlay painter, or <code>null</code>.
+	 */
+	public void setOverlayPainter(OverlayPainter overlayPainter) {
+		this.overlayPainter = overlayPainter;
+		invalidateOverlay();
+	}
+	
+	/**
+	 * Sets whether the overlay depends on the offset and zoom, and so needs to
+	 * be redrawn whenever the view is panned or zoomed. Defaults to <code>
+	 * true</code>. Owners whose overlay stays put regardless of the view can
+	 * set this to <code>false</code> to skip those redraws.
+	 * 
+	 * @param overlayFollowsView whether the overlay depends on the view.
+	 */
+	public void setOverlayFollowsView(boolean overlayFollowsView) {
+		this.overlayFollowsView = overlayFollowsView;
+	}
+	
+	/**
+	 * Sets the {@link FrameStats} that this <code>MovableImageView</code>
+	 * records its drawing times in, as composite times. If <code>null</code>,
+	 * nothing is recorded.
+	 * 
+	 * @param stats the stats to record in, or <code>null</code>.
+	 */
+	public void setFrameStats(FrameStats stats) {
+		this.stats = stats;
 	}
 	
 	/**
@@ -441,7 +541,7 @@ public class MovableImageView extends FocusPanel implements Drawable {
 		resetZoom();
 		resetOffset();
 
-		invalidate();
+		viewChanged();
 	}
 	
 	/**
@@ -471,39 +571,190 @@ public class MovableImageView extends FocusPanel implements Drawable {
 	 */
 	public void resetZoom() {
 		setZoom(defaultZoom);
-		invalidate();
+		viewChanged();
 		
 		scaled = false;
 	}
 	
 	/**
-	 * Draws this <code>MovableImageView</code>'s image and rectangle onto the
-	 * view. Will only draw if it has been invalidated, whether be changing its
-	 * zoom or offset, or by calling {@link #invalidate()}.
+	 * Draws this <code>MovableImageView</code>'s image, rectangle, and overlay
+	 * onto the view. Only draws the layers that have been invalidated, whether
+	 * by changing its zoom or offset, or by calling {@link #invalidate()} or
+	 * {@link #invalidateOverlay()}.
 	 * 
 	 * @see #redraw()
 	 */
 	@Override
 	public boolean draw() {
+		boolean redrawn = false;
+		
 		if ( dirty ) {
-			canvas.setTransform(transform); // Set current transform.
-			canvas.clear(); // Clear current view for drawing.
+			double start = (stats != null) ? stats.start() : 0;
 			
-			// Draw stuff.
 			if ( image != null ) {
-				canvas.drawImage(imageElement, 0, 0);
+				drawImageLayer();
 			}
 			
+			rectLayer.setTransform(transform); // Set current transform.
+			rectLayer.clear(); // Clear current view for drawing.
+			
 			if ( rect != null ) {
 				// The rectangle color is set in the constructor.
-				canvas.strokeRectangle(rect);
+				rectLayer.strokeRectangle(rect);
+			}
+			
+			if ( stats != null ) {
+				stats.record(Phase.COMPOSITE, start);
 			}
 			
 			dirty = false;
+			redrawn = true;
+		}
+		
+		if ( overlayDirty ) {
+			overlay.clear();
 			
-			return true;
-		} else {
-			return false;
+			if ( overlayPainter != null ) {
+				overlayPainter.paintOverlay(this, overlay);
+			}
+			
+			overlayDirty = false;
+			redrawn = true;
+		}
+		
+		return redrawn;
+	}
+	
+	/**
+	 * Brings the image layer up to date with the current offset and zoom. If
+	 * the view has only been panned by whole pixels since the layer was last
+	 * drawn, the layer is scrolled instead of being redrawn.
+	 */
+	private void drawImageLayer() {
+		if ( imageValid && zoom == drawnZoom ) {
+			// How far the image has moved on the canvas, in pixels.
+			double shiftX = (drawnOffX - offX) * zoom;
+			double shiftY = (drawnOffY - offY) * zoom;
+			
+			if ( shiftX == 0 && shiftY == 0 ) {
+				return; // Nothing to do.
+			}
+			
+			if ( isWholePixel(shiftX) && isWholePixel(shiftY)
+					&& Math.abs(shiftX) < width && Math.abs(shiftY) < height ) {
+				scrollImageLayer((int) Math.rint(shiftX), (int) Math.rint(shiftY));
+				
+				drawnOffX = offX; drawnOffY = offY;
+				return;
+			}
+		}
+		
+		// Redraw the whole thing.
+		imageLayer.setTransform(transform);
+		imageLayer.clear();
+		// Only the part of the image that's in view.
+		paintImage(offX, offY, width/zoom, height/zoom);
+		
+		imageValid = true;
+		drawnOffX = offX; drawnOffY = offY; drawnZoom = zoom;
+	}
+	
+	/**
+	 * Shifts the contents of the image layer by the supplied number of pixels,
+	 * and draws the strips of the image exposed by the shift.
+	 * 
+	 * @param shiftX how far to shift right, in pixels.
+	 * @param shiftY how far to shift down, in pixels.
+	 */
+	private void scrollImageLayer(int shiftX, int shiftY) {
+		if ( backBuffer == null ) {
+			backBuffer = new Surface((int) width, (int) height);
+		}
+		
+		// Copy through the back buffer, since drawing a canvas onto itself
+		// isn't reliable across browsers.
+		backBuffer.clear();
+		backBuffer.drawImage(imageLayer.getCanvas(), shiftX, shiftY);
+		
+		imageLayer.setTransform(1, 0, 0, 1, 0, 0);
+		imageLayer.clear();
+		imageLayer.drawImage(backBuffer.getCanvas(), 0, 0);
+		
+		// Fill in the exposed strips. The corner may be drawn twice.
+		if ( shiftX > 0 ) {
+			paintStrip(0, 0, shiftX, height);
+		} else if ( shiftX < 0 ) {
+			paintStrip(width + shiftX, 0, -shiftX, height);
+		}
+		
+		if ( shiftY > 0 ) {
+			paintStrip(0, 0, width, shiftY);
+		} else if ( shiftY < 0 ) {
+			paintStrip(0, height + shiftY, width, -shiftY);
+		}
+	}
+	
+	/**
+	 * Draws the image into the supplied strip of the image layer, in canvas
+	 * coordinates. Nothing outside of the strip is touched.
+	 * 
+	 * @param x x-coordinate of the strip's upper-left corner.
+	 * @param y y-coordinate of the strip's upper-left corner.
+	 * @param w width of the strip.
+	 * @param h height of the strip.
+	 */
+	private void paintStrip(double x, double y, double w, double h) {
+		imageLayer.save();
+		
+		imageLayer.setTransform(1, 0, 0, 1, 0, 0);
+		imageBuilder.beginPath();
+		imageBuilder.drawRect(x, y, w, h);
+		imageBuilder.clip();
+		
+		imageLayer.setTransform(transform);
+		paintImage(offX + x/zoom, offY + y/zoom, w/zoom, h/zoom);
+		
+		imageLayer.restore();
+	}
+	
+	/**
+	 * Returns whether the supplied value is a whole number, give or take
+	 * floating-point error.
+	 * 
+	 * @param value the value to test.
+	 * @return <code>true</code> if it's whole, <code>false</code> otherwise.
+	 */
+	private static boolean isWholePixel(double value) {
+		return Math.abs(value - Math.rint(value)) < 1e-6;
+	}
+	
+	/**
+	 * Draws the supplied region of the image, in image coordinates, onto the
+	 * image layer. Assumes the layer's transform is already set. Uses the
+	 * {@link ImagePyramid} if there is one, otherwise draws just the region of
+	 * the image itself.
+	 * 
+	 * @param x x-coordinate of the region's upper-left corner.
+	 * @param y y-coordinate of the region's upper-left corner.
+	 * @param w width of the region.
+	 * @param h height of the region.
+	 */
+	private void paintImage(double x, double y, double w, double h) {
+		if ( pyramid != null ) {
+			pyramid.draw(imageLayer, zoom, x, y, w, h);
+			return;
+		}
+		
+		// Clamp the region to the image, since some browsers throw if the
+		// source rectangle goes outside of it.
+		double x1 = Math.max(0, Math.floor(x));
+		double y1 = Math.max(0, Math.floor(y));
+		double x2 = Math.min(imageElement.getWidth(),  Math.ceil(x + w));
+		double y2 = Math.min(imageElement.getHeight(), Math.ceil(y + h));
+		
+		if ( x2 > x1 && y2 > y1 ) {
+			imageLayer.drawImage(imageElement, x1, y1, x2 - x1, y2 - y1,
+								 x1, y1, x2 - x1, y2 - y1);
 		}
 	}
 	
@@ -520,12 +771,37 @@ public class MovableImageView extends FocusPanel implements Drawable {
 	
 	/**
 	 * Invalidates this <code>MovableImageView</code> so that it will be forced
-	 * to redraw itself on the next call to {@link #draw()}.
+	 * to redraw all of its layers on the next call to {@link #draw()}. The
+	 * image is only redrawn as much as it needs to be, though.
 	 * 
 	 * @see #redraw()
+	 * @see #invalidateOverlay()
 	 */
 	public void invalidate() {
 		dirty = true;
+		overlayDirty = true;
+	}
+	
+	/**
+	 * Invalidates only the overlay of this <code>MovableImageView</code>, so
+	 * that just it will be redrawn on the next call to {@link #draw()}.
+	 * 
+	 * @see #invalidate()
+	 */
+	public void invalidateOverlay() {
+		overlayDirty = true;
+	}
+	
+	/**
+	 * Called when the offset, zoom, or image has changed. Invalidates the image
+	 * and rectangle layers, and the overlay if it follows the view.
+	 */
+	private void viewChanged() {
+		dirty = true;
+		
+		if ( overlayFollowsView ) {
+			overlayDirty = true;
+		}
 	}
 	
 	/**
@@ -541,7 +817,7 @@ public class MovableImageView extends FocusPanel implements Drawable {
 		// the zoom.
 		setOffset(offX + dx/zoom, offY + dy/zoom);
 		
-		invalidate();
+		viewChanged();
 		
 		moved = true;
 	}
@@ -0,0 +1,24 @@
+package car.shared.views;
+
+import gwt.g2d.client.graphics.Surface;
+
+/**
+ * Specifies a class that fills in the overlay of a {@link MovableImageView}.
+ * The overlay sits ontop of the image and rectangle, and is redrawn
+ * separately from them, so things drawn on it (e.g. wire-frames) can change
+ * without the image being redrawn.
+ * 
+ * @author Joshua Little
+ */
+public interface OverlayPainter {
+	
+	/**
+	 * Draws onto the overlay of the supplied view. The overlay has already
+	 * been cleared. Any changes to the overlay's state (e.g. its transform)
+	 * should be undone before returning.
+	 * 
+	 * @param view the view whose overlay is being drawn.
+	 * @param overlay the overlay to draw on.
+	 */
+	public abstract void paintOverlay(MovableImageView view, Surface overlay);
+}
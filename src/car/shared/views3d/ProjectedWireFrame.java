@@ -0,0 +1,106 @@
+package car.shared.views3d;
+
+import car.shared.views3d.obj.Face;
+import car.shared.views3d.obj.ObjWireFrame;
+
+/**
+ * A snapshot of a {@link WireFrameGeometry}'s output: its projected vertices,
+ * and its visible faces in back-to-front order. Lets a wire-frame be drawn
+ * again, for as long as its orientation doesn't change, without redoing any
+ * of the transforming, sorting, or culling. The geometry itself can then be
+ * reused for other orientations in the meantime.
+ * 
+ * Buffers are kept between captures, and only grow, so re-capturing doesn't
+ * allocate unless the wire-frame gets bigger.
+ * 
+ * @author Joshua Little
+ * @see WireFramePainter
+ */
+public class ProjectedWireFrame {
+	
+	private ObjWireFrame wireFrame = null; // Wire-frame captured.
+	
+	private double[] points = new double[0]; // Projected (x, y) pairs.
+	private Face[] faces = new Face[0]; // Visible faces, in drawing order.
+	private int faceCount = 0; // Number of faces used in faces.
+	
+	/**
+	 * Copies the current state of the supplied geometry, which should have
+	 * been transformed and sorted.
+	 * 
+	 * @param geometry the geometry to capture.
+	 */
+	public void capture(WireFrameGeometry geometry) {
+		wireFrame = geometry.getWireFrame();
+		
+		double[] vPoints = geometry.getProjectedVertices();
+		if ( points.length < vPoints.length ) {
+			points = new double[vPoints.length];
+		}
+		System.arraycopy(vPoints, 0, points, 0, vPoints.length);
+		
+		Face[] order = geometry.getFaces();
+		if ( faces.length < order.length ) {
+			faces = new Face[order.length];
+		}
+		
+		// Cull now, so drawing doesn't have to.
+		faceCount = 0;
+		for ( Face face : order ) {
+			if ( geometry.isVisible(face) ) {
+				faces[faceCount++] = face;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the wire-frame that was captured, or <code>null</code> if
+	 * nothing has been captured yet.
+	 * 
+	 * @return the captured wire-frame, or <code>null</code>.
+	 */
+	public ObjWireFrame getWireFrame() {
+		return wireFrame;
+	}
+	
+	/**
+	 * Returns the projected vertices, packed as (x, y) pairs in
+	 * view-coordinates. May be longer than needed. The returned array should
+	 * not be modified.
+	 * 
+	 * @return the projected vertices.
+	 */
+	public double[] getPoints() {
+		return points;
+	}
+	
+	/**
+	 * Returns the visible faces in drawing order. Only the first
+	 * {@link #getFaceCount()} are used. The returned array should not be
+	 * modified.
+	 * 
+	 * @return the visible faces.
+	 */
+	public Face[] getFaces() {
+		return faces;
+	}
+	
+	/**
+	 * Returns the number of visible faces.
+	 * 
+	 * @return the number of visible faces.
+	 */
+	public int getFaceCount() {
+		return faceCount;
+	}
+	
+	/**
+	 * Returns the number of faces that were culled.
+	 * 
+	 * @return the number of culled faces.
+	 */
+	public int getCulledCount() {
+		return ( wireFrame == null ) ? 0 : wireFrame.faces.length - faceCount;
+	}
+	
+}
@@ -3,11 +3,15 @@ package car.shared.views3d;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
+import car.shared.config.Bootstrap;
 import car.shared.config.Config;
+import car.shared.config.ConfigElement;
+import car.shared.config.LoadTimings;
 import car.shared.views3d.obj.ObjIO;
 import car.shared.views3d.obj.ObjWireFrame;
 
@@ -15,9 +19,6 @@ import com.google.gwt.core.client.GWT;
 import com.google.gwt.resources.client.ClientBundle;
 import com.google.gwt.resources.client.TextResource;
 import com.google.gwt.user.client.Command;
-import com.google.gwt.xml.client.Element;
-import com.google.gwt.xml.client.NodeList;
-import com.google.gwt.xml.client.Text;
 
 /**
  * An extension of {@link car.shared.config.Config} that allows the loading of
@@ -26,13 +27,17 @@ import com.google.gwt.xml.client.Text;
  * If the configuration file fails to load, the <code>WireFrameConfig</code>
  * will load the default fallback model defined in {@link FallbackModel}.
  * 
+ * Models embedded in a {@link Bootstrap} are parsed right away, and only the
+ * rest are fetched.
+ * 
  * @author Joshua Little
  */
 public class WireFrameConfig extends Config {
 	// Fallback model lazily loaded from the FallbackModel bundled resource.
 	private static ObjWireFrame FALLBACK_MODEL = null;
 	
-	// Stores wire-frames by name and id.
+	// Stores wire-frames by name and id. Created by ensureMaps(), since a
+	// bootstrapped Config loads before our constructor gets to run.
 	private Map<Integer, ObjWireFrame> wireFrames;
 	private Map<String, ObjWireFrame> wireFramesByName;
 	
@@ -72,10 +77,35 @@ public class WireFrameConfig extends Config {
 	 * @throws RuntimeException if there was an error requesting the file.
 	 */
 	public WireFrameConfig(String url) {
-		super(url);
+		this(url, null);
+	}
+	
+	/**
+	 * Creates a new <code>WireFrameConfig</code> from the supplied
+	 * {@link Bootstrap}, falling back to the file at the specified URL for the
+	 * configuration, and to each model's URL for the models, if they aren't
+	 * embedded in it. If everything is embedded, the
+	 * <code>WireFrameConfig</code> is fully loaded when this returns.
+	 * 
+	 * @param url the location of the configuration file to load.
+	 * @param bootstrap the embedded configuration and models, or
+	 * <code>null</code>.
+	 * @throws RuntimeException if there was an error requesting the file.
+	 */
+	public WireFrameConfig(String url, Bootstrap bootstrap) {
+		super(url, bootstrap);
 		
-		wireFramesByName = new TreeMap<String, ObjWireFrame>();
-		wireFrames = new HashMap<Integer, ObjWireFrame>();
+		ensureMaps(); // In case nothing's been loaded yet.
+	}
+	
+	/**
+	 * Creates the wire-frame maps, if they haven't been already.
+	 */
+	private void ensureMaps() {
+		if ( wireFrames == null ) {
+			wireFramesByName = new TreeMap<String, ObjWireFrame>();
+			wireFrames = new HashMap<Integer, ObjWireFrame>();
+		}
 	}
 
 	/**
@@ -185,9 +215,9 @@ public class WireFrameConfig extends Config {
 	 */
 	@Override
 	protected void load() {
-		assert wireFrames != null && wireFramesByName != null;
+		ensureMaps();
 		
-		loadWireFrames(getXMLDoc().getDocumentElement());
+		loadWireFrames(getConfigRoot());
 	}
 	
 	/**
@@ -200,7 +230,7 @@ public class WireFrameConfig extends Config {
 			FALLBACK_MODEL = ObjIO.parseObjFile(fm.getFallbackObj().getText());
 		}
 		
-		assert wireFrames != null && wireFramesByName != null;
+		ensureMaps();
 		
 		wireFrames.clear(); wireFramesByName.clear(); // Clear any partial data.
 		
@@ -213,24 +243,22 @@ public class WireFrameConfig extends Config {
 	}
 	
 	/**
-	 * Extracts the wire-frame names and URL's from the XML document and starts
-	 * loading the wire-frames.
+	 * Extracts the wire-frame names and URL's from the configuration and
+	 * starts loading the wire-frames. In XML, the URL is a wire-frame's text,
+	 * while in JSON it's its "url" property.
 	 * 
 	 * @param config the element to start searching from.
 	 */
-	private void loadWireFrames(Element config) {
+	private void loadWireFrames(ConfigElement config) {
 		// Grab all <wire-frame> nodes in the <wire-frames> element.
-		Element wfsElement =
-			(Element) config.getElementsByTagName("wire-frames").item(0);
-		NodeList wfsMappings = wfsElement.getElementsByTagName("wire-frame");
+		ConfigElement wfsElement = config.getChild("wire-frames");
+		List<ConfigElement> wfsMappings =
+			wfsElement.getChildren("wire-frame");
 		
-		wireFramesToLoad = wfsMappings.getLength();
+		wireFramesToLoad = wfsMappings.size();
 		
 		// Go through each <wire-frame> element.
-		for ( int i = 0; i < wireFramesToLoad; i++ ) {
-			//Grab the element.
-			Element wireFrameElement = (Element) wfsMappings.item(i);
-			
+		for ( ConfigElement wireFrameElement : wfsMappings ) {
 			// Wire-frame's name.
 			String name = wireFrameElement.getAttribute("name");
 			
@@ -242,7 +270,10 @@ public class WireFrameConfig extends Config {
 				"true".equals(wireFrameElement.getAttribute("default"));
 			
 			// Location of the wire-frame's definition.
-			String url = ((Text) wireFrameElement.getFirstChild()).getData();
+			String url = wireFrameElement.getAttribute("url");
+			if ( url == null ) {
+				url = wireFrameElement.getText();
+			}
 			
 			// Create default shell.
 			ObjWireFrame wireFrame = new ObjWireFrame();
@@ -250,10 +281,36 @@ public class WireFrameConfig extends Config {
 			
 			GWT.log("Loading wire-frame: " + name);
 			
-			// Start loading process.
-			ObjIO.createFromURL(wireFrame, url,
-					new AddCommand(id, name, wireFrame, isDefault));
+			AddCommand onLoad = new AddCommand(id, name, wireFrame, isDefault);
+			LoadTimings.Model timing = getLoadTimings().startModel(name, url);
+			
+			String text = findBootstrapModel(url, name);
+			if ( text != null ) {
+				// Embedded in the page, so there's nothing to fetch.
+				ObjIO.createFromText(wireFrame, text, onLoad, timing);
+			} else {
+				// Start loading process.
+				ObjIO.createFromURL(wireFrame, url, onLoad, timing);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the text of the model with the supplied URL or name, if it's
+	 * embedded in the {@link Bootstrap}, or <code>null</code> if it isn't.
+	 * 
+	 * @param url the model's URL.
+	 * @param name the model's name.
+	 * @return the model file's text, or <code>null</code>.
+	 */
+	private String findBootstrapModel(String url, String name) {
+		Bootstrap bootstrap = getBootstrap();
+		if ( bootstrap == null ) {
+			return null;
 		}
+		
+		String text = bootstrap.getModel(url);
+		return ( text != null ) ? text : bootstrap.getModel(name);
 	}
 	
 	/**
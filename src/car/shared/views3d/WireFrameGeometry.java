@@ -0,0 +1,205 @@
+package car.shared.views3d;
+
+import car.shared.math.Matrix3D;
+import car.shared.views3d.obj.Face;
+import car.shared.views3d.obj.ObjWireFrame;
+
+/**
+ * Holds the transformed state of an {@link ObjWireFrame} for drawing: its
+ * rotated vertices and normals, the vertices projected into view-coordinates,
+ * and its faces in back-to-front drawing order.
+ *
+ * Uses a simple orthogonal projection. Positive-y is up in wire-frame space,
+ * but down in view-coordinates, so y is negated when projecting. We're
+ * looking towards -z.
+ *
+ * Contains no browser-specific code, so it can also be run (and benchmarked)
+ * on a regular JVM.
+ *
+ * @author Joshua Little
+ * @see WireFrameView
+ */
+public class WireFrameGeometry {
+
+	private ObjWireFrame wireFrame = null; // Wire-frame to transform.
+
+	// Matrix to multiply vertices by to take them into view space.
+	private Matrix3D viewMatrix = new Matrix3D();
+
+	// All point buffers are packed: (x, y, z) triples, or (x, y) pairs.
+	private double[] vertices; // Wire-frame's points.
+	private double[] normals; // Wire-frame's normals.
+	private double[] tVertices; // Transformed (rotated) points.
+	private double[] tNormals; // Transformed (rotated) normals.
+	private double[] vPoints; // Points projected into view-coordinates.
+
+	private Face[] faces; // Faces in drawing order, after sortFaces().
+	private double[] faceMaxZs; // Sort keys for sortFaces().
+
+	/**
+	 * Creates an instance of <code>WireFrameGeometry</code> for the supplied
+	 * wire-frame.
+	 *
+	 * @param wireFrame the wire-frame to transform.
+	 */
+	public WireFrameGeometry(ObjWireFrame wireFrame) {
+		setWireFrame(wireFrame);
+	}
+
+	/**
+	 * Returns the wire-frame this <code>WireFrameGeometry</code> transforms.
+	 *
+	 * @return the wire-frame.
+	 * @see #setWireFrame(ObjWireFrame)
+	 */
+	public ObjWireFrame getWireFrame() {
+		return wireFrame;
+	}
+
+	/**
+	 * Sets the wire-frame to transform. Rebuilds all of the buffers, so
+	 * {@link #transform(Matrix3D)} needs to be called again before the
+	 * geometry is used. Does nothing if it's already the wire-frame being
+	 * transformed.
+	 *
+	 * @param wireFrame the wire-frame to transform.
+	 */
+	public void setWireFrame(ObjWireFrame wireFrame) {
+		if ( wireFrame == this.wireFrame ) {
+			return; // Buffers are already the right ones.
+		}
+
+		this.wireFrame = wireFrame;
+
+		// Shared with the wire-frame. We only ever read them.
+		vertices = wireFrame.getPackedVertices();
+		normals = wireFrame.getPackedNormals();
+
+		tVertices = new double[vertices.length];
+		tNormals = new double[normals.length];
+		vPoints = new double[wireFrame.vertices.length * 2];
+
+		// Our own copy, so sorting doesn't touch the shared wire-frame.
+		faces = wireFrame.faces.clone();
+		faceMaxZs = new double[faces.length];
+	}
+
+	/**
+	 * Rotates all of the vertices and normals in the wire-frame by the
+	 * supplied rotation matrix, and projects the vertices into
+	 * view-coordinates.
+	 *
+	 * @param rotation the rotation to apply.
+	 */
+	public void transform(Matrix3D rotation) {
+		viewMatrix.set(rotation);
+
+		// Fold the projection's y => -y into the matrix. Doesn't change any
+		// z-coordinates, so the z-sort and back-face culling are unaffected.
+		viewMatrix.m21 = -viewMatrix.m21;
+		viewMatrix.m22 = -viewMatrix.m22;
+		viewMatrix.m23 = -viewMatrix.m23;
+
+		// Rotate and project every point in one pass.
+		viewMatrix.transformAndProject(vertices, tVertices, vPoints,
+									   wireFrame.vertices.length);
+
+		viewMatrix.transform(normals, tNormals, wireFrame.normals.length);
+	}
+
+	/**
+	 * Z-sorts the faces according to their maximum transformed z-coordinate
+	 * in ascending order, so that drawing them in order of
+	 * {@link #getFaces()} draws them back to front. Should be preceded by a
+	 * call to {@link #transform(Matrix3D)}.
+	 *
+	 * Arrays.sort() uses MergeSort, which goes too deep for Safari's tastes.
+	 * Furthermore, the faces should be mostly-sorted each iteration after the
+	 * first run, since the order is kept between calls. Insertion sort, FTW.
+	 */
+	public void sortFaces() {
+		for ( int i = 0; i < faces.length; i++ ) {
+			faceMaxZs[i] = findMaxZ(faces[i]);
+		}
+
+		// Run-of-the-mill insertion sort.
+		for ( int i = 0; i < faces.length; i++ ) {
+			// Move around both values to keep track of keys.
+			Face face = faces[i];
+			double maxZ = faceMaxZs[i];
+
+	        int j;
+	        for ( j = i; j > 0 && faceMaxZs[j-1] > maxZ; j-- ) {
+            	faces[j] = faces[j-1];
+            	faceMaxZs[j] = faceMaxZs[j-1];
+	        }
+
+	        faces[j] = face;
+	        faceMaxZs[j] = maxZ;
+		}
+	}
+
+	/**
+	 * Puts the faces back in the wire-frame's own order, so the next
+	 * {@link #sortFaces()} starts from scratch rather than from the previous
+	 * frame's order. Keeps the transformed points.
+	 */
+	public void resetFaceOrder() {
+		System.arraycopy(wireFrame.faces, 0, faces, 0, faces.length);
+	}
+
+	/**
+	 * Returns the faces of the wire-frame, in drawing order if
+	 * {@link #sortFaces()} has been called. The returned array should not be
+	 * modified.
+	 *
+	 * @return the faces of the wire-frame.
+	 */
+	public Face[] getFaces() {
+		return faces;
+	}
+
+	/**
+	 * Returns whether the supplied face is facing the viewer, and so should
+	 * be drawn. Faces without a normal are always visible.
+	 *
+	 * @param face the face to test.
+	 * @return <code>true</code> if the face is visible, <code>false</code> otherwise.
+	 */
+	public boolean isVisible(Face face) {
+		int normal = face.getNormal();
+
+		// If face has no normal, or normal is in the direction of view.
+		// We're looking towards -z, so that's when the normal's z <= 0.
+		return ( normal == -1 || tNormals[normal*3 + 2] <= 0 );
+	}
+
+	/**
+	 * Returns the projected vertices, packed as (x, y) pairs in
+	 * view-coordinates. The vertex indices of the {@link Face}s index pairs
+	 * in this array. The returned array should not be modified.
+	 *
+	 * @return the projected vertices.
+	 */
+	public double[] getProjectedVertices() {
+		return vPoints;
+	}
+
+	/**
+	 * Finds the maximum z-coordinate of the supplied face's transformed
+	 * vertices. Run-of-the-mill find-maximum algorithm.
+	 *
+	 * @param face the face to transform over.
+	 * @return the maximum z-coordinate.
+	 */
+	public double findMaxZ(Face face) {
+		double maxZ = Double.NEGATIVE_INFINITY; // Sentinel value.
+
+		for ( int vertex : face.getVertices() ) {
+			maxZ = Math.max(maxZ, tVertices[vertex*3 + 2]);
+		}
+
+		return maxZ;
+	}
+
+}
@@ -17,8 +17,8 @@ import com.google.gwt.event.dom.client.MouseUpHandler;
  * Class responsible for handling mouse events for a {@link WireFrameView}.
  * Updates the view's rotation allowing the image to be spun around.
  * 
- * The handler updates the x- and y-rotations of the <code>WireFrameView
- * </code> when the user drags the mouse around on it. After each rotation
+ * The handler rotates the <code>WireFrameView</code> around its view's x- and
+ * y-axes when the user drags the mouse around on it. After each rotation
  * update, the handler also calls {@link Drawable#draw() draw()} on the
  * {@link Drawable}.
  * 
@@ -106,7 +106,9 @@ public class WireFrameMouseHandler implements MouseDownHandler, MouseUpHandler,
 			
 			// We're rotating *around* the x- and y-axes. So mouse-x and mouse-y
 			// don't map directly to rotate-x and rotate-y respectively.
-			view.rotate((newY - oldY) * speed, (newX - oldX) * speed);
+			// Rotates around the view's axes so dragging feels the same in
+			// every orientation.
+			view.rotateView((newY - oldY) * speed, (newX - oldX) * speed);
 			drawer.draw();
 
 			// Update old mouse coordinates for next time.
@@ -115,4 +117,4 @@ public class WireFrameMouseHandler implements MouseDownHandler, MouseUpHandler,
 		}
 	}
 	
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,198 @@
+package car.shared.views3d;
+
+import gwt.g2d.client.graphics.Color;
+import gwt.g2d.client.graphics.Composition;
+import gwt.g2d.client.graphics.DirectShapeRenderer;
+import gwt.g2d.client.graphics.Surface;
+import car.shared.views3d.obj.Face;
+
+/**
+ * Emits the paths for projected wire-frame faces onto a <code>Surface</code>.
+ * Each face is filled with the surface's fill style, clipped to itself, and
+ * then stroked. With a transparent fill and a <code>COPY</code> composite,
+ * drawing the faces back to front occludes the lines behind them.
+ * 
+ * Uses whatever transform, and styles, the surface currently has, unless
+ * {@link #begin(Color, double, double, double)} is used to draw straight onto
+ * a surface in some other coordinate system. Since faces are cleared to
+ * transparent, the surface should be a layer of its own, like an overlay,
+ * when drawing straight onto it. Wire-frames that overlap something already
+ * on the surface should be drawn with
+ * {@link #paintIsolated(ProjectedWireFrame, Color, double, double, double, double)},
+ * so their faces don't erase it. Every painter shares the one scratch layer
+ * that uses.
+ * 
+ * @author Joshua Little
+ * @see WireFrameView
+ */
+public class WireFramePainter {
+	// Fills faces so that they hide what's behind them.
+	private static final Color TRANSPARENT = new Color(0, 0, 0, 0);
+	
+	private Surface surface; // Surface to draw on.
+	private DirectShapeRenderer builder; // Builds paths on surface.
+	// Draws isolated wire-frames. Shared, since they're drawn one at a time.
+	private static WireFramePainter scratch = null;
+	
+	/**
+	 * Creates an instance of <code>WireFramePainter</code> that draws on the
+	 * supplied surface.
+	 * 
+	 * @param surface the surface to draw on.
+	 */
+	public WireFramePainter(Surface surface) {
+		this.surface = surface;
+		this.builder = new DirectShapeRenderer(surface);
+	}
+	
+	/**
+	 * Returns the surface this <code>WireFramePainter</code> draws on.
+	 * 
+	 * @return the surface drawn on.
+	 */
+	public Surface getSurface() {
+		return surface;
+	}
+	
+	/**
+	 * Sets up the surface to draw wire-frame faces straight onto it, with
+	 * the wire-frame's origin at the supplied point, and with one wire-frame
+	 * unit being <code>scale</code> pixels. Lines are one pixel wide no
+	 * matter the scale. Saves the surface's state, so every call should be
+	 * followed by a call to {@link #end()}.
+	 * 
+	 * @param color the color to draw lines in.
+	 * @param scale pixels per wire-frame unit.
+	 * @param x x-coordinate of the wire-frame's origin, in pixels.
+	 * @param y y-coordinate of the wire-frame's origin, in pixels.
+	 */
+	public void begin(Color color, double scale, double x, double y) {
+		surface.save();
+		
+		surface.setTransform(scale, 0, 0, scale, x, y);
+		surface.setLineWidth(1 / scale); // Line widths are transformed too.
+		surface.setStrokeStyle(color);
+		surface.setFillStyle(TRANSPARENT);
+		// Source replaces destination, so faces hide the lines behind them.
+		surface.setGlobalCompositeOperation(Composition.COPY);
+	}
+	
+	/**
+	 * Restores the surface's state from before the matching call to
+	 * {@link #begin(Color, double, double, double)}.
+	 */
+	public void end() {
+		surface.restore();
+	}
+	
+	/**
+	 * Draws all of the visible faces of the supplied projected wire-frame
+	 * straight onto the surface, in order.
+	 * 
+	 * @param projected the wire-frame to draw.
+	 * @param color the color to draw lines in.
+	 * @param scale pixels per wire-frame unit.
+	 * @param x x-coordinate of the wire-frame's origin, in pixels.
+	 * @param y y-coordinate of the wire-frame's origin, in pixels.
+	 * @see #begin(Color, double, double, double)
+	 */
+	public void paint(ProjectedWireFrame projected, Color color,
+					  double scale, double x, double y) {
+		begin(color, scale, x, y);
+		paint(projected);
+		end();
+	}
+	
+	/**
+	 * Draws the supplied projected wire-frame like
+	 * {@link #paint(ProjectedWireFrame, Color, double, double, double)},
+	 * but on a scratch layer that's then drawn over the surface. That way its
+	 * faces only hide its own lines, not whatever's already on the surface
+	 * underneath it, at the cost of an extra composite.
+	 * 
+	 * @param projected the wire-frame to draw.
+	 * @param color the color to draw lines in.
+	 * @param scale pixels per wire-frame unit.
+	 * @param x x-coordinate of the wire-frame's origin, in pixels.
+	 * @param y y-coordinate of the wire-frame's origin, in pixels.
+	 * @param radius how far the lines reach from the origin, in pixels.
+	 */
+	public void paintIsolated(ProjectedWireFrame projected, Color color,
+							  double scale, double x, double y, double radius) {
+		// Whole pixels, so the composite doesn't blur anything.
+		int reach = (int) Math.ceil(radius) + 1;
+		int size = 2 * reach + 1;
+		int left = (int) Math.floor(x) - reach;
+		int top = (int) Math.floor(y) - reach;
+		
+		// Grows to fit the largest wire-frame drawn by any painter, and is kept
+		// from then on.
+		if ( scratch == null || scratch.getSurface().getWidth() < size ) {
+			scratch = new WireFramePainter(new Surface(size, size));
+		}
+		
+		Surface layer = scratch.getSurface();
+		layer.clearRectangle(0, 0, size, size);
+		scratch.paint(projected, color, scale, x - left, y - top);
+		
+		surface.save();
+		surface.setTransform(1, 0, 0, 1, 0, 0);
+		surface.setGlobalCompositeOperation(Composition.SOURCE_OVER);
+		surface.drawImage(layer.getCanvas(), 0, 0, size, size,
+						  left, top, size, size);
+		surface.restore();
+	}
+	
+	/**
+	 * Draws all of the visible faces of the supplied projected wire-frame,
+	 * in order.
+	 * 
+	 * @param projected the wire-frame to draw.
+	 */
+	public void paint(ProjectedWireFrame projected) {
+		double[] points = projected.getPoints();
+		Face[] faces = projected.getFaces();
+		
+		for ( int i = 0; i < projected.getFaceCount(); i++ ) {
+			paintFace(points, faces[i]);
+		}
+	}
+	
+	/**
+	 * Draws a single face.
+	 * 
+	 * @param points projected vertices, packed as (x, y) pairs.
+	 * @param face the face to draw.
+	 */
+	public void paintFace(double[] points, Face face) {
+		int[] vertices = face.getVertices();
+		
+		//Draw it.
+		builder.beginPath();
+		
+		// Move to first point.
+		int first = vertices[0] * 2;
+		builder.moveTo(points[first], points[first + 1]);
+		
+		// Draw each line.
+		for ( int i = 1; i < vertices.length; i++ ) {
+			int v = vertices[i] * 2;
+			builder.drawLineTo(points[v], points[v + 1]);
+		}
+		
+		// Close path.
+		builder.drawLineTo(points[first], points[first + 1]);
+		
+		builder.closePath();
+		// Fill with transparent black.
+		// Occludes lines in the back due to z-sorting.
+		// We need to clip since Firefox and Chrome decided that fill
+		// should fill the entire canvas.
+		surface.save();
+		builder.clip();
+		builder.fill();
+		builder.stroke(); // Stroke lines.
+		surface.restore();
+	}
+	
+}
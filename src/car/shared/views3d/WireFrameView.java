@@ -2,14 +2,15 @@ package car.shared.views3d;
 
 import gwt.g2d.client.graphics.Color;
 import gwt.g2d.client.graphics.Composition;
-import gwt.g2d.client.graphics.DirectShapeRenderer;
 import gwt.g2d.client.graphics.Surface;
 import gwt.g2d.client.math.MathHelper;
 import gwt.g2d.client.math.Matrix;
-import gwt.g2d.client.math.Vector2;
 import car.shared.math.Matrix3D;
 import car.shared.math.Point3D;
+import car.shared.math.Quaternion;
 import car.shared.views.Drawable;
+import car.shared.views.FrameStats;
+import car.shared.views.FrameStats.Phase;
 import car.shared.views3d.obj.Face;
 import car.shared.views3d.obj.ObjWireFrame;
 
@@ -25,6 +26,10 @@ import com.google.gwt.user.client.ui.FocusPanel;
  * The z-rotation is applied first, then the y-rotation, then finally the
  * x-rotation.
  * 
+ * Internally, the orientation is kept as a {@link Quaternion}. The Euler
+ * angles are only computed when they're asked for, and the rotation matrix is
+ * only rebuilt when the orientation has changed since the last draw.
+ * 
  * Positive-y is upwards.
  * 
  * @author Joshua Little
@@ -42,25 +47,25 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 */
 	public static double DEFAULT_Y_ROTATION = MathHelper.PI_OVER_4;
 	
-	private ObjWireFrame wireFrame = null; // Wire-frame to draw.
+	private WireFrameGeometry geometry; // Wire-frame to draw, transformed.
 
 	private Matrix baseTransform; // Transformation so that y = [-1.0, 1.0].
 	
 	// Matrix to multiply vertices by to rotate them.
 	private Matrix3D rotMatrix;
+	private boolean rotMatrixDirty = true; // Need to rebuild rotMatrix?
+	
+	private Quaternion orientation; // Current rotation.
 	
-	// Rotations around the x-, y-, and z-axes respectively.
-	private double rotX = DEFAULT_X_ROTATION;
-	private double rotY = DEFAULT_Y_ROTATION;
-	private double rotZ = 0;
+	// Rotations around the x-, y-, and z-axes respectively. Cached from
+	// orientation, valid only if eulerDirty is false.
+	private Point3D euler = new Point3D();
+	private boolean eulerDirty;
 	
-	private Point3D[] tVertices; // Transformed (rotated) points.
-	private Point3D[] tNormals; // Transformed (rotated) normals.
-	private Vector2[] vPoints; // Points projected into view-coordinates.
 	private boolean dirty; // Need redraw?
 	
 	private Surface canvas; // Main canvas to draw on.
-	private DirectShapeRenderer builder; // Allows custom path drawing.
+	private WireFramePainter painter; // Draws projected faces on canvas.
 
 	// Check if user has modified state.
 	private boolean rotated = false;
@@ -68,6 +73,8 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	// Color to draw the wire-frame in.
 	private Color lineColor = new Color(0, 0, 0);
 	
+	private FrameStats stats = null; // Where to record timings, if anywhere.
+	
 	/**
 	 * Creates an instance of <code>WireFrameView</code>. The x- and
 	 * y-rotation will be set to their respective default values.
@@ -79,11 +86,10 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @see #DEFAULT_Y_ROTATION
 	 */
 	public WireFrameView(ObjWireFrame wireFrame, int width, int height) {
-		this.wireFrame = wireFrame;
-		reconstructBuffer(); // Build all of the buffer variables.
+		geometry = new WireFrameGeometry(wireFrame); // Builds the buffers.
 		
 		canvas = new Surface(width, height);
-		builder = new DirectShapeRenderer(canvas);// Allows custom path drawing.
+		painter = new WireFramePainter(canvas);
 		
 		// Change our view-coordinates to be all nice.
 		baseTransform = new Matrix();
@@ -108,6 +114,8 @@ public class WireFrameView extends FocusPanel implements Drawable {
 		// will be completely transparent when drawn onto other canvases.
 		
 		rotMatrix = new Matrix3D();
+		orientation = new Quaternion();
+		setOrientation(DEFAULT_X_ROTATION, DEFAULT_Y_ROTATION, 0);
 		
 		setWidget(canvas); // Sets the canvas to be the drawn widget.
 		
@@ -132,7 +140,7 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @see #setWireFrame(ObjWireFrame)
 	 */
 	public ObjWireFrame getWireFrame() {
-		return wireFrame;
+		return geometry.getWireFrame();
 	}
 	
 	/**
@@ -142,9 +150,7 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @param wireFrame the wire-frame to draw.
 	 */
 	public void setWireFrame(ObjWireFrame wireFrame) {
-		this.wireFrame = wireFrame;
-		
-		reconstructBuffer();
+		geometry.setWireFrame(wireFrame);
 		invalidate();
 	}
 	
@@ -156,10 +162,7 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @see #DEFAULT_Y_ROTATION
 	 */
 	public void reset() {
-		rotX = DEFAULT_X_ROTATION;
-		rotY = DEFAULT_Y_ROTATION;
-		rotZ = 0;
-		invalidate();
+		setOrientation(DEFAULT_X_ROTATION, DEFAULT_Y_ROTATION, 0);
 		
 		rotated = false;
 	}
@@ -196,6 +199,17 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	public Color getLineColor() {
 		return lineColor;
 	}
+	
+	/**
+	 * Sets the {@link FrameStats} that this <code>WireFrameView</code> records
+	 * its transform, sort, and path-emit times and face counts in. If <code>
+	 * null</code>, nothing is recorded.
+	 * 
+	 * @param stats the stats to record in, or <code>null</code>.
+	 */
+	public void setFrameStats(FrameStats stats) {
+		this.stats = stats;
+	}
 
 	/**
 	 * Returns the current x-rotation of this <code>WireFrameView</code>.
@@ -204,7 +218,8 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @return the current x-rotation.
 	 */
 	public double getRotateX() {
-		return rotX;
+		updateEuler();
+		return euler.x;
 	}
 
 	/**
@@ -214,7 +229,8 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @return the current y-rotation.
 	 */
 	public double getRotateY() {
-		return rotY;
+		updateEuler();
+		return euler.y;
 	}
 
 	/**
@@ -224,7 +240,8 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @return the current z-rotation.
 	 */
 	public double getRotateZ() {
-		return rotZ;
+		updateEuler();
+		return euler.z;
 	}
 
 	/**
@@ -235,19 +252,12 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @see #setRotateX(double)
 	 */
 	public void rotateX(double dx) {
-		rotX += dx; // Rotate
-		
-		// Clamp
-		while ( rotX < 0 ) {
-			rotX += MathHelper.TWO_PI;
-		}
+		// The x-rotation is applied last, so it's a rotation around the view's
+		// x-axis.
+		Quaternion by = new Quaternion(Math.cos(dx/2), Math.sin(dx/2), 0, 0);
+		orientation.multiply(by);
 		
-		while ( rotX > MathHelper.TWO_PI ) {
-			rotX -= MathHelper.TWO_PI;
-		}
-
-		invalidate();
-		rotated = true;
+		orientationChanged();
 	}
 
 	/**
@@ -258,18 +268,8 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @see #setRotateY(double)
 	 */
 	public void rotateY(double dy) {
-		rotY += dy; // Rotate
-		
-		// Clamp
-		while ( rotY < 0 ) {
-			rotY += MathHelper.TWO_PI;
-		}
-		
-		while ( rotY > MathHelper.TWO_PI ) {
-			rotY -= MathHelper.TWO_PI;
-		}
-
-		invalidate();
+		updateEuler();
+		setOrientation(euler.x, euler.y + dy, euler.z);
 		rotated = true;
 	}
 
@@ -281,19 +281,30 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @see #setRotateZ(double)
 	 */
 	public void rotateZ(double dz) {
-		rotZ += dz;
+		// The z-rotation is applied first, so it's a rotation around the
+		// wire-frame's own z-axis.
+		Quaternion by = new Quaternion(Math.cos(dz/2), 0, 0, Math.sin(dz/2));
+		by.multiply(orientation);
+		orientation.set(by);
 		
-		// Clamp
-		while ( rotZ < 0 ) {
-			rotZ += MathHelper.TWO_PI;
-		}
+		orientationChanged();
+	}
+	
+	/**
+	 * Rotates the wire-frame around the view's x- and y-axes by the supplied
+	 * small amounts. Unlike {@link #rotate(double, double)}, both rotations
+	 * are around fixed view axes, so dragging behaves the same regardless of
+	 * the current orientation. Meant for small, incremental changes such as
+	 * mouse-drag steps; no trigonometry is performed.
+	 * 
+	 * @param dx the amount to rotate around the view's x-axis.
+	 * @param dy the amount to rotate around the view's y-axis.
+	 * @see Quaternion#rotateIncremental(double, double, double)
+	 */
+	public void rotateView(double dx, double dy) {
+		orientation.rotateIncremental(dx, dy, 0);
 		
-		while ( rotZ > MathHelper.TWO_PI ) {
-			rotZ -= MathHelper.TWO_PI;
-		}
-
-		invalidate();
-		rotated = true;
+		orientationChanged();
 	}
 	
 	/**
@@ -339,8 +350,9 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @see #rotateX(double)
 	 */
 	public void setRotateX(double rotX) {
-		this.rotX = 0;
-		rotateX(rotX);
+		updateEuler();
+		setOrientation(rotX, euler.y, euler.z);
+		rotated = true;
 	}
 
 	/**
@@ -351,8 +363,9 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @see #rotateY(double)
 	 */
 	public void setRotateY(double rotY) {
-		this.rotY = 0;
-		rotateY(rotY);
+		updateEuler();
+		setOrientation(euler.x, rotY, euler.z);
+		rotated = true;
 	}
 
 	/**
@@ -363,8 +376,9 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @see #rotateZ(double)
 	 */
 	public void setRotateZ(double rotZ) {
-		this.rotZ = 0;
-		rotateZ(rotZ);
+		updateEuler();
+		setOrientation(euler.x, euler.y, rotZ);
+		rotated = true;
 	}
 
 	/**
@@ -379,8 +393,9 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @see #setRotateY(double)
 	 */
 	public void setRotate(double rotX, double rotY) {
-		setRotateX(rotX);
-		setRotateY(rotY);
+		updateEuler();
+		setOrientation(rotX, rotY, euler.z);
+		rotated = true;
 	}
 
 	/**
@@ -398,8 +413,51 @@ public class WireFrameView extends FocusPanel implements Drawable {
 	 * @see #setRotateZ(double)
 	 */
 	public void setRotate(double rotX, double rotY, double rotZ) {
-		setRotate(rotX, rotY);
-		setRotateZ(rotZ);
+		setOrientation(rotX, rotY, rotZ);
+		rotated = true;
+	}
+	
+	/**
+	 * Sets the orientation from the supplied Euler angles. The angles are
+	 * cached as-is (wrapped to between 0 and two pi), so reading them back
+	 * doesn't require converting from the quaternion. Doesn't set the rotated
+	 * flag.
+	 * 
+	 * @param rotX the new x-rotation value.
+	 * @param rotY the new y-rotation value.
+	 * @param rotZ the new z-rotation value.
+	 */
+	private void setOrientation(double rotX, double rotY, double rotZ) {
+		euler.setPoint(Quaternion.wrapAngle(rotX), Quaternion.wrapAngle(rotY),
+					   Quaternion.wrapAngle(rotZ));
+		orientation.setEuler(euler.x, euler.y, euler.z);
+		
+		rotMatrixDirty = true;
+		eulerDirty = false;
+		invalidate();
+	}
+	
+	/**
+	 * Marks the derived rotation state as out of date after
+	 * <code>orientation</code> has been changed directly.
+	 */
+	private void orientationChanged() {
+		rotMatrixDirty = true;
+		eulerDirty = true;
+		invalidate();
+		
+		rotated = true;
+	}
+	
+	/**
+	 * Recomputes the cached Euler angles from <code>orientation</code>, if
+	 * they're out of date.
+	 */
+	private void updateEuler() {
+		if ( eulerDirty ) {
+			orientation.toEuler(euler);
+			eulerDirty = false;
+		}
 	}
 
 	/**
@@ -415,7 +473,12 @@ public class WireFrameView extends FocusPanel implements Drawable {
 			canvas.clear(); // Clear canvas for drawing.
 			
 			recomputeBuffer(); // Retransform the points.
+			
+			double start = (stats != null) ? stats.start() : 0;
 			drawBuffer(); // Draw the transformed wire-frame onto the canvas.
+			if ( stats != null ) {
+				stats.record(Phase.EMIT, start);
+			}
 			
 			dirty = false;
 			
@@ -447,203 +510,114 @@ public class WireFrameView extends FocusPanel implements Drawable {
 		dirty = true;
 	}
 	
+	/**
+	 * Draws the wire-frame straight onto another surface, through the
+	 * supplied painter, rather than copying this view's canvas onto it. The
+	 * wire-frame's origin goes at the supplied point, and one wire-frame unit
+	 * is <code>scale</code> pixels, so lines stay sharp at any size. Brings
+	 * this view up to date first, if it's been invalidated.
+	 * 
+	 * @param painter painter for the surface to draw on.
+	 * @param scale pixels per wire-frame unit.
+	 * @param x x-coordinate of the wire-frame's origin, in pixels.
+	 * @param y y-coordinate of the wire-frame's origin, in pixels.
+	 * @see WireFramePainter#begin(Color, double, double, double)
+	 */
+	public void drawOn(WireFramePainter painter,
+					   double scale, double x, double y) {
+		draw(); // Only redraws if the geometry is out of date.
+		
+		double start = (stats != null) ? stats.start() : 0;
+		painter.begin(lineColor, scale, x, y);
+		drawBuffer(painter);
+		painter.end();
+		if ( stats != null ) {
+			stats.record(Phase.EMIT, start);
+		}
+	}
+	
 	/**
 	 * Draws the transformed wire-frame onto the canvas. Should be preceded by a
 	 * call to {@link #recomputeBuffer()}.
 	 */
 	private void drawBuffer() {
-		Point3D view = new Point3D(0, 0, -1.0); // We're looking towards -z.
-		
-		Face[] faces = wireFrame.faces;
-		
-		// Arrays.sort() uses MergeSort, which goes too deep for Safari's
-		// tastes. Furthermore, the faces should be mostly-sorted each iteration
-		// after the first run. Insertion sort, FTW.
-		insertionZSort(faces); 
-		
-		// Draw each face.
-		for ( Face face : faces ) {
-			int[] vertices = face.getVertices();
-			int normal = face.getNormal();
-			
-			// If face has no normal, or normal is in the direction of view.
-			if ( normal == -1 || tNormals[normal].dot(view) >= 0 ) {
-				
-				//Draw it.
-				builder.beginPath();
-				
-				builder.moveTo(vPoints[vertices[0]]); // Move to first point.
-				
-				// Draw each line.
-				for ( int i = 1; i < vertices.length; i++ ) {
-					builder.drawLineTo(vPoints[vertices[i]]);
-				}
-				
-				builder.drawLineTo(vPoints[vertices[0]]); // Close path.
-				
-				builder.closePath();
-				// Fill with transparent black.
-				// Occludes lines in the back due to z-sorting.
-				// We need to clip since Firefox and Chrome decided that fill
-				// should fill the entire canvas.
-				canvas.save();
-				builder.clip();
-				builder.fill();
-				builder.stroke(); // Stroke lines.
-				canvas.restore();
-			}
-		}
+		drawBuffer(painter);
 	}
 	
 	/**
-	 * Z-sorts the faces in place according to their maximum transformed
-	 * z-coordinate in ascending order. Uses insertion sort.
+	 * Draws the transformed wire-frame with the supplied painter. Should be
+	 * preceded by a call to {@link #recomputeBuffer()}.
 	 * 
-	 * @param faces the array of faces to sort.
+	 * @param painter painter for the surface to draw on.
 	 */
-	private void insertionZSort(Face[] faces) {
-		double[] faceMaxZs = new double[faces.length];
-		for ( int i = 0; i < faces.length; i++ ) {
-			faceMaxZs[i] = findMaxZ(faces[i]);
+	private void drawBuffer(WireFramePainter painter) {
+		double[] vPoints = geometry.getProjectedVertices();
+		int drawn = 0;
+		
+		// Draw each face.
+		for ( Face face : geometry.getFaces() ) {
+			if ( geometry.isVisible(face) ) {
+				drawn++;
+				painter.paintFace(vPoints, face);
+			}
 		}
 		
-		// Run-of-the-mill insertion sort.
-		for ( int i = 0; i < faces.length; i++ ) {
-			// Move around both values to keep track of keys.
-			Face face = faces[i];
-			double maxZ = faceMaxZs[i];
-	        
-	        int j;
-	        for ( j = i; j > 0 && faceMaxZs[j-1] > maxZ; j-- ) {
-            	faces[j] = faces[j-1];
-            	faceMaxZs[j] = faceMaxZs[j-1];
-	        }
-	        
-	        faces[j] = face;
-	        faceMaxZs[j] = maxZ;
+		if ( stats != null ) {
+			stats.countFaces(drawn, geometry.getFaces().length - drawn);
 		}
 	}
 	
 	/**
 	 * Finds the maximum z-coordinate of the supplied face's transformed
-	 * vertices. Run-of-the-mill find-maximum algorithm.
+	 * vertices.
 	 * 
 	 * @param face the face to transform over.
 	 * @return the maximum z-coordinate.
+	 * @see WireFrameGeometry#findMaxZ(Face)
 	 */
 	public double findMaxZ(Face face) {
-		double maxZ = Double.NEGATIVE_INFINITY; // Sentinel value.
-		
-		for ( int vertex : face.getVertices() ) {
-			maxZ = Math.max(maxZ, tVertices[vertex].z);
-		}
-		
-		return maxZ;
-	}
-	
-	/**
-	 * Rebuilds all buffered values.
-	 */
-	private void recomputeBuffer() {
-		transformPoints();
-		//buildGradients();
+		return geometry.findMaxZ(face);
 	}
 	
 	/**
-	 * Rebuilds all of the buffer arrays. Used when changing the wire-frame.
-	 * 
-	 * @see #setWireFrame(ObjWireFrame)
-	 */
-	private void reconstructBuffer() {
-		tVertices = new Point3D[wireFrame.vertices.length];
-		vPoints = new Vector2[tVertices.length];
-		tNormals = new Point3D[wireFrame.normals.length];
-		
-		for ( int i = 0; i < tVertices.length; i++ ) {
-			tVertices[i] = new Point3D();
-			vPoints[i] = new Vector2();
-		}
-		
-		for ( int i = 0; i < tNormals.length; i++ ) {
-			tNormals[i] = new Point3D();
-		}
-	}
-	
-	/**
-	 * Transforms all of the vertices and normals in the wire-frame. Simply
-	 * rotates them and projects them. The resultant transformed vertices,
-	 * normals, and projected vertices are stored in <code>tVertices</code>,
-	 * <code>tNormals</code> and <code>vPoints</code>, respectively.
+	 * Rebuilds all buffered values. Rotates and projects the wire-frame, then
+	 * z-sorts its faces.
 	 * 
 	 * @see #generateRotMatrix()
-	 * @see #project(Point3D, Vector2)
 	 */
-	private void transformPoints() {
+	private void recomputeBuffer() {
+		double start = (stats != null) ? stats.start() : 0;
+		
 		// Sets up rotMatrix according to the current rotations.
 		generateRotMatrix();
 		
-		// Multiply each point by the rotation matrix to transform.
-		Point3D[] vertices = wireFrame.vertices;
-		for ( int i = 0; i < vertices.length; i++ ) {
-			tVertices[i].setPoint(vertices[i]);
-			tVertices[i].multiply(rotMatrix); // Rotate
-			
-			project(tVertices[i], vPoints[i]);
+		geometry.transform(rotMatrix);
+		
+		if ( stats != null ) {
+			stats.record(Phase.TRANSFORM, start);
+			start = stats.start();
 		}
 		
-		Point3D[] normals = wireFrame.normals;
-		for ( int i = 0; i < normals.length; i++ ) {
-			tNormals[i].setPoint(normals[i]);
-			tNormals[i].multiply(rotMatrix); // Rotate
+		geometry.sortFaces();
+		
+		if ( stats != null ) {
+			stats.record(Phase.SORT, start);
 		}
 	}
 	
 	/**
 	 * Computes <code>rotMatrix</code> so that multiplying points by it rotates
 	 * them according to this </code>WireFrameView</code>'s current
-	 * rotations.
+	 * rotations. Does nothing if the orientation hasn't changed since the last
+	 * call.
 	 * 
 	 * Applies the z-rotation, then the y-rotation, and then the x-rotation.
 	 */
 	private void generateRotMatrix() {
-		// M = Ry * Rx * Rz.
-
-		double sinX = Math.sin(rotX);
-		double cosX = Math.cos(rotX);
-		
-		double sinY = Math.sin(rotY);
-		double cosY = Math.cos(rotY);
-
-		double sinZ = Math.sin(rotZ);
-		double cosZ = Math.cos(rotZ);
-		
-		// Warning: Math
-		rotMatrix.m11 =  cosY*cosZ;
-		rotMatrix.m12 = -cosY*sinZ;
-		rotMatrix.m13 =  sinY;
-
-		rotMatrix.m21 =  sinX*sinY*cosZ + cosX*sinZ;
-		rotMatrix.m22 = -sinX*sinY*sinZ + cosX*cosZ;
-		rotMatrix.m23 = -sinX*cosY;
-
-		rotMatrix.m31 = -cosX*sinY*cosZ + sinX*sinZ;
-		rotMatrix.m32 =  cosX*sinY*sinZ + sinX*cosZ;
-		rotMatrix.m33 =  cosX*cosY;
-	}
-	
-	/**
-	 * Projects the point in 3D wire-frame space into 2D view space. Standard
-	 * orthogonal projection: just drops the z-coordinate. y is negated so that
-	 * because +y is up in wire-frame space, but -y is up in view space.
-	 * 
-	 * @param p3 the 3D point to transform.
-	 * @param p2 the 2D point to store the result in.
-	 */
-	private void project(Point3D p3, Vector2 p2) {
-		// Standard orthogonal projection. (y => -y so that +y is up.)
-		
-		p2.setX(p3.x);
-		p2.setY(-p3.y);
+		if ( rotMatrixDirty ) {
+			orientation.toMatrix(rotMatrix);
+			rotMatrixDirty = false;
+		}
 	}
 
 }
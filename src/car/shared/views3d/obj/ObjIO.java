@@ -2,6 +2,7 @@ package car.shared.views3d.obj;
 
 import java.util.ArrayList;
 
+import car.shared.config.LoadTimings;
 import car.shared.math.Point3D;
 
 import com.google.gwt.http.client.Request;
@@ -51,7 +52,24 @@ public abstract class ObjIO {
 	 * @see #createFromURL(String, Command)
 	 */
 	public static void createFromURL(
-				final ObjWireFrame dest, String url, final Command onLoad) {
+				ObjWireFrame dest, String url, Command onLoad) {
+		createFromURL(dest, url, onLoad, null);
+	}
+
+	/**
+	 * Starts the asynchronous request for the .obj file and parses the results,
+	 * as {@link #createFromURL(ObjWireFrame, String, Command)} does. Also
+	 * records when the response arrives, its size, and when it's finished
+	 * parsing in the supplied {@link LoadTimings.Model}, if it's not
+	 * <code>null</code>.
+	 * 
+	 * @param url the URL of the .obj file to load.
+	 * @param onLoad the <code>Command</code> to execute when it's finished loading.
+	 * @param timing where to record the timings, or <code>null</code>.
+	 * @see #createFromURL(ObjWireFrame, String, Command)
+	 */
+	public static void createFromURL(final ObjWireFrame dest, String url,
+				final Command onLoad, final LoadTimings.Model timing) {
 		RequestBuilder rb = new RequestBuilder(RequestBuilder.GET, url);
 		
 		rb.setCallback(new RequestCallback() {
@@ -63,18 +81,7 @@ public abstract class ObjIO {
 			
 			@Override
 			public void onResponseReceived(Request request, Response response) {
-				// Parse results into ObjWireFrame.
-				ObjWireFrame temp = parseObjFile(response.getText());
-				
-				// Copy into destination ObjWireFrame.
-				dest.vertices = temp.vertices;
-				dest.normals = temp.normals;
-				dest.faces = temp.faces;
-				
-				// We're done parsing, execute onLoad.
-				if ( onLoad != null ) {
-					onLoad.execute();
-				}
+				createFromText(dest, response.getText(), onLoad, timing);
 			}
 		});
 		
@@ -86,6 +93,42 @@ public abstract class ObjIO {
 		}
 	}
 	
+	/**
+	 * Parses the supplied .obj file contents into the supplied
+	 * {@link ObjWireFrame} right away, as though they had just been fetched by
+	 * {@link #createFromURL(ObjWireFrame, String, Command, LoadTimings.Model)}.
+	 * Used for models that are already on hand, such as those embedded in the
+	 * page.
+	 * 
+	 * @param dest the wire-frame to store the results in.
+	 * @param text the contents of the .obj file.
+	 * @param onLoad the <code>Command</code> to execute when it's finished loading.
+	 * @param timing where to record the timings, or <code>null</code>.
+	 */
+	public static void createFromText(ObjWireFrame dest, String text,
+				Command onLoad, LoadTimings.Model timing) {
+		if ( timing != null ) {
+			timing.markFetched(text.length());
+		}
+		
+		// Parse results into ObjWireFrame.
+		ObjWireFrame temp = parseObjFile(text);
+		
+		if ( timing != null ) {
+			timing.markParsed();
+		}
+		
+		// Copy into destination ObjWireFrame.
+		dest.vertices = temp.vertices;
+		dest.normals = temp.normals;
+		dest.faces = temp.faces;
+		
+		// We're done parsing, execute onLoad.
+		if ( onLoad != null ) {
+			onLoad.execute();
+		}
+	}
+	
 	/**
 	 * Creates an {@link ObjWireFrame} from the specified .obj file contents.
 	 * 
@@ -22,6 +22,11 @@ public class ObjWireFrame {
 	
 	public int id = -1;
 	
+	// Derived from the arrays above on first use. See getPackedVertices().
+	private double[] packedVertices = null;
+	private double[] packedNormals = null;
+	private double boundingRadius = -1;
+	
 	/**
 	 * Creates a default (empty) instance of <code>ObjWireFrame</code>.
 	 */
@@ -47,6 +52,57 @@ public class ObjWireFrame {
 		assert isValid() : "ObjWireFrame is invalid.";
 	}
 	
+	/**
+	 * Returns the vertices packed as consecutive (x, y, z) triples. Built on
+	 * the first call and shared after that, so it must not be modified, and
+	 * the vertices shouldn't be changed once it's been called.
+	 * 
+	 * @return the packed vertices.
+	 * @see Point3D#pack(Point3D[])
+	 */
+	public double[] getPackedVertices() {
+		if ( packedVertices == null ) {
+			packedVertices = Point3D.pack(vertices);
+		}
+		
+		return packedVertices;
+	}
+	
+	/**
+	 * Returns the normals packed as consecutive (x, y, z) triples. Built on
+	 * the first call and shared after that, like {@link #getPackedVertices()}.
+	 * 
+	 * @return the packed normals.
+	 */
+	public double[] getPackedNormals() {
+		if ( packedNormals == null ) {
+			packedNormals = Point3D.pack(normals);
+		}
+		
+		return packedNormals;
+	}
+	
+	/**
+	 * Returns the distance from the origin to the farthest vertex. No matter
+	 * how the wire-frame is rotated, it stays within a sphere of this radius.
+	 * Computed on the first call, like {@link #getPackedVertices()}.
+	 * 
+	 * @return the bounding radius.
+	 */
+	public double getBoundingRadius() {
+		if ( boundingRadius < 0 ) {
+			double maxSq = 0;
+			for ( Point3D vertex : vertices ) {
+				maxSq = Math.max(maxSq, vertex.x*vertex.x + vertex.y*vertex.y
+										+ vertex.z*vertex.z);
+			}
+			
+			boundingRadius = Math.sqrt(maxSq);
+		}
+		
+		return boundingRadius;
+	}
+	
 	/**
 	 * Returns a <code>String</code> representation of this <code>ObjWireFrame
 	 * </code>. It is generally rather long and is split into multiple lines.
@@ -94,6 +94,8 @@ public class Car {
 	double rotX, rotY, rotZ;
 	double scale;
 	Color color = KnownColor.BLACK;
+	
+	int version = 0; // Bumped whenever anything actually changes.
 
 	/**
 	 * Sets the car type that this car uses.
@@ -104,7 +106,10 @@ public class Car {
 	 * @see #setType(int)
 	 */
 	public void setType(int carType) {
-		this.carType = carType;
+		if ( this.carType != carType ) {
+			this.carType = carType;
+			version++;
+		}
 	}
 	
 	/**
@@ -117,7 +122,10 @@ public class Car {
 	 * @see #getPosition()
 	 */
 	public void setPosition(double posX, double posY) {
-		pos.setPoint(posX, posY);
+		if ( pos.x != posX || pos.y != posY ) {
+			pos.setPoint(posX, posY);
+			version++;
+		}
 	}
 
 	/**
@@ -129,7 +137,7 @@ public class Car {
 	 * @see #getPosition()
 	 */
 	public void setPosition(Point2D pos) {
-		pos.setPoint(pos);
+		setPosition(pos.x, pos.y);
 	}
 	
 	/**
@@ -145,9 +153,12 @@ public class Car {
 	 * @see #getRotateZ()
 	 */
 	public void setRotation(double rotX, double rotY, double rotZ) {
-		this.rotX = rotX;
-		this.rotY = rotY;
-		this.rotZ = rotZ;
+		if ( this.rotX != rotX || this.rotY != rotY || this.rotZ != rotZ ) {
+			this.rotX = rotX;
+			this.rotY = rotY;
+			this.rotZ = rotZ;
+			version++;
+		}
 	}
 	
 	/**
@@ -157,7 +168,10 @@ public class Car {
 	 * @see #getScale()
 	 */
 	public void setScale(double scale) {
-		this.scale = scale;
+		if ( this.scale != scale ) {
+			this.scale = scale;
+			version++;
+		}
 	}
 	
 	/**
@@ -168,7 +182,10 @@ public class Car {
 	 * @see #getColor()
 	 */
 	public void setColor(Color color) {
-		this.color = color;
+		if ( this.color == null || !this.color.equals(color) ) {
+			this.color = color;
+			version++;
+		}
 	}
 
 	/**
@@ -181,7 +198,7 @@ public class Car {
 	 * @see #getColor()
 	 */
 	public void setColor(int r, int g, int b) {
-		this.color = new Color(r, g, b);
+		setColor(new Color(r, g, b));
 	}
 
 	/**
@@ -267,4 +284,16 @@ public class Car {
 	public Color getColor() {
 		return color;
 	}
+	
+	/**
+	 * Returns this car's version. The version changes whenever any of the
+	 * car's properties are set to a new value, so it can be used to tell
+	 * whether anything drawn from the car is out of date. Setting a property
+	 * to the value it already has doesn't change the version.
+	 * 
+	 * @return the car's version.
+	 */
+	public int getVersion() {
+		return version;
+	}
 }
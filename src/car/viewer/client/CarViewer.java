@@ -1,24 +1,47 @@
 package car.viewer.client;
 
 import gwt.g2d.client.graphics.Surface;
-import gwt.g2d.client.graphics.canvas.CanvasElement;
 import gwt.g2d.client.math.Rectangle;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import car.shared.config.Bootstrap;
+import car.shared.config.LoadTimings;
 import car.shared.input.Slider;
+import car.shared.math.Matrix3D;
+import car.shared.math.Quaternion;
 import car.shared.views.Drawable;
+import car.shared.views.FrameStats;
+import car.shared.views.FrameStats.Phase;
 import car.shared.views.MovableImageMouseHandler;
 import car.shared.views.MovableImageView;
+import car.shared.views.OverlayPainter;
+import car.shared.views3d.ProjectedWireFrame;
 import car.shared.views3d.WireFrameConfig;
-import car.shared.views3d.WireFrameView;
+import car.shared.views3d.WireFrameGeometry;
+import car.shared.views3d.WireFramePainter;
 import car.shared.views3d.obj.ObjWireFrame;
 
 import com.google.gwt.core.client.EntryPoint;
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.core.client.Duration;
+import com.google.gwt.core.client.JavaScriptObject;
+import com.google.gwt.core.client.JsArrayNumber;
+import com.google.gwt.core.client.JsonUtils;
+import com.google.gwt.core.client.RunAsyncCallback;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.RepeatingCommand;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.dom.client.ImageElement;
 import com.google.gwt.dom.client.Style;
 import com.google.gwt.dom.client.Style.Display;
 import com.google.gwt.dom.client.Style.Unit;
@@ -26,6 +49,8 @@ import com.google.gwt.event.dom.client.ClickEvent;
 import com.google.gwt.event.dom.client.ClickHandler;
 import com.google.gwt.event.dom.client.LoadEvent;
 import com.google.gwt.event.dom.client.LoadHandler;
+import com.google.gwt.event.logical.shared.ResizeEvent;
+import com.google.gwt.event.logical.shared.ResizeHandler;
 import com.google.gwt.event.logical.shared.ValueChangeEvent;
 import com.google.gwt.event.logical.shared.ValueChangeHandler;
 import com.google.gwt.user.client.Window;
@@ -47,12 +72,30 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 		Car.export(); // Export the native Car interface.
 	}
 	
-	// Containing div id.
-	private static final String CONTAINER_NAME = "carviewer-container";
+	/**
+	 * Id of the div tag the widget is put in.
+	 */
+	public static final String CONTAINER_NAME = "carviewer-container";
 	// Name of parameter used for image URL.
 	private static final String IMAGE_PARAM = "img";
 	
 	private static final int DEFAULT_MINIVIEW_SIZE = 150;
+	// Most unused miniviews to keep around for reuse.
+	private static final int MAX_POOLED_MINIVIEWS = 32;
+	
+	// Numbers per car in a packed feed for addCars(): type, x, y, rotX, rotY,
+	// rotZ, scale, and color as 0xRRGGBB.
+	private static final int CAR_FIELDS = 8;
+	// Number of cars addCars() builds at a time. Fewer than this are built
+	// right away, more are spread across several slices.
+	private static final int BATCH_SIZE = 250;
+	// Milliseconds addCars() may spend building cars per slice.
+	private static final int SLICE_MILLIS = 8;
+	// Size, in pixels, of the cells the overlay is divided into for telling
+	// whether a car overlaps one that's already drawn.
+	private static final int COVER_CELL = 32;
+	// Cells per row of the overlay. Cells past it are clamped onto the edge.
+	private static final int COVER_COLUMNS = 4096;
 	
 	private WireFrameConfig config; // Holds wire-frame information.
 	
@@ -71,16 +114,37 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 	private Slider zoomSlider;
 	private Button resetButton;
 	
-	// Panels showing wire-frame and image.
-	private WireFrameView wireFrame = null;
+	// Panel showing the image, and what draws the cars on it.
 	private MovableImageView view = null;
+	private WireFramePainter viewPainter = null;
+	// Overlay cells cars have been drawn over since it was last cleared.
+	private Set<Integer> coveredCells = new HashSet<Integer>();
 	
-	// Maps cars to miniviews.
-	private Map<Car, MovableImageView> miniviews;
+	// Maps cars to where their miniviews go.
+	private Map<Car, MiniviewSlot> miniviews;
+	// Slots in their elements' order down the page, followed by the slots
+	// whose elements weren't on the page when they were last sorted.
+	private List<MiniviewSlot> slotOrder;
+	private int placedSlots = 0; // Slots on the page, at the start.
+	private boolean slotsSorted = false; // Is slotOrder up to date?
+	// Slots whose miniviews are currently built.
+	private List<MiniviewSlot> builtSlots;
+	// Miniviews that have scrolled away, kept for reuse.
+	private List<Miniview> miniviewPool;
+	private boolean miniviewUpdatePending = false;
 	
 	// List of cars to draw on the view.
 	private ArrayList<Car> cars;
 	
+	// Each car's projected wire-frame, kept until the car changes.
+	private Map<Car, CarRenderState> renderStates;
+	// Transform buffers, one set per car type, shared by all its cars.
+	private Map<Integer, WireFrameGeometry> geometries;
+	private Quaternion rotation = new Quaternion(); // Scratch orientation.
+	private Matrix3D rotMatrix = new Matrix3D(); // Scratch rotation matrix.
+	
+	private FrameStats stats = new FrameStats(); // Drawing timings.
+	
 	/**
 	 * Exports the functions that should be available to hand-written
 	 * JavaScript. Should be called before {@link #onModuleLoad()} returns.
@@ -92,6 +156,13 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 		$wnd.CarViewer.addCar = $entry(function(car, miniview) {
 			_this.@car.viewer.client.CarViewer::addCar(Lcar/viewer/client/Car;Ljava/lang/String;)(car.carInst, miniview);
 		});
+		$wnd.CarViewer.addCars = $entry(function(feed, onProgress, onDone) {
+			if ( typeof feed == 'string' ) {
+				_this.@car.viewer.client.CarViewer::addCarsJSON(Ljava/lang/String;Lcom/google/gwt/core/client/JavaScriptObject;Lcom/google/gwt/core/client/JavaScriptObject;)(feed, onProgress || null, onDone || null);
+			} else {
+				_this.@car.viewer.client.CarViewer::addCars(Lcom/google/gwt/core/client/JsArrayNumber;Lcom/google/gwt/core/client/JavaScriptObject;Lcom/google/gwt/core/client/JavaScriptObject;)(feed, onProgress || null, onDone || null);
+			}
+		});
 		$wnd.CarViewer.redraw = $entry(function() {
 			_this.@car.viewer.client.CarViewer::redraw()();
 		});
@@ -114,17 +185,68 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 		$wnd.CarViewer.getZoom = $entry(function() {
 			return _this.@car.viewer.client.CarViewer::getZoom()();
 		});
+		
+		$wnd.CarViewer.getStats = $entry(function() {
+			return _this.@car.viewer.client.CarViewer::getStats()();
+		});
+		$wnd.CarViewer.getLoadTimings = $entry(function() {
+			return _this.@car.viewer.client.CarViewer::getLoadTimings()();
+		});
+		$wnd.CarViewer.resetStats = $entry(function() {
+			_this.@car.viewer.client.CarViewer::resetStats()();
+		});
 	}-*/;
 
+	/**
+	 * Calls the supplied native JavaScript function, if it's non-<code>null
+	 * </code>.
+	 * 
+	 * @param callback the function to call, or <code>null</code>.
+	 */
+	private static native void fireDone(JavaScriptObject callback) /*-{
+		if ( callback ) {
+			callback();
+		}
+	}-*/;
+	
+	/**
+	 * Calls the supplied native JavaScript function with the number of cars
+	 * added so far and the total, if it's non-<code>null</code>.
+	 * 
+	 * @param callback the function to call, or <code>null</code>.
+	 * @param added the number of cars added so far.
+	 * @param total the total number of cars being added.
+	 */
+	private static native void fireProgress(JavaScriptObject callback,
+											int added, int total) /*-{
+		if ( callback ) {
+			callback(added, total);
+		}
+	}-*/;
+	
 	/**
 	 * Calls the native JavaScript function <code>$wnd.afterCarViewerLoad()
-	 * </code>, if it exists.
+	 * </code>, if it exists. The load timings are passed as its argument.
+	 * 
+	 * @param timings the load timings, as a JavaScript object.
+	 * @see car.shared.config.LoadTimings#toJSON()
 	 */
-	private native void fireAfterModuleLoad() /*-{
+	private native void fireAfterModuleLoad(JavaScriptObject timings) /*-{
 		if ( $wnd.afterCarViewerLoad ) {
-			$wnd.afterCarViewerLoad();
+			$wnd.afterCarViewerLoad(timings);
 		}
 	}-*/;
+	
+	/**
+	 * Returns how long each phase of loading took, as a native JavaScript
+	 * object.
+	 * 
+	 * @return the load timings.
+	 * @see car.shared.config.LoadTimings#toJSON()
+	 */
+	public JavaScriptObject getLoadTimings() {
+		return config.getLoadTimings().toJavaScriptObject();
+	}
 
 	/**
 	 * Gets the configuration name defined in the global JavaScript variable
@@ -136,6 +258,18 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 	public native String readConfigName() /*-{
 		return $wnd.carviewer_config;
 	}-*/;
+	
+	/**
+	 * Gets the configuration and models embedded in the global JavaScript
+	 * variable "carviewer_bootstrap", or <code>null</code> if the variable
+	 * is <code>null</code> or <code>undefined</code>.
+	 * 
+	 * @return the supplied bootstrap, or <code>null</code>.
+	 * @see car.shared.config.Bootstrap
+	 */
+	public native Bootstrap readBootstrap() /*-{
+		return $wnd.carviewer_bootstrap || null;
+	}-*/;
 
 	/**
 	 * Gets the image URL defined in the global JavaScript variable
@@ -167,14 +301,34 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 	 * Creates a new instance of <code>CarViewer</code>.
 	 */
 	public CarViewer() {
-		miniviews = new HashMap<Car, MovableImageView>();
+		miniviews = new HashMap<Car, MiniviewSlot>();
+		slotOrder = new ArrayList<MiniviewSlot>();
+		builtSlots = new ArrayList<MiniviewSlot>();
+		miniviewPool = new ArrayList<Miniview>();
 		cars = new ArrayList<Car>();
+		renderStates = new HashMap<Car, CarRenderState>();
+		geometries = new HashMap<Integer, WireFrameGeometry>();
 		
 		int miniviewSize = readMiniviewSize();
 		if ( miniviewSize != -1 ) {
 			// We were supplied one via JavaScript.
 			this.miniviewSize = miniviewSize;
 		}
+		
+		// Miniviews are only built while they're near the viewport, so check
+		// again whenever it moves.
+		Window.addWindowScrollHandler(new Window.ScrollHandler() {
+			@Override
+			public void onWindowScroll(Window.ScrollEvent event) {
+				scheduleMiniviewUpdate();
+			}
+		});
+		Window.addResizeHandler(new ResizeHandler() {
+			@Override
+			public void onResize(ResizeEvent event) {
+				scheduleMiniviewUpdate();
+			}
+		});
 	}
 	
 	/**
@@ -219,52 +373,486 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 			setMiniview(car, miniviewId);
 		}
 		
-		redraw();
+		// Only the wire-frames have changed.
+		if ( view != null ) {
+			view.invalidateOverlay();
+		}
+		draw();
 	}
 	
 	/**
-	 * Builds a miniview for the car and places it in the element with the
-	 * specified ID.
+	 * Adds a car for each record in the supplied packed feed, without
+	 * redrawing for each one. Each record is {@value #CAR_FIELDS} numbers:
+	 * type, x, y, x-rotation, y-rotation, z-rotation, scale, and color as
+	 * <code>0xRRGGBB</code>. The cars are built a slice at a time, yielding to
+	 * the browser between slices so the page stays responsive. Each slice's
+	 * cars are drawn onto the view as they're added, and the view is redrawn
+	 * once at the end.
 	 * 
-	 * @param car the car to build a miniview for.
-	 * @param miniviewId the ID of the element to add the miniview to.
-	 * @return the miniview
+	 * @param feed the cars, as packed records.
+	 * @param onProgress native function called with the number of cars added
+	 * so far and the total after each slice, or <code>null</code>.
+	 * @param onDone native function called once every car is added, or
+	 * <code>null</code>.
+	 * @throws IllegalArgumentException if the feed isn't made of whole records.
 	 */
-	private MovableImageView buildMiniview(Car car, String miniviewId) {
-		MovableImageView miniview = new MovableImageView(
-				view.getImage(), null, miniviewSize, miniviewSize); 
-		RootPanel.get(miniviewId).add(miniview);
+	public void addCars(final JsArrayNumber feed,
+						final JavaScriptObject onProgress,
+						final JavaScriptObject onDone) {
+		if ( feed.length() % CAR_FIELDS != 0 ) {
+			throw new IllegalArgumentException("Car feed length "
+					+ feed.length() + " isn't a multiple of " + CAR_FIELDS);
+		}
+		
+		final int count = feed.length() / CAR_FIELDS;
 		
-		drawMiniview(car, miniview);
+		if ( count <= BATCH_SIZE ) { // Not worth yielding.
+			addCars(feed, 0, count);
+			fireProgress(onProgress, count, count);
+			finishAddingCars(onDone);
+			return;
+		}
 		
-		return miniview;
+		Scheduler.get().scheduleIncremental(new RepeatingCommand() {
+			private int next = 0; // Index of the next car to add.
+			
+			@Override
+			public boolean execute() {
+				Duration slice = new Duration();
+				
+				while ( next < count && slice.elapsedMillis() < SLICE_MILLIS ) {
+					int end = Math.min(count, next + BATCH_SIZE);
+					addCars(feed, next, end);
+					next = end;
+				}
+				
+				fireProgress(onProgress, next, count);
+				
+				if ( next < count ) {
+					return true; // Continue in the next slice.
+				}
+				
+				finishAddingCars(onDone);
+				return false;
+			}
+		});
 	}
 	
 	/**
-	 * Draws the miniview for the specified car.
+	 * Adds the cars in the supplied JSON array of packed records.
+	 * 
+	 * @param json the cars, as a JSON array of packed records.
+	 * @param onProgress the function to call after each slice, or
+	 * <code>null</code>.
+	 * @param onDone the function to call when done, or <code>null</code>.
+	 * @see #addCars(JsArrayNumber, JavaScriptObject, JavaScriptObject)
+	 */
+	private void addCarsJSON(String json, JavaScriptObject onProgress,
+							 JavaScriptObject onDone) {
+		// The feed is only numbers, and comes from the host page's server.
+		JsArrayNumber feed = JsonUtils.unsafeEval(json);
+		addCars(feed, onProgress, onDone);
+	}
+	
+	/**
+	 * Builds and adds the cars for records <code>start</code> (inclusive) to
+	 * <code>end</code> (exclusive) of the supplied feed, and draws the ones
+	 * that are in view onto the view's overlay.
+	 * 
+	 * @param feed the cars, as packed records.
+	 * @param start index of the first record to add.
+	 * @param end index after the last record to add.
+	 */
+	private void addCars(JsArrayNumber feed, int start, int end) {
+		for ( int i = start; i < end; i++ ) {
+			int r = i * CAR_FIELDS;
+			int rgb = (int) feed.get(r + 7);
+			
+			Car car = new Car();
+			car.setType((int) feed.get(r));
+			car.setPosition(feed.get(r + 1), feed.get(r + 2));
+			car.setRotation(feed.get(r + 3), feed.get(r + 4), feed.get(r + 5));
+			car.setScale(feed.get(r + 6));
+			car.setColor((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+			
+			cars.add(car);
+			
+			// Show progress on the overlay as we go.
+			if ( view != null && isCarInView(car, view.getWidth(),
+					view.getHeight(), view.getZoom(), view.getXOffset(),
+					view.getYOffset()) ) {
+				drawCarOn(car, view);
+			}
+		}
+	}
+	
+	/**
+	 * Redraws the overlay once after a feed has been added, then calls the
+	 * supplied native function.
+	 * 
+	 * @param onDone the function to call, or <code>null</code>.
+	 */
+	private void finishAddingCars(JavaScriptObject onDone) {
+		// Only the wire-frames have changed.
+		if ( view != null ) {
+			view.invalidateOverlay();
+		}
+		draw();
+		
+		fireDone(onDone);
+	}
+	
+	/**
+	 * Builds a miniview for the slot's car and places it in the slot's
+	 * element, which must be in the document.
+	 * 
+	 * @param slot the slot to build a miniview for.
+	 * @param element the slot's element.
+	 */
+	private void buildMiniview(MiniviewSlot slot, Element element) {
+		Miniview miniview;
+		
+		// Reuse one if we can.
+		if ( miniviewPool.isEmpty() ) {
+			miniview = new Miniview(slot.car, miniviewSize);
+		} else {
+			miniview = miniviewPool.remove(miniviewPool.size() - 1);
+			miniview.setCar(slot.car);
+		}
+		
+		// Not RootPanel.get(), which would keep a panel per slot for good.
+		slot.host = new MiniviewHost(element);
+		slot.host.setWidget(miniview);
+		slot.miniview = miniview;
+		
+		drawMiniview(miniview);
+	}
+	
+	/**
+	 * Removes the slot's miniview from the page, and keeps it for reuse if
+	 * the pool isn't full.
+	 * 
+	 * @param slot the slot to release the miniview of.
+	 */
+	private void releaseMiniview(MiniviewSlot slot) {
+		slot.host.release();
+		
+		if ( miniviewPool.size() < MAX_POOLED_MINIVIEWS ) {
+			miniviewPool.add(slot.miniview);
+		}
+		
+		slot.host = null;
+		slot.miniview = null;
+	}
+	
+	/**
+	 * Draws the miniview for the specified car, if the car has changed since
+	 * it was last drawn. Does nothing if the miniview isn't currently built,
+	 * since it'll be drawn once it's near the viewport.
 	 * 
 	 * @param car the car to draw the miniview for.
 	 */
 	public void drawMiniview(Car car) {
-		drawMiniview(car, miniviews.get(car));
+		MiniviewSlot slot = miniviews.get(car);
+		
+		if ( slot != null && slot.miniview != null ) {
+			drawMiniview(slot.miniview);
+		}
 	}
 	
 	/**
-	 * Draws the miniview for the specified car onto the specified
-	 * {@link car.shared.views.MovableImageView}.
+	 * Schedules a call to {@link #updateMiniviews()}. Multiple calls before it
+	 * runs only result in a single update.
+	 */
+	private void scheduleMiniviewUpdate() {
+		if ( !miniviewUpdatePending ) {
+			miniviewUpdatePending = true;
+			
+			Scheduler.get().scheduleDeferred(new ScheduledCommand() {
+				@Override
+				public void execute() {
+					miniviewUpdatePending = false;
+					updateMiniviews();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Builds the miniviews whose elements are near the viewport, and releases
+	 * the ones whose elements have moved away from it.
 	 * 
-	 * @param car the car to draw the miniview for.
-	 * @param miniview the view to draw the miniview on.
+	 * Usually, only the slots near the viewport are looked at, since <code>
+	 * slotOrder</code> is kept in page order. If it might not be, because
+	 * miniviews were added or an element has come or gone, or the page
+	 * turns out to have been rearranged, every slot is looked at once, and
+	 * <code>slotOrder</code> is sorted again.
+	 */
+	private void updateMiniviews() {
+		if ( view == null ) {
+			return; // No image to draw yet. We'll be called again.
+		}
+		
+		List<MiniviewSlot> near = slotsSorted ? findNearSorted() : null;
+		if ( near == null ) {
+			near = sortAndFindNear();
+		}
+		
+		// Let go of the ones that have moved away, then build the new ones.
+		for ( MiniviewSlot slot : builtSlots ) {
+			if ( !near.contains(slot) ) {
+				releaseMiniview(slot);
+			}
+		}
+		
+		for ( MiniviewSlot slot : near ) {
+			if ( slot.miniview == null ) {
+				buildMiniview(slot,
+						Document.get().getElementById(slot.miniviewId));
+			}
+		}
+		
+		builtSlots = near;
+	}
+	
+	/**
+	 * Builds the supplied slot's miniview if its element is near the viewport.
+	 * 
+	 * @param slot the slot to update.
 	 */
-	private void drawMiniview(Car car, MovableImageView miniview) {
+	private void updateMiniview(MiniviewSlot slot) {
+		if ( view == null ) {
+			return; // No image to draw yet. We'll be called again.
+		}
+		
+		Element element = Document.get().getElementById(slot.miniviewId);
+		
+		if ( element != null && isNearViewport(element) ) {
+			buildMiniview(slot, element);
+			builtSlots.add(slot);
+		}
+	}
+	
+	/**
+	 * Returns the slots whose elements are near the viewport, assuming
+	 * <code>slotOrder</code> is in page order. Only the slots from the first
+	 * one that reaches the near area, found by a binary search, to the first
+	 * one past it are looked at. That's O(log N) layout reads plus the ones
+	 * near the viewport, rather than one per car.
+	 * 
+	 * Returns <code>null</code> if <code>slotOrder</code> turns out not to be
+	 * in page order after all: an element has come or gone, or the elements
+	 * that were looked at are out of order.
+	 * 
+	 * @return the slots near the viewport, or <code>null</code>.
+	 */
+	private List<MiniviewSlot> findNearSorted() {
+		// Elements that weren't on the page might be by now. No layout reads
+		// needed to tell.
+		for ( int i = placedSlots; i < slotOrder.size(); i++ ) {
+			if ( Document.get().getElementById(slotOrder.get(i).miniviewId)
+					!= null ) {
+				return null;
+			}
+		}
+		
+		int first = findFirstNearSlot();
+		if ( first == -1 ) {
+			return null;
+		}
+		
+		int viewBottom = Window.getScrollTop() + 2 * Window.getClientHeight();
+		List<MiniviewSlot> near = new ArrayList<MiniviewSlot>();
+		
+		int lastTop = Integer.MIN_VALUE;
+		for ( int i = first; i < placedSlots; i++ ) {
+			MiniviewSlot slot = slotOrder.get(i);
+			Element element = Document.get().getElementById(slot.miniviewId);
+			if ( element == null ) {
+				return null; // It's left the page.
+			}
+			
+			int top = element.getAbsoluteTop();
+			if ( top < lastTop ) {
+				return null; // Out of order.
+			}
+			lastTop = top;
+			
+			if ( top >= viewBottom ) {
+				break; // This one and the rest are below the near area.
+			} else if ( isNearViewport(element) ) {
+				near.add(slot);
+			}
+		}
+		
+		return near;
+	}
+	
+	/**
+	 * Returns the index in <code>slotOrder</code> of the first slot whose
+	 * element reaches down into the near area, or <code>placedSlots</code> if
+	 * there isn't one. Returns -1 if a slot's element has left the page, or
+	 * the elements it looked at are out of order.
+	 * 
+	 * @return the index of the first slot that could be near the viewport,
+	 * or -1.
+	 */
+	private int findFirstNearSlot() {
+		int viewTop = Window.getScrollTop() - Window.getClientHeight();
+		
+		// Tops of the lowest slot found above the near area, and the highest
+		// one found reaching into it. In page order, the first can't be
+		// further down.
+		int aboveTop = Integer.MIN_VALUE;
+		int reachingTop = Integer.MAX_VALUE;
+		
+		int low = 0;
+		int high = placedSlots;
+		while ( low < high ) {
+			int mid = (low + high) >>> 1;
+			String id = slotOrder.get(mid).miniviewId;
+			Element element = Document.get().getElementById(id);
+			
+			if ( element == null ) {
+				return -1; // It's left the page.
+			}
+			
+			if ( getBottom(element) <= viewTop ) {
+				aboveTop = Math.max(aboveTop, element.getAbsoluteTop());
+				low = mid + 1;
+			} else {
+				reachingTop = Math.min(reachingTop, element.getAbsoluteTop());
+				high = mid;
+			}
+		}
+		
+		return ( aboveTop > reachingTop ) ? -1 : low;
+	}
+	
+	/**
+	 * Looks at every slot, returning the ones whose elements are near the
+	 * viewport, and sorts <code>slotOrder</code> into page order. Slots whose
+	 * elements aren't on the page go at the end.
+	 * 
+	 * @return the slots near the viewport.
+	 */
+	private List<MiniviewSlot> sortAndFindNear() {
+		final Map<MiniviewSlot, Integer> tops
+				= new HashMap<MiniviewSlot, Integer>();
+		List<MiniviewSlot> placed = new ArrayList<MiniviewSlot>();
+		List<MiniviewSlot> missing = new ArrayList<MiniviewSlot>();
+		List<MiniviewSlot> near = new ArrayList<MiniviewSlot>();
+		
+		for ( MiniviewSlot slot : slotOrder ) {
+			Element element = Document.get().getElementById(slot.miniviewId);
+			
+			if ( element == null ) {
+				missing.add(slot); // Not on the page (yet).
+			} else {
+				tops.put(slot, element.getAbsoluteTop());
+				placed.add(slot);
+				
+				if ( isNearViewport(element) ) {
+					near.add(slot);
+				}
+			}
+		}
+		
+		// Stable, so slots side by side keep the order they were added in.
+		Collections.sort(placed, new Comparator<MiniviewSlot>() {
+			@Override
+			public int compare(MiniviewSlot a, MiniviewSlot b) {
+				return tops.get(a).compareTo(tops.get(b));
+			}
+		});
+		
+		slotOrder.clear();
+		slotOrder.addAll(placed);
+		slotOrder.addAll(missing);
+		placedSlots = placed.size();
+		slotsSorted = true;
+		
+		return near;
+	}
+	
+	/**
+	 * Returns the bottom of the supplied element, in page coordinates. The
+	 * element may be empty, so it's assumed to be at least miniview-sized.
+	 * 
+	 * @param element the element.
+	 * @return the bottom of the element.
+	 */
+	private int getBottom(Element element) {
+		return element.getAbsoluteTop()
+				+ Math.max(element.getOffsetHeight(), miniviewSize);
+	}
+	
+	/**
+	 * Returns whether the supplied element is within one screen of the
+	 * visible part of the page.
+	 * 
+	 * @param element the element.
+	 * @return <code>true</code> if it's near the viewport, <code>false</code> otherwise.
+	 */
+	private boolean isNearViewport(Element element) {
+		int clientWidth = Window.getClientWidth();
+		int clientHeight = Window.getClientHeight();
+		
+		// The element may be empty, so assume it's at least miniview-sized.
+		int left = element.getAbsoluteLeft();
+		int top = element.getAbsoluteTop();
+		int right = left + Math.max(element.getOffsetWidth(),  miniviewSize);
+		int bottom = getBottom(element);
+		
+		int viewLeft = Window.getScrollLeft() - clientWidth;
+		int viewTop = Window.getScrollTop() - clientHeight;
+		int viewRight = Window.getScrollLeft() + 2 * clientWidth;
+		int viewBottom = Window.getScrollTop() + 2 * clientHeight;
+		
+		return right > viewLeft && left < viewRight
+				&& bottom > viewTop && top < viewBottom;
+	}
+	
+	/**
+	 * Draws the specified {@link Miniview}, if its car has changed since it
+	 * was last drawn. Only the part of the image that's visible in the
+	 * miniview is drawn, and the wire-frame is composited over it through the
+	 * painters' shared scratch layer.
+	 * 
+	 * @param miniview the miniview to draw.
+	 */
+	private void drawMiniview(Miniview miniview) {
+		ImageElement imageElement = ImageElement.as(view.getImage().getElement());
+		if ( !miniview.needsRedraw(imageElement) ) {
+			return; // Still up to date.
+		}
+		
+		Car car = miniview.getCar();
+		Surface surface = miniview.getSurface();
+		
+		// Centered on the car, in image coordinates.
 		double zoom = 0.5 / computeViewScale(car.getScale());
-		double offX = car.getPositionX()-view.getXOffset()-miniviewSize/zoom/2;
-		double offY = car.getPositionY()-view.getYOffset()-miniviewSize/zoom/2;
-
-		miniview.setZoom(zoom);
-		miniview.setOffset(offX, offY);
-		miniview.draw();
-		drawCarOn(car, miniview);
+		double offX = car.getPositionX() - miniviewSize/zoom/2;
+		double offY = car.getPositionY() - miniviewSize/zoom/2;
+		
+		surface.clear();
+		
+		// Source rectangle, clamped to the image, since some browsers throw if
+		// it goes outside of it.
+		double x1 = Math.max(0, offX);
+		double y1 = Math.max(0, offY);
+		double x2 = Math.min(imageElement.getWidth(),  offX + miniviewSize/zoom);
+		double y2 = Math.min(imageElement.getHeight(), offY + miniviewSize/zoom);
+		
+		if ( x2 > x1 && y2 > y1 ) {
+			surface.drawImage(imageElement, x1, y1, x2 - x1, y2 - y1,
+					(x1 - offX) * zoom, (y1 - offY) * zoom,
+					(x2 - x1) * zoom, (y2 - y1) * zoom);
+		}
+		
+		drawCarOn(car, miniview.getPainter(), zoom, offX, offY, null, true);
+		
+		miniview.markDrawn(imageElement);
 	}
 	
 	/**
@@ -275,16 +863,25 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 	 * @param miniviewId the new containing element's ID.
 	 */
 	public void setMiniview(Car car, String miniviewId) {
-		MovableImageView oldView = miniviews.get(car);
+		MiniviewSlot oldSlot = miniviews.get(car);
+		MiniviewSlot slot = new MiniviewSlot(car, miniviewId);
 		
-		// If there's an old one, remove it.
-		if ( oldView != null ) {
-			oldView.removeFromParent();
+		// If there's an old one, remove it. The new one takes its place.
+		if ( oldSlot != null ) {
+			if ( oldSlot.miniview != null ) {
+				releaseMiniview(oldSlot);
+				builtSlots.remove(oldSlot);
+			}
+			
+			slotOrder.set(slotOrder.indexOf(oldSlot), slot);
+		} else {
+			slotOrder.add(slot);
 		}
+		slotsSorted = false; // Its element could be anywhere.
 		
-		// Build the new miniview.
-		MovableImageView miniview = buildMiniview(car, miniviewId);
-		miniviews.put(car, miniview);
+		// The miniview is only built if it's near the viewport.
+		miniviews.put(car, slot);
+		updateMiniview(slot);
 	}
 
 	/**
@@ -330,6 +927,24 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 		return view.getZoom();
 	}
 	
+	/**
+	 * Returns the drawing statistics recorded so far, as a native JavaScript
+	 * object.
+	 * 
+	 * @return the drawing statistics.
+	 * @see car.shared.views.FrameStats#toJSON()
+	 */
+	public JavaScriptObject getStats() {
+		return stats.toJavaScriptObject();
+	}
+	
+	/**
+	 * Clears the drawing statistics recorded so far.
+	 */
+	public void resetStats() {
+		stats.reset();
+	}
+	
 	/**
 	 * Converts the generic car-scale into one specific to this
 	 * <code>Widget</code>'s {@link car.shared.views3d.WireFrameView} and image.
@@ -367,8 +982,15 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 		setImageURL(url);
 		
 		String configName = readConfigName();
+		Bootstrap bootstrap = readBootstrap();
 		
-		if ( configName == null ) {
+		if ( bootstrap != null ) {
+			// Embedded in the page, so it may already be fully loaded.
+			if ( configName == null ) {
+				configName = WireFrameConfig.DEFAULT_CONFIG;
+			}
+			config = new WireFrameConfig(configName, bootstrap);
+		} else if ( configName == null ) {
 			config = WireFrameConfig.get(); // Load and grab default config.
 		} else {
 			config = new WireFrameConfig(configName);
@@ -411,14 +1033,11 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 		Style style = getElement().getStyle();
 		style.setWidth(viewWidth, Unit.PX);
 		
-		buildWireFrameView();
 		buildImageView();
-		buildControls();
 		
 		// Fill up the main container.
 		container = new FlowPanel();
 		container.add(image);
-		container.add(wireFrame);
 		// container.add(view);
 		
 		setWidget(container);
@@ -426,21 +1045,6 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 		
 	}
 
-	/**
-	 * Builds the {@link car.shared.views3d.WireFrameView} and sets the
-	 * default parameters. Does not add it to the DOM.
-	 */
-	private void buildWireFrameView() {
-		// Load default car wire-frame and set up wire-frame view.
-		ObjWireFrame carFrame = config.getDefaultWireFrame(); 
-		wireFrame = new WireFrameView(carFrame, viewWidth, viewHeight);
-		
-		// Set up view CSS style.
-		Style wfvStyle = wireFrame.getElement().getStyle();
-		// Inline-block allows them to appear side-by-side.
-		wfvStyle.setDisplay(Display.NONE);
-	}
-	
 	/**
 	 * Builds the {@link MovableImageView} and sets the default parameters. Does
 	 * not add it to the DOM.
@@ -456,25 +1060,25 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 			public void onLoad(LoadEvent event) {
 				view = new MovableImageView(image, carRect, image.getWidth(), image.getHeight());
 				view.getElement().getStyle().setDisplay(Display.INLINE_BLOCK);
+				view.setFrameStats(stats);
+				view.setOverlayPainter(new CarPainter());
+				viewPainter = new WireFramePainter(view.getSurface());
 				new MovableImageMouseHandler(CarViewer.this, view);
 
-				// Set the initial slider value depending on the initial zoom.
-				double initialZoom = view.getZoomFactor() * zoomSlider.getMaximum();
-				zoomSlider.setValue(initialZoom);
-				
 				container.add(view);
 				
-				// Add the things that go after the view:
-				container.add(new InlineLabel("Zoom: "));
-				container.add(zoomSlider);
-				container.add(resetButton);
-				
 				// Set the size so that everything is nice and centered.
 				CarViewer.this.setSize(
 						"" + image.getWidth() , "" + image.getHeight());
 				draw();
+				updateMiniviews(); // Now that there's an image to draw.
+				
+				LoadTimings timings = config.getLoadTimings();
+				timings.markFirstFrame();
+				// Call the native after-load hook.
+				fireAfterModuleLoad(timings.toJavaScriptObject());
 				
-				fireAfterModuleLoad(); // Call the native after-load hook.
+				loadControls(); // Not needed for the first frame.
 			}
 		});
 		
@@ -484,6 +1088,35 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 		image.getElement().getStyle().setDisplay(Display.NONE);
 	}
 
+	/**
+	 * Downloads the code for the controls in its own fragment, then builds them
+	 * and adds them after the view. Called once the view exists, so the first
+	 * frame doesn't wait on them.
+	 */
+	private void loadControls() {
+		GWT.runAsync(new RunAsyncCallback() {
+			@Override
+			public void onSuccess() {
+				buildControls();
+				
+				// Set the initial slider value depending on the current zoom.
+				double zoom = view.getZoomFactor() * zoomSlider.getMaximum();
+				zoomSlider.setValue(zoom);
+				
+				// Add the things that go after the view:
+				container.add(new InlineLabel("Zoom: "));
+				container.add(zoomSlider);
+				container.add(resetButton);
+			}
+			
+			@Override
+			public void onFailure(Throwable reason) {
+				// The view still works with the mouse, so carry on without.
+				GWT.log("Could not load the CarViewer's controls.", reason);
+			}
+		});
+	}
+
 	/**
 	 * Builds the all of the controls and sets the default parameters. Does not
 	 * add them to the DOM.
@@ -511,7 +1144,6 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 				draw();
 			}
 		});
-
 	}
 		
 	/**
@@ -523,14 +1155,13 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 		boolean viewRedrawn = false;
 		
 		if ( view != null ) {
+			double start = stats.start();
+			
+			// The wire-frames are drawn on the overlay by a CarPainter.
 			viewRedrawn = view.draw();
 			
 			if ( viewRedrawn ) {
-				// Redraw wire-frames ontop of it.
-				
-				for ( Car car : cars ) {
-					drawCarOn(car, view);
-				}
+				stats.record(Phase.FRAME, start);
 			}
 		}
 		
@@ -555,7 +1186,11 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 	
 	public void reset() {
 		view.reset();
-		zoomSlider.setValue(view.getZoomFactor());
+		
+		if ( zoomSlider != null ) { // Controls may still be loading.
+			zoomSlider.setValue(view.getZoomFactor());
+		}
+		
 		redraw();
 	}
 	
@@ -566,29 +1201,259 @@ public class CarViewer extends FocusPanel implements EntryPoint, Drawable {
 	 * @param view view to draw the wire-frame on.
 	 */
 	protected void drawCarOn(Car car, MovableImageView view) {
-		CanvasElement fromCanvas = wireFrame.getSurface().getCanvas();
-		Surface surface = view.getSurface();
+		drawCarOn(car, viewPainter, view.getZoom(),
+				  view.getXOffset(), view.getYOffset(), coveredCells, false);
+	}
+	
+	/**
+	 * Draws the car straight onto the painter's surface, which shows the image
+	 * at the supplied zoom and offset. The surface should be an overlay, since
+	 * the car's faces are cleared to transparent.
+	 * 
+	 * @param car the car to draw.
+	 * @param painter painter for the surface to draw the wire-frame on.
+	 * @param viewZoom the zoom the surface shows the image at.
+	 * @param viewOffX the x-offset the surface shows the image at.
+	 * @param viewOffY the y-offset the surface shows the image at.
+	 */
+	protected void drawCarOn(Car car, WireFramePainter painter,
+							 double viewZoom, double viewOffX, double viewOffY) {
+		drawCarOn(car, painter, viewZoom, viewOffX, viewOffY, null, false);
+	}
+	
+	/**
+	 * Draws the car onto the painter's surface, as
+	 * {@link #drawCarOn(Car, WireFramePainter, double, double, double)} does.
+	 * If the supplied set of covered cells is given, and the car overlaps one
+	 * of them, it's drawn on a layer of its own first, so that its faces
+	 * don't erase the cars already drawn underneath it. Its cells are then
+	 * added to the set. The car's always drawn that way on surfaces that
+	 * aren't an overlay, so it doesn't erase the image.
+	 * 
+	 * @param car the car to draw.
+	 * @param painter painter for the surface to draw the wire-frame on.
+	 * @param viewZoom the zoom the surface shows the image at.
+	 * @param viewOffX the x-offset the surface shows the image at.
+	 * @param viewOffY the y-offset the surface shows the image at.
+	 * @param covered cells already drawn over, or <code>null</code> if the
+	 * car's alone on the surface.
+	 * @param onImage whether the surface has the image on it.
+	 */
+	private void drawCarOn(Car car, WireFramePainter painter,
+						   double viewZoom, double viewOffX, double viewOffY,
+						   Set<Integer> covered, boolean onImage) {
+		ProjectedWireFrame projected = getProjectedWireFrame(car);
 		
-		// wireFrame.reset();
-		wireFrame.setWireFrame(config.getWireFrame(car.getType()));
-		wireFrame.setRotate(car.getRotateX(),car.getRotateY(),car.getRotateZ());
-		wireFrame.getSurface().setStrokeStyle(car.getColor());
-		wireFrame.draw();
+		// The wire-frame's y = [-1.0, 1.0] spans viewHeight at the car's scale.
+		double zoom = viewZoom * computeViewScale(car.getScale());
+		double scale = zoom * viewHeight / 2;
 		
-		surface.save(); // Save the weird transform.
+		// Where the car's center ends up on the surface.
+		double x = (car.getPositionX() - viewOffX) * viewZoom;
+		double y = (car.getPositionY() - viewOffY) * viewZoom;
 		
-		double viewZoom = view.getZoom();
-		double carViewScale = computeViewScale(car.getScale());
+		double start = stats.start();
 		
-		// Umm, magic?
-		double zoom = viewZoom * carViewScale;
-		double offX = viewWidth  * carViewScale/2- car.getPositionX() +view.getXOffset();
-		double offY = viewHeight * carViewScale/2- car.getPositionY() +view.getYOffset();
+		// Lines are a pixel wide, so they reach a little past the radius.
+		double radius = projected.getWireFrame().getBoundingRadius() * scale + 1;
 		
-		surface.setTransform(zoom, 0, 0, zoom, -offX*viewZoom, -offY*viewZoom);
+		boolean overlaps = covered != null && cover(covered, x, y, radius);
 		
-		surface.drawImage(fromCanvas, 0, 0, fromCanvas.getWidth(), fromCanvas.getHeight());
+		if ( onImage || overlaps ) {
+			painter.paintIsolated(projected, car.getColor(), scale, x, y, radius);
+		} else {
+			painter.paint(projected, car.getColor(), scale, x, y);
+		}
 		
-		surface.restore(); // Restore weird transform.
+		stats.record(Phase.EMIT, start);
+		stats.countFaces(projected.getFaceCount(), projected.getCulledCount());
+	}
+	
+	/**
+	 * Adds the cells under the supplied square to the supplied set, and
+	 * returns whether any of them were already in it.
+	 * 
+	 * @param covered the cells drawn over so far.
+	 * @param x x-coordinate of the square's center.
+	 * @param y y-coordinate of the square's center.
+	 * @param radius half the width of the square.
+	 * @return <code>true</code> if the square overlaps a covered cell.
+	 */
+	private static boolean cover(Set<Integer> covered,
+								 double x, double y, double radius) {
+		int minX = clampCell((x - radius) / COVER_CELL);
+		int maxX = clampCell((x + radius) / COVER_CELL);
+		int minY = clampCell((y - radius) / COVER_CELL);
+		int maxY = clampCell((y + radius) / COVER_CELL);
+		
+		boolean overlaps = false;
+		for ( int cy = minY; cy <= maxY; cy++ ) {
+			for ( int cx = minX; cx <= maxX; cx++ ) {
+				// add() returns false if it was already there.
+				if ( !covered.add(cy * COVER_COLUMNS + cx) ) {
+					overlaps = true;
+				}
+			}
+		}
+		
+		return overlaps;
+	}
+	
+	/**
+	 * Returns the cell a coordinate, in cells, falls in, clamped to the
+	 * overlay's grid. Cars are never drawn far off the overlay.
+	 * 
+	 * @param cell the coordinate, in cells.
+	 * @return the cell's index.
+	 */
+	private static int clampCell(double cell) {
+		return (int) Math.max(0, Math.min(COVER_COLUMNS - 1, Math.floor(cell)));
+	}
+	
+	/**
+	 * Returns whether any part of the supplied car could be visible on a
+	 * surface of the supplied size, which shows the image at the supplied zoom
+	 * and offset. Uses a circle around the car, sized by its scale and its
+	 * wire-frame's bounding radius, so it works for any rotation. Cheap enough
+	 * to do before any of the car's wire-frame work.
+	 * 
+	 * @param car the car to test.
+	 * @param width the width of the surface.
+	 * @param height the height of the surface.
+	 * @param viewZoom the zoom the surface shows the image at.
+	 * @param viewOffX the x-offset the surface shows the image at.
+	 * @param viewOffY the y-offset the surface shows the image at.
+	 * @return <code>true</code> if the car might be visible, <code>false</code>
+	 * if it definitely isn't.
+	 */
+	private boolean isCarInView(Car car, double width, double height,
+							 double viewZoom, double viewOffX, double viewOffY) {
+		ObjWireFrame carFrame = config.getWireFrame(car.getType());
+		double zoom = viewZoom * computeViewScale(car.getScale());
+		
+		// The wire-frame's y = [-1.0, 1.0] spans viewHeight, before zooming.
+		// Pad by a line's width, so edges that are only just off aren't culled.
+		double radius = (carFrame.getBoundingRadius() * viewHeight/2 + 1) * zoom;
+		
+		// Where the car's center ends up on the surface.
+		double x = (car.getPositionX() - viewOffX) * viewZoom;
+		double y = (car.getPositionY() - viewOffY) * viewZoom;
+		
+		return x + radius > 0 && x - radius < width
+				&& y + radius > 0 && y - radius < height;
+	}
+	
+	/**
+	 * Returns the supplied car's wire-frame, transformed and sorted according
+	 * to its type and rotation. The result is kept, and only recomputed once
+	 * the car's type or rotation changes, so cars that have only been moved,
+	 * scaled, or recolored (or not changed at all) cost no geometry work.
+	 * 
+	 * @param car the car to get the wire-frame of.
+	 * @return the car's projected wire-frame.
+	 */
+	private ProjectedWireFrame getProjectedWireFrame(Car car) {
+		CarRenderState state = renderStates.get(car);
+		if ( state == null ) {
+			state = new CarRenderState();
+			renderStates.put(car, state);
+		}
+		
+		if ( state.version == car.getVersion() ) {
+			return state.projected; // Nothing's changed at all.
+		}
+		state.version = car.getVersion();
+		
+		if ( state.projected.getWireFrame() != null
+				&& state.type == car.getType()
+				&& state.rotX == car.getRotateX()
+				&& state.rotY == car.getRotateY()
+				&& state.rotZ == car.getRotateZ() ) {
+			return state.projected; // Only its position, scale, or color.
+		}
+		
+		state.type = car.getType();
+		state.rotX = car.getRotateX();
+		state.rotY = car.getRotateY();
+		state.rotZ = car.getRotateZ();
+		
+		WireFrameGeometry geometry = geometries.get(state.type);
+		if ( geometry == null ) {
+			geometry = new WireFrameGeometry(config.getWireFrame(state.type));
+			geometries.put(state.type, geometry);
+		}
+		
+		double start = stats.start();
+		
+		rotation.setEuler(state.rotX, state.rotY, state.rotZ);
+		rotation.toMatrix(rotMatrix);
+		geometry.transform(rotMatrix);
+		
+		stats.record(Phase.TRANSFORM, start);
+		start = stats.start();
+		
+		geometry.sortFaces();
+		
+		stats.record(Phase.SORT, start);
+		
+		state.projected.capture(geometry);
+		
+		return state.projected;
+	}
+	
+	/**
+	 * A car's projected wire-frame, and what it was projected from.
+	 * 
+	 * @author Joshua Little
+	 */
+	private static class CarRenderState {
+		private int version = -1; // Car's version when last checked.
+		
+		// Type and rotation the wire-frame was projected with.
+		private int type;
+		private double rotX, rotY, rotZ;
+		
+		private ProjectedWireFrame projected = new ProjectedWireFrame();
+	}
+	
+	/**
+	 * Where a car's miniview goes, and the miniview itself while it's built.
+	 * 
+	 * @author Joshua Little
+	 */
+	private static class MiniviewSlot {
+		private Car car; // Car to show.
+		private String miniviewId; // ID of the element to add it to.
+		private Miniview miniview = null; // null while it's not near view.
+		private MiniviewHost host = null; // Wraps the element while built.
+		
+		public MiniviewSlot(Car car, String miniviewId) {
+			this.car = car;
+			this.miniviewId = miniviewId;
+		}
+	}
+	
+	/**
+	 * Fills in the main view's overlay with the wire-frames of all the cars.
+	 * 
+	 * @author Joshua Little
+	 */
+	private class CarPainter implements OverlayPainter {
+		@Override
+		public void paintOverlay(MovableImageView view, Surface overlay) {
+			double zoom = view.getZoom();
+			double offX = view.getXOffset();
+			double offY = view.getYOffset();
+			
+			coveredCells.clear(); // The overlay's just been cleared.
+			
+			for ( Car car : cars ) {
+				// Skip cars that are panned or zoomed out of view.
+				if ( isCarInView(car, view.getWidth(), view.getHeight(),
+								 zoom, offX, offY) ) {
+					drawCarOn(car, view);
+				}
+			}
+		}
 	}
 }
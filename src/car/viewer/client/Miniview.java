@@ -0,0 +1,117 @@
+package car.viewer.client;
+
+import gwt.g2d.client.graphics.Surface;
+import car.shared.views3d.WireFramePainter;
+
+import com.google.gwt.dom.client.ImageElement;
+import com.google.gwt.user.client.ui.Composite;
+
+/**
+ * A small, fixed view of a single {@link Car} and the part of the image
+ * around it. Unlike a {@link car.shared.views.MovableImageView}, it can't be
+ * moved or zoomed, and only ever draws the part of the image it shows. The
+ * wire-frame is drawn over the image on the same canvas, through the scratch
+ * layer all {@link WireFramePainter}s share.
+ * 
+ * A <code>Miniview</code> keeps what it last drew, and remembers which version
+ * of the car and which image it was drawn from, so it only needs to be redrawn
+ * once one of them changes.
+ * 
+ * @author Joshua Little
+ * @see CarViewer#drawMiniview(Car)
+ */
+public class Miniview extends Composite {
+	private Car car; // Car this miniview shows.
+	private Surface surface; // Canvas to draw on.
+	private WireFramePainter painter; // Draws the wire-frame on surface.
+	
+	// What was last drawn. The version is -1 if nothing has been drawn yet.
+	private int drawnVersion = -1;
+	private ImageElement drawnImage = null;
+	
+	/**
+	 * Creates a new instance of <code>Miniview</code> for the supplied car.
+	 * 
+	 * @param car the car to show.
+	 * @param size the width and height of the miniview.
+	 */
+	public Miniview(Car car, int size) {
+		this.car = car;
+		
+		surface = new Surface(size, size);
+		painter = new WireFramePainter(surface);
+		initWidget(surface);
+		
+		setStylePrimaryName("miniview");
+	}
+	
+	/**
+	 * Changes the car this <code>Miniview</code> shows, so that it can be
+	 * reused instead of building a new one. It will need to be redrawn.
+	 * 
+	 * @param car the new car to show.
+	 */
+	public void setCar(Car car) {
+		this.car = car;
+		invalidate();
+	}
+	
+	/**
+	 * Returns the car this <code>Miniview</code> shows.
+	 * 
+	 * @return the car.
+	 */
+	public Car getCar() {
+		return car;
+	}
+	
+	/**
+	 * Returns the canvas surface this <code>Miniview</code> is drawn on.
+	 * 
+	 * @return the canvas surface.
+	 */
+	public Surface getSurface() {
+		return surface;
+	}
+	
+	/**
+	 * Returns the painter that draws wire-frames on the canvas surface. Since
+	 * the image is on the same surface, wire-frames should be drawn with
+	 * {@link WireFramePainter#paintIsolated}.
+	 * 
+	 * @return the surface's painter.
+	 */
+	public WireFramePainter getPainter() {
+		return painter;
+	}
+	
+	/**
+	 * Returns whether this <code>Miniview</code> needs to be redrawn to show
+	 * the current state of its car on the supplied image.
+	 * 
+	 * @param image the image the car is on.
+	 * @return <code>true</code> if it needs redrawing, <code>false</code> otherwise.
+	 */
+	public boolean needsRedraw(ImageElement image) {
+		return car.getVersion() != drawnVersion || image != drawnImage;
+	}
+	
+	/**
+	 * Records that this <code>Miniview</code> has been drawn with the current
+	 * state of its car, on the supplied image.
+	 * 
+	 * @param image the image the car was drawn on.
+	 */
+	public void markDrawn(ImageElement image) {
+		drawnVersion = car.getVersion();
+		drawnImage = image;
+	}
+	
+	/**
+	 * Forces this <code>Miniview</code> to be redrawn the next time it's
+	 * checked.
+	 */
+	public void invalidate() {
+		drawnVersion = -1;
+	}
+}
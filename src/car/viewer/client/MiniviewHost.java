@@ -0,0 +1,39 @@
+package car.viewer.client;
+
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.user.client.ui.RootPanel;
+import com.google.gwt.user.client.ui.SimplePanel;
+
+/**
+ * Wraps an element of the host page, so a {@link Miniview} can be added to it
+ * without going through <code>RootPanel.get(id)</code>. Every RootPanel made
+ * that way is kept until the page closes, while a <code>MiniviewHost</code>
+ * is let go as soon as it's {@linkplain #release() released}.
+ * 
+ * @author Joshua Little
+ */
+class MiniviewHost extends SimplePanel {
+	
+	/**
+	 * Wraps the supplied element and attaches the new <code>MiniviewHost
+	 * </code>. The element must already be in the document.
+	 * 
+	 * @param element the element to wrap.
+	 */
+	public MiniviewHost(Element element) {
+		super(element.<com.google.gwt.user.client.Element>cast());
+		
+		onAttach();
+		RootPanel.detachOnWindowClose(this); // In case it's never released.
+	}
+	
+	/**
+	 * Removes the miniview and detaches this <code>MiniviewHost</code>. The
+	 * element stays in the document.
+	 */
+	public void release() {
+		clear();
+		RootPanel.detachNow(this);
+	}
+	
+}
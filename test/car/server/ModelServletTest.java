@@ -0,0 +1,374 @@
+package car.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.bio.SocketConnector;
+import org.mortbay.jetty.webapp.WebAppContext;
+
+/**
+ * Tests {@link ModelServlet} in an embedded Jetty, listening on localhost
+ * only. It serves a temporary copy of the <code>war/</code> directory, with
+ * its real <code>web.xml</code>, so tests can add and change files without
+ * touching the sources. Must be run from the project directory.
+ * 
+ * @author Joshua Little
+ */
+public class ModelServletTest {
+	private static final String WAR_DIR = "war";
+	private static final String MODEL = "/models/sedan.objm";
+	private static final String CONFIG = "/orientor_config.xml";
+	
+	private static File webappDir; // Temporary copy of war/.
+	private static Server server;
+	private static String baseURL;
+	
+	private List<File> created = new ArrayList<File>(); // Deleted after each test.
+	
+	@BeforeClass
+	public static void startServer() throws Exception {
+		File warDir = new File(WAR_DIR);
+		assertTrue("Run from the project directory.",
+				   new File(warDir, "WEB-INF/web.xml").isFile());
+		
+		webappDir = File.createTempFile("modelservlettest", "");
+		webappDir.delete();
+		copyWebapp(warDir, webappDir);
+		
+		WebAppContext webapp = new WebAppContext(webappDir.getPath(), "/");
+		// Use the classes being tested, not whatever's in WEB-INF/classes.
+		webapp.setParentLoaderPriority(true);
+		
+		SocketConnector connector = new SocketConnector();
+		connector.setHost("127.0.0.1");
+		connector.setPort(0); // Any free port.
+		
+		server = new Server();
+		server.addConnector(connector);
+		server.setHandler(webapp);
+		server.start();
+		
+		baseURL = "http://127.0.0.1:" + connector.getLocalPort();
+	}
+	
+	@AfterClass
+	public static void stopServer() throws Exception {
+		try {
+			server.stop();
+		} finally {
+			delete(webappDir);
+		}
+	}
+	
+	@After
+	public void deleteCreatedFiles() {
+		for ( File file : created ) {
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void sendsGzipWhenAccepted() throws IOException {
+		Response response = get(MODEL, "gzip, deflate", null);
+		
+		assertEquals(200, response.status);
+		assertEquals("gzip", response.contentEncoding);
+		assertArrayEquals(readFile(MODEL), gunzip(response.body));
+	}
+	
+	@Test
+	public void sendsIdentityWithoutAcceptEncoding() throws IOException {
+		Response response = get(MODEL, null, null);
+		
+		assertEquals(200, response.status);
+		assertNull(response.contentEncoding);
+		assertArrayEquals(readFile(MODEL), response.body);
+	}
+	
+	@Test
+	public void sendsIdentityWhenGzipRefused() throws IOException {
+		Response response = get(MODEL, "gzip;q=0, identity", null);
+		
+		assertNull(response.contentEncoding);
+		assertArrayEquals(readFile(MODEL), response.body);
+	}
+	
+	@Test
+	public void explicitCodingBeatsWildcard() throws IOException {
+		assertEquals("gzip", get(MODEL, "*;q=0, gzip", null).contentEncoding);
+		assertNull(get(MODEL, "gzip;q=0, *", null).contentEncoding);
+	}
+	
+	@Test
+	public void sendsCachingHeaders() throws IOException {
+		Response gzipped = get(MODEL, "gzip", null);
+		Response identity = get(MODEL, null, null);
+		
+		assertEquals(ModelServlet.DEFAULT_CACHE_CONTROL, gzipped.cacheControl);
+		assertEquals("Accept-Encoding", gzipped.vary);
+		assertEquals("Accept-Encoding", identity.vary);
+		
+		// Strong, quoted, and different for each encoding.
+		assertTrue(gzipped.etag.matches("\"[0-9a-f]{32}\""));
+		assertTrue(identity.etag.matches("\"[0-9a-f]{32}\""));
+		assertFalse(gzipped.etag.equals(identity.etag));
+		
+		// Config files are mapped to revalidate every time.
+		assertEquals("public, no-cache",
+					 get(CONFIG, null, null).cacheControl);
+	}
+	
+	@Test
+	public void sendsNotModifiedForMatchingETag() throws IOException {
+		String etag = get(MODEL, "gzip", null).etag;
+		
+		Response response = get(MODEL, "gzip", etag);
+		assertEquals(304, response.status);
+		assertEquals(etag, response.etag);
+		assertEquals(0, response.body.length);
+		
+		// Listed among others, or weak, still matches.
+		assertEquals(304, get(MODEL, "gzip", "\"x\", W/" + etag).status);
+		
+		// A different encoding has a different ETag.
+		assertEquals(200, get(MODEL, null, etag).status);
+	}
+	
+	@Test
+	public void sendsBrotliFromDisk() throws IOException {
+		String path = createModel("v 0 0 0\n".getBytes("UTF-8"));
+		byte[] brotli = { 1, 2, 3, 4 }; // Never decoded, so needn't be real.
+		File brFile = createFile(path + ".br", brotli);
+		brFile.setLastModified(new File(webappDir, path).lastModified() + 2000);
+		
+		Response response = get(path, "gzip, br", null);
+		assertEquals("br", response.contentEncoding);
+		assertArrayEquals(brotli, response.body);
+		
+		assertFalse("br".equals(get(path, "gzip", null).contentEncoding));
+	}
+	
+	@Test
+	public void ignoresOutOfDateBrotli() throws IOException {
+		String path = createModel("v 0 0 0\n".getBytes("UTF-8"));
+		File brFile = createFile(path + ".br", new byte[] { 1, 2, 3, 4 });
+		brFile.setLastModified(new File(webappDir, path).lastModified() - 2000);
+		
+		assertFalse("br".equals(get(path, "br", null).contentEncoding));
+	}
+	
+	@Test
+	public void doesNotServeWebInf() throws IOException {
+		assertEquals(404, get("/WEB-INF/web.xml", null, null).status);
+		assertEquals(404, get("/models/../WEB-INF/web.xml", null, null).status);
+		assertEquals(404,
+				get("/models/%2e%2e/WEB-INF/web.xml", null, null).status);
+	}
+	
+	@Test
+	public void doesNotServeMissingFiles() throws IOException {
+		assertEquals(404, get("/models/missing.objm", null, null).status);
+	}
+	
+	@Test
+	public void reloadsChangedFiles() throws IOException {
+		String path = createModel("v 0 0 0\n".getBytes("UTF-8"));
+		File file = new File(webappDir, path);
+		
+		Response before = get(path, null, null);
+		
+		byte[] changed = "v 1 1 1\n".getBytes("UTF-8");
+		writeFile(file, changed);
+		file.setLastModified(file.lastModified() + 2000);
+		
+		Response after = get(path, null, before.etag);
+		assertEquals(200, after.status);
+		assertArrayEquals(changed, after.body);
+		assertFalse(before.etag.equals(after.etag));
+		
+		assertEquals(304, get(path, null, after.etag).status);
+	}
+	
+	/**
+	 * A response's status, body, and the headers the tests look at.
+	 */
+	private static class Response {
+		int status;
+		byte[] body;
+		String contentEncoding;
+		String etag;
+		String cacheControl;
+		String vary;
+	}
+	
+	/**
+	 * Requests the supplied path from the server.
+	 * 
+	 * @param path the path to request.
+	 * @param acceptEncoding the Accept-Encoding header, or <code>null</code>.
+	 * @param ifNoneMatch the If-None-Match header, or <code>null</code>.
+	 * @return the response.
+	 * @throws IOException if the request fails.
+	 */
+	private static Response get(String path, String acceptEncoding,
+								String ifNoneMatch) throws IOException {
+		HttpURLConnection connection =
+			(HttpURLConnection) new URL(baseURL + path).openConnection();
+		
+		if ( acceptEncoding != null ) {
+			connection.setRequestProperty("Accept-Encoding", acceptEncoding);
+		}
+		if ( ifNoneMatch != null ) {
+			connection.setRequestProperty("If-None-Match", ifNoneMatch);
+		}
+		
+		Response response = new Response();
+		response.status = connection.getResponseCode();
+		response.contentEncoding = connection.getHeaderField("Content-Encoding");
+		response.etag = connection.getHeaderField("ETag");
+		response.cacheControl = connection.getHeaderField("Cache-Control");
+		response.vary = connection.getHeaderField("Vary");
+		
+		InputStream in = ( response.status >= 400 )
+				? connection.getErrorStream() : connection.getInputStream();
+		response.body = ( in == null ) ? new byte[0] : readAll(in);
+		
+		connection.disconnect();
+		return response;
+	}
+	
+	/**
+	 * Writes a model file with a throwaway name into the webapp's <code>
+	 * models/</code> directory.
+	 * 
+	 * @param content the file's content.
+	 * @return the file's path in the webapp.
+	 * @throws IOException if the file could not be written.
+	 */
+	private String createModel(byte[] content) throws IOException {
+		String path = "/models/modelservlettest-" + System.nanoTime() + ".objm";
+		createFile(path, content);
+		
+		return path;
+	}
+	
+	/**
+	 * Writes a file into the webapp, to be deleted after the test.
+	 * 
+	 * @param path the file's path in the webapp.
+	 * @param content the file's content.
+	 * @return the file.
+	 * @throws IOException if the file could not be written.
+	 */
+	private File createFile(String path, byte[] content) throws IOException {
+		File file = new File(webappDir, path);
+		created.add(file);
+		writeFile(file, content);
+		
+		return file;
+	}
+	
+	private static void writeFile(File file, byte[] content) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+	
+	private static byte[] readFile(String path) throws IOException {
+		return readAll(new FileInputStream(new File(webappDir, path)));
+	}
+	
+	/**
+	 * Copies the webapp in <code>from</code> to <code>to</code>, leaving out
+	 * the compiled classes and libraries, which the tests get from their own
+	 * class path.
+	 * 
+	 * @param from the directory to copy.
+	 * @param to the directory to copy to. Must not exist yet.
+	 * @throws IOException if the copy fails.
+	 */
+	private static void copyWebapp(File from, File to) throws IOException {
+		if ( !to.mkdir() ) {
+			throw new IOException("Could not create " + to);
+		}
+		
+		for ( File file : from.listFiles() ) {
+			File copy = new File(to, file.getName());
+			
+			if ( file.isDirectory() ) {
+				String name = file.getName();
+				if ( from.getName().equals("WEB-INF")
+						&& (name.equals("classes") || name.equals("lib")) ) {
+					continue;
+				}
+				
+				copyWebapp(file, copy);
+			} else {
+				writeFile(copy, readAll(new FileInputStream(file)));
+				copy.setLastModified(file.lastModified());
+			}
+		}
+	}
+	
+	/**
+	 * Deletes the supplied file, or directory and everything in it.
+	 * 
+	 * @param file the file to delete.
+	 */
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if ( children != null ) {
+			for ( File child : children ) {
+				delete(child);
+			}
+		}
+		
+		file.delete();
+	}
+	
+	private static byte[] gunzip(byte[] bytes) throws IOException {
+		return readAll(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+	}
+	
+	private static byte[] readAll(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			
+			int read;
+			while ( (read = in.read(buffer)) != -1 ) {
+				out.write(buffer, 0, read);
+			}
+			
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+	
+}
@@ -0,0 +1,129 @@
+package car.shared.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link PointCodec}: round trips at every precision, including the
+ * largest coordinates it accepts, the exact encoding (which submissions
+ * already stored depend on), and rejection of out-of-range and malformed
+ * input.
+ * 
+ * @author Joshua Little
+ */
+public class PointCodecTest {
+	// Largest coordinate, in quantized units, the codec accepts.
+	private static final double MAX_SCALED = 2251799813685248.0; // 2^51
+	
+	@Test
+	public void encodesKnownPoints() {
+		assertEquals("ADUoBGDjB8X", PointCodec.encode(
+				new double[] { 10, 20, 13, 18, -5, 400 }));
+		assertEquals("GCgyp2hqJgp3w6yFv6-6jqJ_o3w6yF", PointCodec.encode(
+				new double[] { 5000.5, 3000.25, -1.125, 0 }, 2, 6));
+		assertEquals("DBAA", PointCodec.encode(new double[] { 0, 0 }, 1, 3));
+		assertEquals("AA", PointCodec.encode(new double[0]));
+	}
+	
+	@Test
+	public void roundTripsWholePixels() {
+		double[] points = { 0, 0, 10, 20, 13, 18, -5, 400, 4000, -3000 };
+		
+		assertArrayEquals(points, PointCodec.decode(PointCodec.encode(points)),
+						  0);
+	}
+	
+	@Test
+	public void roundTripsEveryPrecision() {
+		double[] points = { 5000.5, 3000.25, -1.125, 0, 0.000001, -7654.321 };
+		
+		for ( int p = 0; p <= PointCodec.MAX_PRECISION; p++ ) {
+			double[] decoded = PointCodec.decode(
+					PointCodec.encode(points, points.length / 2, p));
+			
+			// Within half a step, give or take rounding in the test itself.
+			double tolerance = Math.pow(10, -p) / 2 + 1e-9;
+			for ( int i = 0; i < points.length; i++ ) {
+				assertEquals("precision " + p + ", coordinate " + i,
+							 points[i], decoded[i], tolerance);
+			}
+		}
+	}
+	
+	@Test
+	public void roundTripsLargestCoordinates() {
+		double max = MAX_SCALED / 1e6;
+		double[] points = { max, -max, -max, max, 0, 0 };
+		
+		double[] decoded = PointCodec.decode(PointCodec.encode(
+				points, points.length / 2, PointCodec.MAX_PRECISION));
+		
+		for ( int i = 0; i < points.length; i++ ) {
+			assertEquals(Math.round(points[i] * 1e6),
+						 Math.round(decoded[i] * 1e6));
+		}
+	}
+	
+	@Test
+	public void encodesOnlyCountPoints() {
+		double[] points = { 1, 2, 3, 4, 5, 6 };
+		
+		assertArrayEquals(new double[] { 1, 2, 3, 4 },
+				PointCodec.decode(PointCodec.encode(points, 2, 0)), 0);
+	}
+	
+	@Test
+	public void rejectsOutOfRangeInput() {
+		assertEncodeFails(new double[] { 0, 0 }, 1, -1);
+		assertEncodeFails(new double[] { 0, 0 }, 1,
+						  PointCodec.MAX_PRECISION + 1);
+		assertEncodeFails(new double[] { Double.NaN, 0 }, 1, 0);
+		assertEncodeFails(new double[] { 0, Double.POSITIVE_INFINITY }, 1, 0);
+		assertEncodeFails(new double[] { MAX_SCALED / 1e6 * 2, 0 }, 1,
+						  PointCodec.MAX_PRECISION);
+	}
+	
+	@Test
+	public void rejectsMalformedInput() {
+		assertDecodeFails(""); // No header.
+		assertDecodeFails("A"); // No count.
+		assertDecodeFails("HA"); // Precision too high.
+		assertDecodeFails("AB"); // Count, but no point.
+		assertDecodeFails("ABC"); // Half a point.
+		assertDecodeFails("ABg"); // Cut off in the middle of a number.
+		assertDecodeFails("ABAA!"); // Trailing data.
+		assertDecodeFails("AB*A"); // Not a digit.
+		assertDecodeFails("ABéA"); // Not a digit, past ASCII.
+		assertDecodeFails("AP"); // More points than could fit.
+		assertDecodeFails("ABggggggggggggA"); // Run too long.
+		assertDecodeFails("ABggggggggggfA"); // Number too large.
+		
+		// Each step is in range, but they add up to too much.
+		String step = PointCodec.encode(
+				new double[] { MAX_SCALED / 1e6, 0 }, 1, 6).substring(2);
+		assertDecodeFails("GC" + step + step);
+	}
+	
+	private static void assertEncodeFails(double[] points, int count,
+										  int precision) {
+		try {
+			PointCodec.encode(points, count, precision);
+			fail("Encoded with precision " + precision);
+		} catch ( IllegalArgumentException ex ) {
+			// Expected.
+		}
+	}
+	
+	private static void assertDecodeFails(String encoded) {
+		try {
+			PointCodec.decode(encoded);
+			fail("Decoded \"" + encoded + "\"");
+		} catch ( IllegalArgumentException ex ) {
+			// Expected.
+		}
+	}
+	
+}